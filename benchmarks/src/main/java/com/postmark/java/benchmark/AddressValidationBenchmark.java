@@ -0,0 +1,143 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java.benchmark;
+
+import com.postmark.java.AddressValidator;
+import com.postmark.java.PostmarkException;
+import com.postmark.java.PostmarkMessage;
+import com.postmark.java.PostmarkStubServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Address validation against what it saves: rejecting a malformed address
+ * locally, versus posting it and getting a 422 back. The round trip goes to
+ * the in-process stub over loopback, so it is a lower bound; against the real
+ * API add the network latency.
+ * Run with {@code -prof gc} to confirm validation does not allocate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AddressValidationBenchmark {
+
+    private static final String TOKEN = "benchmark-token";
+
+    private String single;
+    private String list;
+    private PostmarkMessage invalid;
+    private byte[] invalidJson;
+
+    private PostmarkStubServer server;
+    private URL url;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        single = "Jane Doe <jane.doe@example.com>";
+
+        StringBuilder to = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            if (i > 0) {
+                to.append(", ");
+            }
+            to.append("\"Customer, ").append(i).append("\" <customer").append(i).append("@example.com>");
+        }
+        list = to.toString();
+
+        invalid = Messages.message(1024, 0, 1);
+        invalid.setToAddress("customer@example..com");
+        invalidJson = ("{\"From\":\"orders@example.com\",\"To\":\"customer@example..com\","
+                + "\"Subject\":\"Your order\",\"TextBody\":\"Hello\"}").getBytes("UTF-8");
+
+        server = PostmarkStubServer.start(TOKEN);
+        url = new URL(server.getUrl() + "/email");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.close();
+    }
+
+    @Benchmark
+    public boolean validateSingle() {
+        return AddressValidator.isValidAddress(single);
+    }
+
+    @Benchmark
+    public boolean validateListOf50() {
+        return AddressValidator.isValidAddressList(list);
+    }
+
+    @Benchmark
+    public Object rejectLocally() {
+        try {
+            invalid.validate();
+            return null;
+        } catch (PostmarkException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public int rejectByRoundTrip() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setRequestProperty("X-Postmark-Server-Token", TOKEN);
+        OutputStream out = connection.getOutputStream();
+        out.write(invalidJson);
+        out.close();
+
+        int status = connection.getResponseCode();
+        InputStream in = connection.getErrorStream();
+        if (in != null) {
+            byte[] buffer = new byte[1024];
+            while (in.read(buffer) != -1) {
+                // drain so the connection is reused
+            }
+            in.close();
+        }
+        return status;
+    }
+}
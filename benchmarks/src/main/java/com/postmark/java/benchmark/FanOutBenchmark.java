@@ -0,0 +1,104 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java.benchmark;
+
+import com.postmark.java.Attachment;
+import com.postmark.java.MessageCodec;
+import com.postmark.java.MessagePrototype;
+import com.postmark.java.PostmarkMessage;
+import com.postmark.java.StreamingMessageCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializing one recipient's message in a fan-out, with the shared parts
+ * encoded on every send and with them frozen into pre-encoded fragments.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanOutBenchmark {
+
+    @Param({"16384", "262144"})
+    public int bodySize;
+
+    @Param({"0", "1"})
+    public int attachments;
+
+    private final MessageCodec codec = new StreamingMessageCodec();
+    private MessagePrototype plain;
+    private MessagePrototype frozen;
+    private int recipient;
+
+    @Setup
+    public void setUp() {
+        PostmarkMessage shared = Messages.message(bodySize, attachments, 1);
+        plain = builder(shared).build();
+        frozen = builder(shared).freeze().build();
+    }
+
+    private static MessagePrototype.Builder builder(PostmarkMessage shared) {
+        MessagePrototype.Builder builder = new MessagePrototype.Builder()
+                .from(shared.getFromAddress())
+                .subject(shared.getSubject())
+                .htmlBody(shared.getHtmlBody())
+                .tag(shared.getTag());
+        if (shared.getAttachments() != null) {
+            for (Attachment attachment : shared.getAttachments()) {
+                builder.attachment(attachment);
+            }
+        }
+        return builder;
+    }
+
+    @Benchmark
+    public long encodeShared() throws IOException {
+        return write(plain.to("customer" + (recipient++ & 1023) + "@example.com"));
+    }
+
+    @Benchmark
+    public long spliceFrozen() throws IOException {
+        return write(frozen.to("customer" + (recipient++ & 1023) + "@example.com"));
+    }
+
+    private long write(PostmarkMessage message) throws IOException {
+        Messages.CountingOutputStream out = new Messages.CountingOutputStream();
+        codec.writeMessage(message, out);
+        return out.count;
+    }
+}
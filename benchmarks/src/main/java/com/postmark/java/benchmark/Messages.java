@@ -0,0 +1,98 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java.benchmark;
+
+import com.postmark.java.Attachment;
+import com.postmark.java.PostmarkMessage;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Test data shared by the benchmarks.
+ */
+final class Messages {
+
+    private Messages() {
+    }
+
+    /**
+     * @param bodySize    the length of the HTML body, in characters
+     * @param attachments the number of attachments
+     * @param seed        varies the content between messages
+     */
+    static PostmarkMessage message(int bodySize, int attachments, long seed) {
+        Random random = new Random(seed);
+        StringBuilder html = new StringBuilder(bodySize + 128);
+        html.append("<html><body><p>");
+        while (html.length() < bodySize) {
+            html.append("Order ").append(random.nextInt(100000)).append(" has shipped & is on its way. ");
+        }
+        html.setLength(bodySize);
+
+        PostmarkMessage message = new PostmarkMessage("orders@example.com", "customer" + seed + "@example.com",
+                "support@example.com", null, "Your order has shipped", html.toString(), true, "shipping");
+
+        if (attachments > 0) {
+            List<Attachment> list = new ArrayList<Attachment>();
+            for (int i = 0; i < attachments; i++) {
+                Attachment attachment = new Attachment();
+                attachment.setName("invoice-" + i + ".pdf");
+                attachment.setContentType("application/pdf");
+                attachment.setContent(base64(64 * 1024, random));
+                list.add(attachment);
+            }
+            message.setAttachments(list);
+        }
+        return message;
+    }
+
+    private static String base64(int length, Random random) {
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = alphabet.charAt(random.nextInt(64));
+        }
+        return new String(chars);
+    }
+
+    /**
+     * An output stream that only counts what is written to it.
+     */
+    static final class CountingOutputStream extends OutputStream {
+
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            count += length;
+        }
+    }
+}
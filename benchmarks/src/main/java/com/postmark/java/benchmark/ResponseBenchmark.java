@@ -0,0 +1,115 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java.benchmark;
+
+import com.google.gson.JsonPrimitive;
+import com.postmark.java.DateTimeTypeAdapter;
+import com.postmark.java.GsonMessageCodec;
+import com.postmark.java.PostmarkResponse;
+import com.postmark.java.StreamingMessageCodec;
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a 500-entry batch response: Gson binding a String, as the client
+ * used to, against the streaming codec reading the bytes. Both now share the
+ * fast timestamp path, so the difference left is the String and the
+ * reflection; the timestamp benchmarks compare {@code new DateTime(String)}
+ * with that fast path for {@code SubmittedAt}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseBenchmark {
+
+    private static final String SUBMITTED_AT = "2014-02-17T07:25:01.4178645-05:00";
+
+    private final GsonMessageCodec gson = new GsonMessageCodec();
+    private final StreamingMessageCodec streaming = new StreamingMessageCodec();
+    private final DateTimeTypeAdapter adapter = new DateTimeTypeAdapter();
+    private final JsonPrimitive submittedAt = new JsonPrimitive(SUBMITTED_AT);
+
+    private String json;
+    private byte[] bytes;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < 500; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"ErrorCode\":0,\"Message\":\"OK\",\"MessageID\":\"b7bc2f4a-e38e-4336-af7d-e6c392c2f8")
+                    .append(String.format("%03d", i))
+                    .append("\",\"SubmittedAt\":\"").append(SUBMITTED_AT)
+                    .append("\",\"To\":\"customer").append(i).append("@example.com\"}");
+        }
+        json = sb.append(']').toString();
+        bytes = json.getBytes("UTF-8");
+    }
+
+    @Benchmark
+    public String gsonFromString() throws IOException {
+        // The old path: the whole body as a String, then reflective binding
+        String body = new String(bytes, "UTF-8");
+        List<PostmarkResponse> responses = gson.readResponses(new StringReader(body));
+        return responses.get(responses.size() - 1).getMessageId();
+    }
+
+    @Benchmark
+    public String streamingFromBytes() throws IOException {
+        List<PostmarkResponse> responses = streaming.readResponses(
+                new InputStreamReader(new ByteArrayInputStream(bytes), "UTF-8"));
+        return responses.get(responses.size() - 1).getMessageId();
+    }
+
+    @Benchmark
+    public DateTime jodaDateTime() {
+        return new DateTime(SUBMITTED_AT);
+    }
+
+    @Benchmark
+    public DateTime fastDateTime() {
+        return adapter.deserialize(submittedAt, DateTime.class, null);
+    }
+}
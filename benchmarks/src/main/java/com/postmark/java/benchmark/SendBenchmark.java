@@ -0,0 +1,96 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java.benchmark;
+
+import com.postmark.java.PostmarkClient;
+import com.postmark.java.PostmarkClientConfig;
+import com.postmark.java.PostmarkException;
+import com.postmark.java.PostmarkMessage;
+import com.postmark.java.PostmarkResponse;
+import com.postmark.java.PostmarkStubServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end {@link PostmarkClient#sendMessage(PostmarkMessage)} against an
+ * in-process API stub over loopback HTTP. Reports throughput and the latency
+ * distribution, from one thread and from many sharing a client.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SendBenchmark {
+
+    private static final String TOKEN = "benchmark-token";
+
+    @Param({"1024", "65536"})
+    public int bodySize;
+
+    private PostmarkStubServer server;
+    private PostmarkClient client;
+    private PostmarkMessage message;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = PostmarkStubServer.start(TOKEN, 32);
+        PostmarkClientConfig config = new PostmarkClientConfig();
+        config.setApiUrl(server.getUrl());
+        client = new PostmarkClient(TOKEN, config);
+        message = Messages.message(bodySize, 0, 1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        client.close();
+        server.close();
+    }
+
+    @Benchmark
+    public PostmarkResponse send() throws PostmarkException {
+        return client.sendMessage(message);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public PostmarkResponse sendConcurrently() throws PostmarkException {
+        return client.sendMessage(message);
+    }
+}
@@ -0,0 +1,90 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java.benchmark;
+
+import com.postmark.java.MessageCodec;
+import com.postmark.java.PostmarkMessage;
+import com.postmark.java.StreamingMessageCodec;
+import com.postmark.java.TemplatedPostmarkMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A personalized email serialized two ways: rendered locally into a full HTML
+ * body, and as a template reference with a per-recipient model. The score is
+ * time per message; the returned byte counts show the difference on the wire.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemplateBenchmark {
+
+    @Param({"16384", "65536"})
+    public int renderedSize;
+
+    private final MessageCodec codec = new StreamingMessageCodec();
+    private PostmarkMessage rendered;
+    private TemplatedPostmarkMessage templated;
+
+    @Setup
+    public void setUp() {
+        rendered = Messages.message(renderedSize, 0, 1);
+
+        Map<String, Object> model = new LinkedHashMap<String, Object>();
+        model.put("name", "Customer 1");
+        model.put("order_id", 48213);
+        model.put("tracking_url", "https://example.com/track/48213");
+        templated = new TemplatedPostmarkMessage("orders@example.com", "customer1@example.com", "shipping", model);
+    }
+
+    @Benchmark
+    public long rendered() throws IOException {
+        Messages.CountingOutputStream out = new Messages.CountingOutputStream();
+        codec.writeMessage(rendered, out);
+        return out.count;
+    }
+
+    @Benchmark
+    public long templated() throws IOException {
+        Messages.CountingOutputStream out = new Messages.CountingOutputStream();
+        codec.writeMessage(templated, out);
+        return out.count;
+    }
+}
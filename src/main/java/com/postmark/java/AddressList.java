@@ -0,0 +1,156 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Converts between recipient collections and the comma-separated address
+ * fields of a {@link PostmarkMessage}.
+ * <p>
+ * Entries may carry display names, including quoted names that contain
+ * commas, such as {@code "Doe, Jane" <jane@example.com>}. Parsing is a single
+ * pass over the field and does not validate; see {@link AddressValidator}.
+ * </p>
+ */
+public final class AddressList {
+
+    private AddressList() {
+    }
+
+    /**
+     * @param field comma-separated entries, or null
+     * @return the trimmed entries, empty ones left out
+     */
+    public static List<String> parse(String field) {
+        List<String> entries = new ArrayList<String>();
+        if (field == null) {
+            return entries;
+        }
+
+        int length = field.length();
+        int start = 0;
+        boolean quoted = false;
+        boolean bracketed = false;
+        for (int i = 0; i < length; i++) {
+            char c = field.charAt(i);
+            if (quoted) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == '<') {
+                bracketed = true;
+            } else if (c == '>') {
+                bracketed = false;
+            } else if (c == ',' && !bracketed) {
+                add(entries, field, start, i);
+                start = i + 1;
+            }
+        }
+        add(entries, field, start, length);
+        return entries;
+    }
+
+    /**
+     * @param entries addresses, each with or without a display name
+     * @return the entries as one field, separated by ", ", or null if there are none
+     */
+    public static String join(Collection<String> entries) {
+        if (entries == null || entries.isEmpty()) {
+            return null;
+        }
+        int length = 0;
+        for (String entry : entries) {
+            length += entry.length() + 2;
+        }
+        StringBuilder sb = new StringBuilder(length);
+        for (String entry : entries) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(entry.trim());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param entry an address with or without a display name
+     * @return the address alone, without the display name and angle brackets
+     */
+    public static String address(String entry) {
+        int close = entry.lastIndexOf('>');
+        int open = (close < 0) ? -1 : entry.lastIndexOf('<', close);
+        return (open < 0) ? entry.trim() : entry.substring(open + 1, close).trim();
+    }
+
+    /**
+     * Removes entries whose address, ignoring case and display names, appears
+     * earlier in the list or in {@code seen}. The first occurrence is kept.
+     *
+     * @param entries the entries to filter, in place
+     * @param seen    lower-cased addresses already used, updated with the kept ones
+     * @return true if any entry was removed
+     */
+    static boolean dedupe(List<String> entries, Set<String> seen) {
+        boolean removed = false;
+        for (Iterator<String> it = entries.iterator(); it.hasNext(); ) {
+            if (!seen.add(address(it.next()).toLowerCase(Locale.ROOT))) {
+                it.remove();
+                removed = true;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @param entries the entries to filter
+     * @return the entries without repeated addresses, ignoring case and display names
+     */
+    public static List<String> dedupe(Collection<String> entries) {
+        List<String> unique = new ArrayList<String>(entries);
+        dedupe(unique, new HashSet<String>());
+        return unique;
+    }
+
+    private static void add(List<String> entries, String field, int from, int to) {
+        while (from < to && field.charAt(from) <= ' ') {
+            from++;
+        }
+        while (to > from && field.charAt(to - 1) <= ' ') {
+            to--;
+        }
+        if (from < to) {
+            entries.add(field.substring(from, to));
+        }
+    }
+}
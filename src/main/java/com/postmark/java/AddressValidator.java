@@ -0,0 +1,341 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+/**
+ * Checks the syntax of email addresses as they appear in the From, To, Cc,
+ * Bcc and ReplyTo fields, so that malformed ones are rejected before a request
+ * is made rather than by Postmark a round trip later.
+ * <p>
+ * A field holds one or more comma-separated entries. An entry is either a bare
+ * address, {@code jane@example.com}, or a display name followed by an address
+ * in angle brackets, {@code "Doe, Jane" <jane@example.com>}. Addresses follow
+ * RFC 5322 and RFC 5321: a dot-atom or quoted local part of at most 64
+ * characters, and a domain of dot-separated labels of letters, digits and
+ * hyphens, at most 253 characters, or an address literal in brackets.
+ * Non-ASCII characters are accepted in local parts, display names and domain
+ * labels (RFC 6531). Comments, groups and folding whitespace are not supported.
+ * </p>
+ * <p>
+ * Validation is a single pass over the String with no regular expressions and
+ * no allocation. Domain results are kept in a small fixed-size cache, since
+ * most messages go to a handful of domains.
+ * </p>
+ */
+public final class AddressValidator {
+
+    private static final int MAX_LOCAL_PART = 64;
+    private static final int MAX_DOMAIN = 253;
+    private static final int MAX_LABEL = 63;
+    private static final int MAX_ADDRESS = 254;
+
+    private static final int CACHE_SIZE = 1024;
+
+    // Direct-mapped; entries are immutable, so racing writers only cost a re-check
+    private static final DomainEntry[] domains = new DomainEntry[CACHE_SIZE];
+
+    private AddressValidator() {
+    }
+
+    /**
+     * @param field a single entry, with or without a display name
+     * @return true if the field holds exactly one valid entry
+     */
+    public static boolean isValidAddress(String field) {
+        if (field == null) {
+            return false;
+        }
+        int end = entry(field, 0, field.length());
+        return end == field.length();
+    }
+
+    /**
+     * @param field comma-separated entries, each with or without a display name
+     * @return true if the field holds one or more entries and all of them are valid
+     */
+    public static boolean isValidAddressList(String field) {
+        return count(field) > 0;
+    }
+
+    /**
+     * @param field comma-separated entries, each with or without a display name
+     * @return the number of entries, or -1 if any of them is invalid or there are none
+     */
+    public static int count(String field) {
+        if (field == null) {
+            return -1;
+        }
+        int length = field.length();
+        int count = 0;
+        int i = 0;
+        while (true) {
+            int end = entry(field, i, length);
+            if (end < 0) {
+                return -1;
+            }
+            count++;
+            if (end == length) {
+                return count;
+            }
+            // entry() stops only at the end or at a separating comma
+            i = end + 1;
+        }
+    }
+
+    /**
+     * Validates the entry starting at {@code from}.
+     *
+     * @return the index of the comma after the entry, {@code end} if it is the
+     * last one, or -1 if it is invalid
+     */
+    private static int entry(String s, int from, int end) {
+        // Find where the entry stops and whether it has an angle-bracketed address
+        int open = -1;
+        int close = -1;
+        int stop = end;
+        boolean quoted = false;
+        for (int i = from; i < end; i++) {
+            char c = s.charAt(i);
+            if (quoted) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == '<') {
+                if (open >= 0) {
+                    return -1;
+                }
+                open = i;
+            } else if (c == '>') {
+                if (open < 0 || close >= 0) {
+                    return -1;
+                }
+                close = i;
+            } else if (c == ',') {
+                stop = i;
+                break;
+            }
+        }
+        if (quoted) {
+            return -1;
+        }
+
+        if (open < 0) {
+            if (close >= 0) {
+                return -1;
+            }
+            int start = skipSpace(s, from, stop);
+            int finish = trimSpace(s, start, stop);
+            return addrSpec(s, start, finish) ? stop : -1;
+        }
+
+        if (close < 0 || !phrase(s, from, open) || !isBlank(s, close + 1, stop)) {
+            return -1;
+        }
+        int start = skipSpace(s, open + 1, close);
+        return addrSpec(s, start, trimSpace(s, start, close)) ? stop : -1;
+    }
+
+    // An optional display name: words, quoted strings, dots and spaces
+    private static boolean phrase(String s, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c == '"') {
+                // Quotes were balanced by entry(); skip to the closing one
+                for (i++; s.charAt(i) != '"'; i++) {
+                    if (s.charAt(i) == '\\') {
+                        i++;
+                    }
+                }
+            } else if (!isAtext(c) && c != ' ' && c != '\t' && c != '.') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean addrSpec(String s, int from, int to) {
+        int length = to - from;
+        if (length < 3 || length > MAX_ADDRESS) {
+            return false;
+        }
+        // The domain can not contain '@', so the last one separates it
+        int at = s.lastIndexOf('@', to - 1);
+        if (at <= from || at == to - 1) {
+            return false;
+        }
+        return localPart(s, from, at) && domain(s, at + 1, to);
+    }
+
+    private static boolean localPart(String s, int from, int to) {
+        if (to - from > MAX_LOCAL_PART) {
+            return false;
+        }
+        if (s.charAt(from) == '"') {
+            if (to - from < 2 || s.charAt(to - 1) != '"') {
+                return false;
+            }
+            for (int i = from + 1; i < to - 1; i++) {
+                char c = s.charAt(i);
+                if (c == '\\') {
+                    if (++i == to - 1) {
+                        return false;
+                    }
+                } else if (c == '"' || c < ' ' || c == 0x7f) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return dotAtom(s, from, to);
+    }
+
+    private static boolean dotAtom(String s, int from, int to) {
+        boolean afterDot = true;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c == '.') {
+                if (afterDot) {
+                    return false;
+                }
+                afterDot = true;
+            } else if (isAtext(c)) {
+                afterDot = false;
+            } else {
+                return false;
+            }
+        }
+        return !afterDot;
+    }
+
+    private static boolean domain(String s, int from, int to) {
+        int length = to - from;
+        int hash = 0;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + Character.toLowerCase(s.charAt(i));
+        }
+        int slot = (hash ^ (hash >>> 16)) & (CACHE_SIZE - 1);
+
+        DomainEntry entry = domains[slot];
+        if (entry != null && entry.domain.length() == length && entry.domain.regionMatches(true, 0, s, from, length)) {
+            return entry.valid;
+        }
+
+        boolean valid = checkDomain(s, from, to);
+        domains[slot] = new DomainEntry(s.substring(from, to), valid);
+        return valid;
+    }
+
+    private static boolean checkDomain(String s, int from, int to) {
+        if (to - from > MAX_DOMAIN) {
+            return false;
+        }
+        if (s.charAt(from) == '[') {
+            return addressLiteral(s, from, to);
+        }
+
+        int labels = 0;
+        int labelStart = from;
+        for (int i = from; i <= to; i++) {
+            char c = (i < to) ? s.charAt(i) : '.';
+            if (c == '.') {
+                int labelLength = i - labelStart;
+                if (labelLength == 0 || labelLength > MAX_LABEL
+                        || s.charAt(labelStart) == '-' || s.charAt(i - 1) == '-') {
+                    return false;
+                }
+                labels++;
+                labelStart = i + 1;
+            } else if (!isLetterOrDigit(c) && c != '-') {
+                return false;
+            }
+        }
+        // Postmark only delivers to fully qualified domains
+        return labels >= 2;
+    }
+
+    // [192.0.2.1] or [IPv6:2001:db8::1]; the content is checked for its characters only
+    private static boolean addressLiteral(String s, int from, int to) {
+        if (to - from < 3 || s.charAt(to - 1) != ']') {
+            return false;
+        }
+        for (int i = from + 1; i < to - 1; i++) {
+            char c = s.charAt(i);
+            if (!isLetterOrDigit(c) && c != '.' && c != ':') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAtext(char c) {
+        if (isLetterOrDigit(c)) {
+            return true;
+        }
+        switch (c) {
+            case '!': case '#': case '$': case '%': case '&': case '\'': case '*': case '+':
+            case '-': case '/': case '=': case '?': case '^': case '_': case '`': case '{':
+            case '|': case '}': case '~':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isLetterOrDigit(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || (c >= 0x80 && Character.isLetterOrDigit(c));
+    }
+
+    private static boolean isBlank(String s, int from, int to) {
+        return skipSpace(s, from, to) == to;
+    }
+
+    private static int skipSpace(String s, int from, int to) {
+        while (from < to && (s.charAt(from) == ' ' || s.charAt(from) == '\t')) {
+            from++;
+        }
+        return from;
+    }
+
+    private static int trimSpace(String s, int from, int to) {
+        while (to > from && (s.charAt(to - 1) == ' ' || s.charAt(to - 1) == '\t')) {
+            to--;
+        }
+        return to;
+    }
+
+    private static final class DomainEntry {
+
+        final String domain;
+        final boolean valid;
+
+        DomainEntry(String domain, boolean valid) {
+            this.domain = domain;
+            this.valid = valid;
+        }
+    }
+}
@@ -22,6 +22,10 @@
 
 package com.postmark.java;
 
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
 /**
  * Attachment for a message.
  * Sample code:
@@ -45,12 +49,80 @@ package com.postmark.java;
  * message.setAttachments(v);
  * }
  * </pre>
+ * Large files are better attached from an {@link AttachmentSource}. They are then
+ * read and base64-encoded while the message is being sent, instead of being held
+ * in memory as a String:
+ * <pre>
+ * {@code
+ * Attachment attachment = Attachment.fromPath("SomethingAwesome.pdf", "application/pdf",
+ *         Paths.get("SomethingAwesome.pdf"));
+ * }
+ * </pre>
  */
 public class Attachment {
 	private String name;
 	private String contentType;
 	private String content;
 
+	// Streamed instead of content when set; transient keeps it out of reflective serialization
+	private transient AttachmentSource source;
+
+	/**
+	 * Creates an attachment whose content is read from a file when the message is sent.
+	 * The file is memory-mapped and must not change until the send completes.
+	 *
+	 * @param name        the file name shown to the recipient
+	 * @param contentType the MIME type of the file
+	 * @param path        the file to attach
+	 * @return the attachment
+	 */
+	public static Attachment fromPath(String name, String contentType, Path path) {
+		return fromSource(name, contentType, new PathAttachmentSource(path));
+	}
+
+	/**
+	 * Creates an attachment whose content is read from a stream when the message is sent.
+	 * The stream is read once and then closed, so a send with this attachment can not be
+	 * retried and the message can only be sent once.
+	 *
+	 * @param name        the file name shown to the recipient
+	 * @param contentType the MIME type of the content
+	 * @param in          the raw, unencoded content
+	 * @return the attachment
+	 */
+	public static Attachment fromInputStream(String name, String contentType, InputStream in) {
+		return fromSource(name, contentType, new InputStreamAttachmentSource(in));
+	}
+
+	/**
+	 * Creates an attachment from the remaining bytes of a buffer.
+	 * The buffer's position is not changed; its content must not change until the send completes.
+	 *
+	 * @param name        the file name shown to the recipient
+	 * @param contentType the MIME type of the content
+	 * @param buffer      the raw, unencoded content
+	 * @return the attachment
+	 */
+	public static Attachment fromByteBuffer(String name, String contentType, ByteBuffer buffer) {
+		return fromSource(name, contentType, new ByteBufferAttachmentSource(buffer));
+	}
+
+	/**
+	 * Creates an attachment whose content is written by a custom source when the message is sent.
+	 *
+	 * @param name        the file name shown to the recipient
+	 * @param contentType the MIME type of the content
+	 * @param source      provides the raw, unencoded content
+	 * @return the attachment
+	 */
+	public static Attachment fromSource(String name, String contentType, AttachmentSource source) {
+		Attachment attachment = new Attachment();
+		attachment.setName(name);
+		attachment.setContentType(contentType);
+		attachment.setSource(source);
+		return attachment;
+	}
+
 	public String getName() {
 		return name;
 	}
@@ -75,9 +147,23 @@ public class Attachment {
 		this.content = content;
 	}
 
+	/**
+	 * @return the source the content is streamed from, or null if the content is a base64 String
+	 */
+	public AttachmentSource getSource() {
+		return source;
+	}
+
+	/**
+	 * @param source The source to stream the content from; it takes precedence over {@link #getContent()}
+	 */
+	public void setSource(AttachmentSource source) {
+		this.source = source;
+	}
+
 	@Override
 	public String toString() {
-		return "Attachment [name=" + name + ", contentType=" + contentType + ", content=" + content + "]";
+		return "Attachment [name=" + name + ", contentType=" + contentType + ", content=" + ((source == null) ? content : source) + "]";
 	}
 
 	@Override
@@ -87,6 +173,7 @@ public class Attachment {
 		result = prime * result + ((content == null) ? 0 : content.hashCode());
 		result = prime * result + ((contentType == null) ? 0 : contentType.hashCode());
 		result = prime * result + ((name == null) ? 0 : name.hashCode());
+		result = prime * result + ((source == null) ? 0 : source.hashCode());
 		return result;
 	}
 
@@ -114,6 +201,11 @@ public class Attachment {
 				return false;
 		} else if (!name.equals(other.name))
 			return false;
+		if (source == null) {
+			if (other.source != null)
+				return false;
+		} else if (!source.equals(other.source))
+			return false;
 		return true;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,290 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import org.apache.commons.codec.binary.Base64;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Shares the base64 encoding of attachments that many messages carry, such
+ * as a logo, a terms PDF or a calendar file.
+ * <p>
+ * Content is identified by its SHA-256 hash, so the same bytes attached under
+ * different names or read from different files are encoded once and every
+ * message refers to the same content String. The cache is bounded by the total
+ * length of the encoded content it holds and evicts the least recently used
+ * entries first. Content larger than the whole cache is encoded but not kept.
+ * The cache is thread-safe.
+ * </p>
+ * Sample code:
+ * <pre>
+ * {@code
+ * AttachmentCache cache = new AttachmentCache(64 * 1024 * 1024);
+ *
+ * for (Invoice invoice : invoices) {
+ *     PostmarkMessage message = ...;
+ *     message.setAttachments(Arrays.asList(
+ *             cache.attach("terms.pdf", "application/pdf", Paths.get("terms.pdf")),
+ *             invoice.toAttachment()));
+ *     client.sendMessage(message);
+ * }
+ * }
+ * </pre>
+ */
+public class AttachmentCache {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    // Keys for raw content and for already-encoded content must never collide
+    private static final byte RAW = 0;
+    private static final byte ENCODED = 1;
+
+    private final long maxSize;
+
+    // Guarded by this
+    private final LinkedHashMap<Key, String> entries = new LinkedHashMap<Key, String>(16, 0.75f, true);
+    private long size;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maxSize the most encoded content to keep, in characters (bytes of base64)
+     */
+    public AttachmentCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param name        the file name shown to the recipient
+     * @param contentType the MIME type of the content
+     * @param content     the raw, unencoded content
+     * @return an attachment sharing its encoded content with identical attachments
+     */
+    public Attachment attach(String name, String contentType, byte[] content) {
+        return attachment(name, contentType, encode(content));
+    }
+
+    /**
+     * Reads a file and attaches its content. The file is read, and hashed, on every
+     * call; only the encoding is shared.
+     *
+     * @param name        the file name shown to the recipient
+     * @param contentType the MIME type of the file
+     * @param path        the file to attach
+     * @return an attachment sharing its encoded content with identical attachments
+     * @throws IOException if the file can not be read
+     */
+    public Attachment attach(String name, String contentType, Path path) throws IOException {
+        return attach(name, contentType, Files.readAllBytes(path));
+    }
+
+    /**
+     * Reads a source into memory and attaches its content.
+     *
+     * @param name        the file name shown to the recipient
+     * @param contentType the MIME type of the content
+     * @param source      provides the raw, unencoded content
+     * @return an attachment sharing its encoded content with identical attachments
+     * @throws IOException if the source can not be read
+     */
+    public Attachment attach(String name, String contentType, AttachmentSource source) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream((source.length() > 0) ? (int) source.length() : 8192);
+        source.writeTo(out);
+        return attach(name, contentType, out.toByteArray());
+    }
+
+    /**
+     * @param name        the file name shown to the recipient
+     * @param contentType the MIME type of the content
+     * @param content     the raw, unencoded content; its position is not changed
+     * @return an attachment sharing its encoded content with identical attachments
+     */
+    public Attachment attach(String name, String contentType, ByteBuffer content) {
+        ByteBuffer view = content.duplicate();
+        byte[] bytes = new byte[view.remaining()];
+        view.get(bytes);
+        return attach(name, contentType, bytes);
+    }
+
+    /**
+     * Makes an attachment that already holds base64 content share it with
+     * identical attachments, so duplicate Strings can be garbage collected.
+     * Attachments streamed from a source are returned unchanged.
+     *
+     * @param attachment an attachment with base64 content
+     * @return the same attachment, its content replaced by the shared String
+     */
+    public Attachment intern(Attachment attachment) {
+        String content = attachment.getContent();
+        if (content == null || attachment.getSource() != null) {
+            return attachment;
+        }
+        Key key = new Key(ENCODED, digest(content.getBytes(US_ASCII)));
+        String shared = lookup(key);
+        if (shared == null) {
+            shared = store(key, content);
+        }
+        attachment.setContent(shared);
+        return attachment;
+    }
+
+    private String encode(byte[] content) {
+        Key key = new Key(RAW, digest(content));
+        String encoded = lookup(key);
+        if (encoded != null) {
+            return encoded;
+        }
+        // Encoded outside the lock; a concurrent miss on the same content keeps the first copy stored
+        return store(key, Base64.encodeBase64String(content));
+    }
+
+    private synchronized String lookup(Key key) {
+        String encoded = entries.get(key);
+        if (encoded != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return encoded;
+    }
+
+    private synchronized String store(Key key, String encoded) {
+        String existing = entries.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        if (encoded.length() > maxSize) {
+            return encoded;
+        }
+        entries.put(key, encoded);
+        size += encoded.length();
+
+        Iterator<String> eldest = entries.values().iterator();
+        while (size > maxSize) {
+            size -= eldest.next().length();
+            eldest.remove();
+            evictions++;
+        }
+        return encoded;
+    }
+
+    private static Attachment attachment(String name, String contentType, String content) {
+        Attachment attachment = new Attachment();
+        attachment.setName(name);
+        attachment.setContentType(contentType);
+        attachment.setContent(content);
+        return attachment;
+    }
+
+    private static byte[] digest(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the number of lookups that found encoded content
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * @return the number of lookups that had to encode content
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * @return the number of entries evicted to stay within the size limit
+     */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * @return the length of the encoded content held, in characters
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the number of distinct contents held
+     */
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * Removes every entry. The statistics are kept.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "AttachmentCache{entries=" + entries.size() + ", size=" + size + ", maxSize=" + maxSize
+                + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + '}';
+    }
+
+    private static final class Key {
+
+        private final byte[] digest;
+        private final int hash;
+
+        Key(byte kind, byte[] digest) {
+            this.digest = Arrays.copyOf(digest, digest.length + 1);
+            this.digest[digest.length] = kind;
+            this.hash = Arrays.hashCode(this.digest);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && Arrays.equals(digest, ((Key) o).digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
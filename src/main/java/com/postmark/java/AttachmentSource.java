@@ -0,0 +1,59 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The raw bytes of an {@link Attachment} that are read while the message is sent.
+ * <p>
+ * A source-backed attachment is base64-encoded incrementally, straight into the
+ * request body, so the file never has to be held in memory as a String.
+ * </p>
+ *
+ * @see Attachment#fromPath(String, String, java.nio.file.Path)
+ * @see Attachment#fromInputStream(String, String, java.io.InputStream)
+ * @see Attachment#fromByteBuffer(String, String, java.nio.ByteBuffer)
+ */
+public interface AttachmentSource {
+
+    /**
+     * Writes the attachment's raw, unencoded bytes.
+     *
+     * @param out the stream to write to; it must not be closed
+     * @throws IOException if the content can not be read or written
+     */
+    void writeTo(OutputStream out) throws IOException;
+
+    /**
+     * @return the number of raw bytes, or -1 if unknown
+     */
+    long length();
+
+    /**
+     * @return true if {@link #writeTo(OutputStream)} can be called more than once,
+     * which is needed to retry a send
+     */
+    boolean isRepeatable();
+}
@@ -0,0 +1,117 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Request body for the batch APIs: a JSON array of messages serialized
+ * straight into the connection's output stream. The batch-with-templates API
+ * takes the same array wrapped in a {@code {"Messages":...}} object.
+ * Messages that stream an attachment from a one-shot source are buffered when
+ * they are measured, so the batch as a whole can still be retried.
+ */
+final class BatchEntity extends MessageEntity {
+
+    private static final byte[] TEMPLATES_PREFIX = {'{', '"', 'M', 'e', 's', 's', 'a', 'g', 'e', 's', '"', ':', '['};
+    private static final byte[] TEMPLATES_SUFFIX = {']', '}'};
+
+    // Bytes the templates envelope adds to the messages and their separators
+    static final long TEMPLATES_OVERHEAD = TEMPLATES_PREFIX.length + TEMPLATES_SUFFIX.length;
+
+    /**
+     * A message prepared for a batch, with its serialized size.
+     */
+    static final class Part {
+
+        final PostmarkMessage message;
+        final long size;
+
+        // Set only for messages that could not be serialized twice
+        final byte[] contents;
+
+        Part(MessageCodec codec, PostmarkMessage message) throws IOException {
+            this.message = message;
+            if (isRepeatable(message)) {
+                this.contents = null;
+                this.size = measure(codec, message);
+            } else {
+                ByteArrayOutputStream buffered = new ByteArrayOutputStream();
+                codec.writeMessage(message, buffered);
+                this.contents = buffered.toByteArray();
+                this.size = contents.length;
+            }
+        }
+    }
+
+    private final MessageCodec codec;
+    private final List<Part> parts;
+    private final boolean templates;
+
+    BatchEntity(MessageCodec codec, List<Part> parts) {
+        this(codec, parts, false);
+    }
+
+    /**
+     * @param templates wrap the messages for the batch-with-templates API
+     */
+    BatchEntity(MessageCodec codec, List<Part> parts, boolean templates) {
+        super(codec, null);
+        this.codec = codec;
+        this.parts = parts;
+        this.templates = templates;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        if (templates) {
+            out.write(TEMPLATES_PREFIX);
+        } else {
+            out.write('[');
+        }
+        for (int i = 0; i < parts.size(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            Part part = parts.get(i);
+            if (part.contents != null) {
+                out.write(part.contents);
+            } else {
+                codec.writeMessage(part.message, out);
+            }
+        }
+        if (templates) {
+            out.write(TEMPLATES_SUFFIX);
+        } else {
+            out.write(']');
+        }
+    }
+}
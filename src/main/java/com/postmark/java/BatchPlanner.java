@@ -0,0 +1,67 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits serialized messages into batch requests that respect the batch API's
+ * message count and payload size limits.
+ */
+final class BatchPlanner {
+
+    private BatchPlanner() {
+    }
+
+    /**
+     * Groups consecutive messages greedily into batches.
+     * A batch is written as {@code [m1,m2,...]}, so its size is the sum of the
+     * message sizes plus the brackets and separating commas.
+     *
+     * @param sizes    the serialized size of each message in bytes
+     * @param maxCount the maximum number of messages per batch
+     * @param maxBytes the maximum size of a batch in bytes
+     * @return {@code [from, to)} index ranges into {@code sizes}, in order
+     */
+    static List<int[]> plan(long[] sizes, int maxCount, long maxBytes) {
+        List<int[]> batches = new ArrayList<int[]>();
+
+        int from = 0;
+        long bytes = 2;
+        for (int i = 0; i < sizes.length; i++) {
+            long added = sizes[i] + ((i > from) ? 1 : 0);
+            if (i > from && (i - from == maxCount || bytes + added > maxBytes)) {
+                batches.add(new int[]{from, i});
+                from = i;
+                bytes = 2;
+                added = sizes[i];
+            }
+            bytes += added;
+        }
+        if (from < sizes.length) {
+            batches.add(new int[]{from, sizes.length});
+        }
+        return batches;
+    }
+}
@@ -0,0 +1,71 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Attachment content held in a {@link ByteBuffer}, which may be direct or mapped.
+ * The buffer's remaining bytes are the content; its position is never changed.
+ */
+final class ByteBufferAttachmentSource implements AttachmentSource {
+
+    private final ByteBuffer buffer;
+
+    ByteBufferAttachmentSource(ByteBuffer buffer) {
+        this.buffer = buffer.duplicate();
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        ByteBuffer view = buffer.duplicate();
+        if (view.hasArray()) {
+            out.write(view.array(), view.arrayOffset() + view.position(), view.remaining());
+        } else {
+            copy(view, out, new byte[8192]);
+        }
+    }
+
+    public long length() {
+        return buffer.remaining();
+    }
+
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    // Drains a buffer into a stream through a small reusable array
+    static void copy(ByteBuffer source, OutputStream out, byte[] chunk) throws IOException {
+        while (source.hasRemaining()) {
+            int length = Math.min(chunk.length, source.remaining());
+            source.get(chunk, 0, length);
+            out.write(chunk, 0, length);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return buffer.toString();
+    }
+}
@@ -0,0 +1,303 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stops requests to Postmark while it appears to be down.
+ * <p>
+ * The breaker starts {@link State#CLOSED} and lets every request through. It
+ * opens after {@link CircuitBreakerConfig#getConsecutiveFailures()} failures in a
+ * row, or when the share of failures in the rolling window reaches
+ * {@link CircuitBreakerConfig#getFailureRate()}. While {@link State#OPEN} every
+ * request is refused without touching the network. After
+ * {@link CircuitBreakerConfig#getOpenDuration()} it becomes
+ * {@link State#HALF_OPEN} and lets a few probe requests through: if they all
+ * succeed the circuit closes, if one fails it opens again.
+ * </p>
+ * Only failures that say something about Postmark's health count: I/O errors,
+ * 5xx and 429 responses. Rejected messages are successes as far as the breaker
+ * is concerned.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * Returned by {@link #acquirePermit()} when the request must fail fast.
+     */
+    public static final long REJECTED = -1;
+
+    // Origin of now(), so that times are small and never negative
+    private static final long ORIGIN = System.nanoTime();
+
+    private static Logger logger = Logger.getLogger("com.postmark.java");
+
+    private final int consecutiveFailureThreshold;
+    private final double failureRateThreshold;
+    private final int minimumRequests;
+    private final long openDuration;
+    private final int halfOpenProbes;
+
+    private final long bucketLength;
+    private final long[] bucketStarts;
+    private final int[] bucketRequests;
+    private final int[] bucketFailures;
+
+    private final List<CircuitBreakerListener> listeners = new CopyOnWriteArrayList<CircuitBreakerListener>();
+
+    // Guarded by this
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private int probesStarted;
+    private int probesSucceeded;
+    // Bumped on every transition; permits from an earlier state are stale
+    private long generation;
+
+    public CircuitBreaker() {
+        this(new CircuitBreakerConfig());
+    }
+
+    public CircuitBreaker(CircuitBreakerConfig config) {
+        this.consecutiveFailureThreshold = config.getConsecutiveFailures();
+        this.failureRateThreshold = config.getFailureRate();
+        this.minimumRequests = config.getMinimumRequests();
+        this.openDuration = config.getOpenDuration();
+        this.halfOpenProbes = Math.max(1, config.getHalfOpenProbes());
+
+        int buckets = Math.max(1, config.getWindowBuckets());
+        this.bucketLength = Math.max(1, config.getWindow() / buckets);
+        this.bucketStarts = new long[buckets];
+        this.bucketRequests = new int[buckets];
+        this.bucketFailures = new int[buckets];
+    }
+
+    private CircuitBreaker(CircuitBreaker template) {
+        this.consecutiveFailureThreshold = template.consecutiveFailureThreshold;
+        this.failureRateThreshold = template.failureRateThreshold;
+        this.minimumRequests = template.minimumRequests;
+        this.openDuration = template.openDuration;
+        this.halfOpenProbes = template.halfOpenProbes;
+
+        this.bucketLength = template.bucketLength;
+        this.bucketStarts = new long[template.bucketStarts.length];
+        this.bucketRequests = new int[template.bucketStarts.length];
+        this.bucketFailures = new int[template.bucketStarts.length];
+        this.listeners.addAll(template.listeners);
+    }
+
+    /**
+     * @return a new, closed breaker with the same settings and listeners
+     */
+    CircuitBreaker copy() {
+        return new CircuitBreaker(this);
+    }
+
+    /**
+     * @param listener notified of every state transition
+     */
+    public void addListener(CircuitBreakerListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(CircuitBreakerListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return the current state
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Asks whether a request may be sent. A request that is allowed must report its
+     * outcome with the returned permit through {@link #recordSuccess(long)} or
+     * {@link #recordFailure(long)}, or {@link #recordAbandoned(long)} if it was never
+     * sent. Outcomes reported with a permit taken before the breaker last changed
+     * state are ignored, so a slow request that started before the circuit opened
+     * can not close it again.
+     *
+     * @return a permit, or {@link #REJECTED} if the request must fail fast
+     */
+    public long acquirePermit() {
+        State from;
+        long permit;
+        synchronized (this) {
+            if (state == State.CLOSED) {
+                return generation;
+            }
+            if (state == State.OPEN) {
+                if (now() - openedAt < openDuration) {
+                    return REJECTED;
+                }
+                from = transition(State.HALF_OPEN);
+            } else {
+                from = null;
+            }
+            if (probesStarted >= halfOpenProbes) {
+                fireIfChanged(from, State.HALF_OPEN);
+                return REJECTED;
+            }
+            probesStarted++;
+            permit = generation;
+        }
+        fireIfChanged(from, State.HALF_OPEN);
+        return permit;
+    }
+
+    /**
+     * Reports that an allowed request reached Postmark and got an answer.
+     *
+     * @param permit the permit the request was allowed with
+     */
+    public void recordSuccess(long permit) {
+        State from = null;
+        synchronized (this) {
+            if (permit != generation) {
+                return;
+            }
+            record(false);
+            consecutiveFailures = 0;
+            if (state == State.HALF_OPEN && ++probesSucceeded >= halfOpenProbes) {
+                from = transition(State.CLOSED);
+            }
+        }
+        fireIfChanged(from, State.CLOSED);
+    }
+
+    /**
+     * Reports that an allowed request failed because of Postmark or the network.
+     *
+     * @param permit the permit the request was allowed with
+     */
+    public void recordFailure(long permit) {
+        State from = null;
+        synchronized (this) {
+            if (permit != generation) {
+                return;
+            }
+            record(true);
+            consecutiveFailures++;
+            if (state == State.HALF_OPEN || (state == State.CLOSED && shouldOpen())) {
+                from = transition(State.OPEN);
+            }
+        }
+        fireIfChanged(from, State.OPEN);
+    }
+
+    /**
+     * Reports that an allowed request failed before it reached Postmark, for
+     * example because the message could not be serialized. It says nothing about
+     * Postmark's health; it only frees the probe the request held while half open.
+     *
+     * @param permit the permit the request was allowed with
+     */
+    public void recordAbandoned(long permit) {
+        synchronized (this) {
+            if (permit == generation && state == State.HALF_OPEN && probesStarted > probesSucceeded) {
+                probesStarted--;
+            }
+        }
+    }
+
+    private boolean shouldOpen() {
+        if (consecutiveFailures >= consecutiveFailureThreshold) {
+            return true;
+        }
+        long oldest = now() - bucketLength * bucketStarts.length;
+        int requests = 0;
+        int failures = 0;
+        for (int i = 0; i < bucketStarts.length; i++) {
+            if (bucketStarts[i] > oldest) {
+                requests += bucketRequests[i];
+                failures += bucketFailures[i];
+            }
+        }
+        return requests >= minimumRequests && failures >= failureRateThreshold * requests;
+    }
+
+    private void record(boolean failure) {
+        long now = now();
+        long start = now - (now % bucketLength);
+        int index = (int) ((now / bucketLength) % bucketStarts.length);
+        if (bucketStarts[index] != start) {
+            bucketStarts[index] = start;
+            bucketRequests[index] = 0;
+            bucketFailures[index] = 0;
+        }
+        bucketRequests[index]++;
+        if (failure) {
+            bucketFailures[index]++;
+        }
+    }
+
+    // Must hold the lock; listeners are notified after it is released
+    private State transition(State to) {
+        State from = state;
+        state = to;
+        generation++;
+        probesStarted = 0;
+        probesSucceeded = 0;
+        if (to == State.OPEN) {
+            openedAt = now();
+        } else if (to == State.CLOSED) {
+            consecutiveFailures = 0;
+            for (int i = 0; i < bucketStarts.length; i++) {
+                bucketStarts[i] = 0;
+                bucketRequests[i] = 0;
+                bucketFailures[i] = 0;
+            }
+        }
+        return from;
+    }
+
+    private void fireIfChanged(State from, State to) {
+        if (from == null || from == to) {
+            return;
+        }
+        logger.log(Level.WARNING, "Postmark circuit breaker changed from " + from + " to " + to);
+        for (CircuitBreakerListener listener : listeners) {
+            try {
+                listener.onStateChange(this, from, to);
+            } catch (RuntimeException e) {
+                logger.log(Level.SEVERE, "A circuit breaker listener threw an exception: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    // Milliseconds on a monotonic clock, so that setting the wall clock does not
+    // stretch or cut short the open period; overridden in tests
+    long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - ORIGIN);
+    }
+}
@@ -0,0 +1,153 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+/**
+ * Options for a {@link CircuitBreaker}.
+ */
+public class CircuitBreakerConfig {
+
+    // Consecutive failures that open the circuit.
+    private int consecutiveFailures = 5;
+
+    // Share of failed requests in the rolling window that opens the circuit.
+    private double failureRate = 0.5;
+
+    // Requests the rolling window must hold before the failure rate is considered.
+    private int minimumRequests = 20;
+
+    // Length of the rolling window, in milliseconds.
+    private long window = 10000;
+
+    // Number of buckets the rolling window is divided into.
+    private int windowBuckets = 10;
+
+    // How long the circuit stays open before probing, in milliseconds.
+    private long openDuration = 30000;
+
+    // Requests let through while half-open; all must succeed to close the circuit.
+    private int halfOpenProbes = 3;
+
+    /**
+     * @return the number of consecutive failures that opens the circuit
+     */
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * @param consecutiveFailures The number of consecutive failures that opens the circuit
+     */
+    public void setConsecutiveFailures(int consecutiveFailures) {
+        this.consecutiveFailures = consecutiveFailures;
+    }
+
+    /**
+     * @return the failure rate that opens the circuit
+     */
+    public double getFailureRate() {
+        return failureRate;
+    }
+
+    /**
+     * @param failureRate The share of failed requests in the rolling window, between 0 and 1,
+     *                    that opens the circuit
+     */
+    public void setFailureRate(double failureRate) {
+        this.failureRate = failureRate;
+    }
+
+    /**
+     * @return the minimum number of requests before the failure rate is considered
+     */
+    public int getMinimumRequests() {
+        return minimumRequests;
+    }
+
+    /**
+     * @param minimumRequests The number of requests the rolling window must hold before
+     *                        the failure rate can open the circuit
+     */
+    public void setMinimumRequests(int minimumRequests) {
+        this.minimumRequests = minimumRequests;
+    }
+
+    /**
+     * @return the length of the rolling window in milliseconds
+     */
+    public long getWindow() {
+        return window;
+    }
+
+    /**
+     * @param window The length of the rolling window in milliseconds
+     */
+    public void setWindow(long window) {
+        this.window = window;
+    }
+
+    /**
+     * @return the number of buckets in the rolling window
+     */
+    public int getWindowBuckets() {
+        return windowBuckets;
+    }
+
+    /**
+     * @param windowBuckets The number of buckets the rolling window is divided into;
+     *                      more buckets make the window slide more smoothly
+     */
+    public void setWindowBuckets(int windowBuckets) {
+        this.windowBuckets = windowBuckets;
+    }
+
+    /**
+     * @return how long the circuit stays open, in milliseconds
+     */
+    public long getOpenDuration() {
+        return openDuration;
+    }
+
+    /**
+     * @param openDuration How long the circuit stays open before letting probes through,
+     *                     in milliseconds
+     */
+    public void setOpenDuration(long openDuration) {
+        this.openDuration = openDuration;
+    }
+
+    /**
+     * @return the number of probe requests while half-open
+     */
+    public int getHalfOpenProbes() {
+        return halfOpenProbes;
+    }
+
+    /**
+     * @param halfOpenProbes The number of requests let through while half-open;
+     *                       the circuit closes when all of them succeed
+     */
+    public void setHalfOpenProbes(int halfOpenProbes) {
+        this.halfOpenProbes = halfOpenProbes;
+    }
+}
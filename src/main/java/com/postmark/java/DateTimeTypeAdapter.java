@@ -42,6 +42,6 @@ public class DateTimeTypeAdapter implements JsonSerializer<DateTime>, JsonDeseri
 
     public DateTime deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context)
             throws JsonParseException {
-        return new DateTime(json.getAsJsonPrimitive().getAsString());
+        return IsoDateTimeParser.parseDateTime(json.getAsJsonPrimitive().getAsString());
     }
 }
@@ -0,0 +1,223 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers recent sends so that the same message sent again within a time
+ * window is not delivered twice.
+ * <p>
+ * A message is identified by its idempotency key when it has one, see
+ * {@link PostmarkMessage#setIdempotencyKey(String)}, and otherwise by a 128-bit
+ * fingerprint of its content. A duplicate of a message that was accepted
+ * returns the original {@link PostmarkResponse}; a duplicate of a message that
+ * is still being sent waits for it and shares its outcome. Failed sends are
+ * forgotten straight away, so they can be retried.
+ * </p>
+ * <p>
+ * Messages without a key that stream an attachment from an
+ * {@link AttachmentSource} can not be fingerprinted and are never treated as
+ * duplicates. The window holds at most {@code capacity} messages, dropping the
+ * oldest first. It is thread-safe, and can be shared by clients.
+ * </p>
+ */
+public class DeduplicationWindow {
+
+    private final long windowNanos;
+    private final int capacity;
+    private final AtomicLong duplicates = new AtomicLong();
+
+    // Guarded by this; in the order the sends started, so the expired ones come first
+    private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<Object, Entry>();
+
+    /**
+     * @param window   how long a send is remembered, from when it started
+     * @param unit     the unit of the window
+     * @param capacity the most sends remembered at once
+     */
+    public DeduplicationWindow(long window, TimeUnit unit, int capacity) {
+        if (window <= 0 || capacity < 1) {
+            throw new IllegalArgumentException("The window and capacity must be positive.");
+        }
+        this.windowNanos = unit.toNanos(window);
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the number of sends short-circuited as duplicates
+     */
+    public long getDuplicateCount() {
+        return duplicates.get();
+    }
+
+    /**
+     * @return the number of sends currently remembered
+     */
+    public synchronized int size() {
+        expire(System.nanoTime());
+        return entries.size();
+    }
+
+    /**
+     * Forgets every send.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Registers a send of the message, or finds an earlier one.
+     *
+     * @return a claim to complete once the message is sent, a claim holding the
+     *         earlier send's outcome, or null if the message can not be identified
+     */
+    Claim claim(PostmarkMessage message) {
+        Object key = (message.getIdempotencyKey() != null)
+                ? message.getIdempotencyKey()
+                : MessageFingerprint.of(message);
+        if (key == null) {
+            return null;
+        }
+
+        long now = System.nanoTime();
+        synchronized (this) {
+            expire(now);
+            Entry existing = entries.get(key);
+            if (existing != null) {
+                duplicates.incrementAndGet();
+                return new Claim(key, existing.future, false);
+            }
+            Entry entry = new Entry(new PostmarkFuture(), now);
+            entries.put(key, entry);
+            if (entries.size() > capacity) {
+                Iterator<Entry> eldest = entries.values().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+            return new Claim(key, entry.future, true);
+        }
+    }
+
+    private void expire(long now) {
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+            if (now - it.next().started < windowNanos) {
+                return;
+            }
+            it.remove();
+        }
+    }
+
+    private synchronized void forget(Claim claim) {
+        Entry entry = entries.get(claim.key);
+        if (entry != null && entry.future == claim.future) {
+            entries.remove(claim.key);
+        }
+    }
+
+    private static final class Entry {
+
+        final PostmarkFuture future;
+        final long started;
+
+        Entry(PostmarkFuture future, long started) {
+            this.future = future;
+            this.started = started;
+        }
+    }
+
+    /**
+     * One send's hold on a key: either the send that owns it, or a duplicate.
+     */
+    final class Claim {
+
+        private final Object key;
+        private final PostmarkFuture future;
+        private final boolean owner;
+
+        private Claim(Object key, PostmarkFuture future, boolean owner) {
+            this.key = key;
+            this.future = future;
+            this.owner = owner;
+        }
+
+        /**
+         * @return true if this send must go ahead, false if it duplicates an earlier one
+         */
+        boolean isOwner() {
+            return owner;
+        }
+
+        /**
+         * Records the outcome of the owning send. Failures are forgotten, so the
+         * message can be sent again.
+         */
+        void complete(PostmarkResponse response) {
+            if (response.status != PostmarkStatus.SUCCESS) {
+                forget(this);
+            }
+            future.complete(response);
+        }
+
+        void fail(PostmarkException exception) {
+            forget(this);
+            future.fail(exception);
+        }
+
+        /**
+         * @return the earlier send's response, once it is known
+         * @throws PostmarkException if the earlier send failed
+         */
+        PostmarkResponse await() throws PostmarkException {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new PostmarkException(e);
+            } catch (ExecutionException e) {
+                throw (PostmarkException) e.getCause();
+            }
+        }
+
+        /**
+         * @return the earlier send's response, or an error response if it failed
+         */
+        PostmarkResponse awaitResponse() {
+            try {
+                return await();
+            } catch (PostmarkException e) {
+                if (e.getResponse() != null) {
+                    return e.getResponse();
+                }
+                PostmarkResponse response = new PostmarkResponse();
+                response.status = PostmarkStatus.UNKNOWN;
+                response.message = e.getMessage();
+                return response;
+            }
+        }
+    }
+}
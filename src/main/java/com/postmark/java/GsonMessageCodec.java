@@ -0,0 +1,145 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonSerializationContext;
+import com.google.gson.JsonSerializer;
+import org.apache.commons.codec.binary.Base64OutputStream;
+import org.joda.time.DateTime;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * {@link MessageCodec} that binds messages and responses reflectively with Gson.
+ * <p>
+ * This is the original serialization path. It is kept as a fallback for
+ * subclasses of {@link PostmarkMessage} that add their own serialized fields,
+ * and as the reference that {@link StreamingMessageCodec} is tested against.
+ * </p>
+ */
+public class GsonMessageCodec implements MessageCodec {
+
+    private final Gson gson;
+
+    public GsonMessageCodec() {
+        this(new GsonBuilder());
+    }
+
+    /**
+     * @param gsonBuilder a builder to extend with the Postmark type adapters,
+     *                    for example one with pretty printing enabled
+     */
+    public GsonMessageCodec(GsonBuilder gsonBuilder) {
+        gsonBuilder.registerTypeAdapter(DateTime.class, new DateTimeTypeAdapter());
+        gsonBuilder.registerTypeAdapter(Attachment.class, new AttachmentSerializer());
+        // Boolean values are not skipped: template models and InlineCss carry them
+        gsonBuilder.setExclusionStrategies(new SkipMeExclusionStrategy());
+        gsonBuilder.disableHtmlEscaping();
+        this.gson = gsonBuilder.create();
+    }
+
+    public void writeMessage(PostmarkMessage message, OutputStream out) throws IOException {
+        Writer writer = new OutputStreamWriter(out, "UTF-8");
+        try {
+            gson.toJson(message, writer);
+        } catch (JsonParseException e) {
+            throw new IOException(e);
+        }
+        writer.flush();
+    }
+
+    /**
+     * Writes a value that has no streaming representation, such as an
+     * arbitrary object in a template model.
+     */
+    String toJson(Object value) throws IOException {
+        try {
+            return gson.toJson(value);
+        } catch (JsonParseException e) {
+            throw new IOException(e);
+        }
+    }
+
+    public PostmarkResponse readResponse(Reader reader) throws IOException {
+        try {
+            return gson.fromJson(reader, PostmarkResponse.class);
+        } catch (JsonParseException e) {
+            throw new IOException(e);
+        }
+    }
+
+    public List<PostmarkResponse> readResponses(Reader reader) throws IOException {
+        try {
+            PostmarkResponse[] responses = gson.fromJson(reader, PostmarkResponse[].class);
+            return (responses == null) ? null : new ArrayList<PostmarkResponse>(Arrays.asList(responses));
+        } catch (JsonParseException e) {
+            throw new IOException(e);
+        }
+    }
+
+    // Writes the same fields as reflection would, encoding streamed content in memory
+    private static class AttachmentSerializer implements JsonSerializer<Attachment> {
+
+        public JsonElement serialize(Attachment attachment, Type typeOfSrc, JsonSerializationContext context) {
+            JsonObject json = new JsonObject();
+            if (attachment.getName() != null) {
+                json.addProperty("name", attachment.getName());
+            }
+            if (attachment.getContentType() != null) {
+                json.addProperty("contentType", attachment.getContentType());
+            }
+            String content = (attachment.getSource() == null) ? attachment.getContent() : encode(attachment.getSource());
+            if (content != null) {
+                json.addProperty("content", content);
+            }
+            return json;
+        }
+
+        private static String encode(AttachmentSource source) {
+            try {
+                ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+                OutputStream encoder = new Base64OutputStream(encoded, true, 0, null);
+                source.writeTo(encoder);
+                encoder.close();
+                return encoded.toString("US-ASCII");
+            } catch (IOException e) {
+                throw new JsonIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import org.apache.http.conn.ClientConnectionManager;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background thread that closes expired and idle connections in a
+ * {@link PostmarkClient} connection pool.
+ * <p>
+ * Without it a pooled connection that was closed by the server while idle is
+ * only noticed on the next lease, which costs a failed request.
+ * </p>
+ */
+class IdleConnectionEvictor extends Thread {
+
+    private final ClientConnectionManager connectionManager;
+    private final long idleTimeout;
+    private final long interval;
+
+    private volatile boolean shutdown;
+
+    IdleConnectionEvictor(ClientConnectionManager connectionManager, long idleTimeout, long interval) {
+        super("postmark-idle-connection-evictor");
+        setDaemon(true);
+
+        this.connectionManager = connectionManager;
+        this.idleTimeout = idleTimeout;
+        this.interval = interval;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!shutdown) {
+                synchronized (this) {
+                    wait(interval);
+                }
+                if (shutdown) {
+                    break;
+                }
+                connectionManager.closeExpiredConnections();
+                if (idleTimeout > 0) {
+                    connectionManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Terminate
+        }
+    }
+
+    void shutdown() {
+        shutdown = true;
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+}
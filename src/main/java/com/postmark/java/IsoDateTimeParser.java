@@ -0,0 +1,154 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+/**
+ * Parses the ISO 8601 timestamps in Postmark responses, such as
+ * {@code 2014-02-17T07:25:01.4178645-05:00}.
+ * <p>
+ * Timestamps with a date, a time to the second, an optional fraction and a
+ * {@code Z} or {@code +hh:mm} offset are converted by hand; anything else goes
+ * through a precompiled Joda parser. Either way the result equals what
+ * {@code new DateTime(String)} returns: the instant in the default time zone.
+ * Each parser also remembers the last timestamp it parsed, since the entries
+ * of a batch response are usually submitted in the same instant. A parser is
+ * not thread-safe; {@link #parseDateTime(String)} can be used from any thread.
+ * </p>
+ */
+final class IsoDateTimeParser {
+
+    private static final DateTimeFormatter PARSER = ISODateTimeFormat.dateTimeParser();
+
+    private static final long MILLIS_PER_DAY = 86400000L;
+
+    private String lastText;
+    private DateTime last;
+
+    DateTime parse(String text) {
+        if (text.equals(lastText)) {
+            return last;
+        }
+        DateTime parsed = parseDateTime(text);
+        lastText = text;
+        last = parsed;
+        return parsed;
+    }
+
+    static DateTime parseDateTime(String text) {
+        long millis = parseMillis(text);
+        return new DateTime((millis != Long.MIN_VALUE) ? millis : PARSER.parseMillis(text));
+    }
+
+    // The instant of a timestamp in the common layout, or Long.MIN_VALUE if it is in another
+    static long parseMillis(String text) {
+        int length = text.length();
+        if (length < 20 || text.charAt(4) != '-' || text.charAt(7) != '-' || text.charAt(10) != 'T'
+                || text.charAt(13) != ':' || text.charAt(16) != ':') {
+            return Long.MIN_VALUE;
+        }
+        int year = digits(text, 0, 4);
+        int month = digits(text, 5, 2);
+        int day = digits(text, 8, 2);
+        int hour = digits(text, 11, 2);
+        int minute = digits(text, 14, 2);
+        int second = digits(text, 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return Long.MIN_VALUE;
+        }
+
+        // Digits past the millisecond are dropped, as Joda does
+        int i = 19;
+        int millis = 0;
+        if (text.charAt(i) == '.') {
+            int start = ++i;
+            while (i < length && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+                if (i - start < 3) {
+                    millis = millis * 10 + (text.charAt(i) - '0');
+                }
+                i++;
+            }
+            int count = i - start;
+            if (count == 0 || count > 9) {
+                return Long.MIN_VALUE;
+            }
+            for (int n = count; n < 3; n++) {
+                millis *= 10;
+            }
+        }
+
+        int offset;
+        if (i == length - 1 && text.charAt(i) == 'Z') {
+            offset = 0;
+        } else if (i == length - 6 && (text.charAt(i) == '+' || text.charAt(i) == '-') && text.charAt(i + 3) == ':') {
+            int offsetHours = digits(text, i + 1, 2);
+            int offsetMinutes = digits(text, i + 4, 2);
+            if (offsetHours < 0 || offsetHours > 23 || offsetMinutes < 0 || offsetMinutes > 59) {
+                return Long.MIN_VALUE;
+            }
+            offset = (offsetHours * 60 + offsetMinutes) * 60000;
+            if (text.charAt(i) == '-') {
+                offset = -offset;
+            }
+        } else {
+            return Long.MIN_VALUE;
+        }
+
+        return daysSinceEpoch(year, month, day) * MILLIS_PER_DAY
+                + ((hour * 60L + minute) * 60 + second) * 1000 + millis - offset;
+    }
+
+    // The value of count decimal digits, or -1 if any of them is not a digit
+    private static int digits(String text, int from, int count) {
+        int value = 0;
+        for (int i = from; i < from + count; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        if (month == 2) {
+            return ((year % 4 == 0 && year % 100 != 0) || year % 400 == 0) ? 29 : 28;
+        }
+        return (month == 4 || month == 6 || month == 9 || month == 11) ? 30 : 31;
+    }
+
+    // Days from 1970-01-01 in the proleptic Gregorian calendar, which ISOChronology uses
+    private static long daysSinceEpoch(int year, int month, int day) {
+        long y = (month <= 2) ? year - 1 : year;
+        long era = y / 400;
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+}
@@ -0,0 +1,389 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import org.apache.commons.codec.binary.Base64OutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Minimal JSON writer that encodes straight to UTF-8 bytes.
+ * <p>
+ * Output is compact and escaped exactly like Gson with HTML escaping disabled,
+ * so a payload written here is byte-for-byte identical to the one Gson would
+ * produce for the same values. Nothing is buffered beyond a fixed byte array;
+ * strings are never copied into intermediate Strings or char arrays.
+ * </p>
+ * <p>
+ * A writer created with {@link #measuring(byte[])} discards its output and only
+ * counts it. Attachment sources of known length are then sized arithmetically
+ * rather than read and encoded.
+ * </p>
+ * Instances are not thread-safe.
+ */
+final class JsonStreamWriter {
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+
+    private final OutputStream out;
+    private final byte[] buffer;
+    private int count;
+
+    // Bytes already handed to out, or skipped while measuring
+    private long written;
+    private final boolean measuring;
+
+    // One flag per nesting level: has the current object/array got an element yet
+    private boolean[] nonEmpty = new boolean[16];
+    private int depth;
+    private boolean afterName;
+
+    JsonStreamWriter(OutputStream out) {
+        this(out, new byte[8192]);
+    }
+
+    JsonStreamWriter(OutputStream out, byte[] buffer) {
+        this(out, buffer, false);
+    }
+
+    private JsonStreamWriter(OutputStream out, byte[] buffer, boolean measuring) {
+        this.out = out;
+        this.buffer = buffer;
+        this.measuring = measuring;
+    }
+
+    /**
+     * @return a writer that only counts the bytes it would write, see {@link #size()}
+     */
+    static JsonStreamWriter measuring(byte[] buffer) {
+        return new JsonStreamWriter(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) {
+            }
+        }, buffer, true);
+    }
+
+    /**
+     * @return the number of bytes written so far
+     */
+    long size() {
+        return written + count;
+    }
+
+    JsonStreamWriter beginObject() throws IOException {
+        beforeValue();
+        push();
+        writeByte('{');
+        return this;
+    }
+
+    JsonStreamWriter endObject() throws IOException {
+        depth--;
+        writeByte('}');
+        return this;
+    }
+
+    JsonStreamWriter beginArray() throws IOException {
+        beforeValue();
+        push();
+        writeByte('[');
+        return this;
+    }
+
+    JsonStreamWriter endArray() throws IOException {
+        depth--;
+        writeByte(']');
+        return this;
+    }
+
+    JsonStreamWriter name(String name) throws IOException {
+        separator();
+        writeString(name);
+        writeByte(':');
+        afterName = true;
+        return this;
+    }
+
+    JsonStreamWriter value(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        writeString(value);
+        return this;
+    }
+
+    JsonStreamWriter value(long value) throws IOException {
+        beforeValue();
+        String digits = Long.toString(value);
+        for (int i = 0; i < digits.length(); i++) {
+            writeByte(digits.charAt(i));
+        }
+        return this;
+    }
+
+    /**
+     * Writes a number the way Gson does, as its {@code toString()}.
+     */
+    JsonStreamWriter value(Number value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        double d = value.doubleValue();
+        if (Double.isNaN(d) || Double.isInfinite(d)) {
+            throw new IllegalArgumentException("JSON forbids NaN and infinities: " + value);
+        }
+        return jsonValue(value.toString());
+    }
+
+    /**
+     * Writes a value that is already encoded as JSON, byte for byte.
+     */
+    JsonStreamWriter jsonValue(String json) throws IOException {
+        beforeValue();
+        int length = json.length();
+        for (int i = 0; i < length; i++) {
+            char c = json.charAt(i);
+            if (c >= 0x80) {
+                byte[] bytes = json.substring(i).getBytes("UTF-8");
+                writeBytes(bytes, 0, bytes.length);
+                break;
+            }
+            writeByte(c);
+        }
+        return this;
+    }
+
+    JsonStreamWriter value(boolean value) throws IOException {
+        beforeValue();
+        writeBytes(value ? TRUE : FALSE, 0, value ? 4 : 5);
+        return this;
+    }
+
+    /**
+     * Writes the content of a source as a base64 string value. The content is
+     * encoded as it is read, a few kilobytes at a time.
+     */
+    JsonStreamWriter base64Value(AttachmentSource source) throws IOException {
+        beforeValue();
+        writeByte('"');
+        long length = source.length();
+        if (measuring && length >= 0) {
+            written += 4 * ((length + 2) / 3);
+            writeByte('"');
+            return this;
+        }
+        // Base64 output never needs escaping, so it goes straight into the buffer
+        OutputStream encoder = new Base64OutputStream(new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                writeByte(b);
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                writeBytes(bytes, offset, length);
+            }
+        }, true, 0, null);
+        source.writeTo(encoder);
+        encoder.close();
+        writeByte('"');
+        return this;
+    }
+
+    /**
+     * Writes name/value pairs that are already encoded, such as
+     * {@code "Subject":"Hi","TextBody":"Hello"}, into the current object.
+     * Large fragments go straight to the stream without being copied.
+     */
+    JsonStreamWriter fragment(byte[] json) throws IOException {
+        if (json.length == 0) {
+            return this;
+        }
+        separator();
+        if (measuring) {
+            written += json.length;
+        } else {
+            writeBytes(json, 0, json.length);
+        }
+        return this;
+    }
+
+    JsonStreamWriter nullValue() throws IOException {
+        beforeValue();
+        writeBytes(NULL, 0, NULL.length);
+        return this;
+    }
+
+    /**
+     * Writes a name/value pair, skipping it entirely when the value is null,
+     * which is how Gson treats null fields by default.
+     */
+    JsonStreamWriter field(String name, String value) throws IOException {
+        if (value != null) {
+            name(name).value(value);
+        }
+        return this;
+    }
+
+    void flush() throws IOException {
+        drain();
+        out.flush();
+    }
+
+    private void drain() throws IOException {
+        if (count > 0) {
+            out.write(buffer, 0, count);
+            written += count;
+            count = 0;
+        }
+    }
+
+    private void push() {
+        depth++;
+        if (depth == nonEmpty.length) {
+            boolean[] grown = new boolean[depth * 2];
+            System.arraycopy(nonEmpty, 0, grown, 0, depth);
+            nonEmpty = grown;
+        }
+        nonEmpty[depth] = false;
+    }
+
+    private void beforeValue() throws IOException {
+        if (afterName) {
+            afterName = false;
+        } else {
+            separator();
+        }
+    }
+
+    private void separator() throws IOException {
+        if (depth > 0) {
+            if (nonEmpty[depth]) {
+                writeByte(',');
+            }
+            nonEmpty[depth] = true;
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+        writeByte('"');
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                switch (c) {
+                    case '"':
+                    case '\\':
+                        writeByte('\\');
+                        writeByte(c);
+                        break;
+                    case '\t':
+                        writeEscape('t');
+                        break;
+                    case '\b':
+                        writeEscape('b');
+                        break;
+                    case '\n':
+                        writeEscape('n');
+                        break;
+                    case '\r':
+                        writeEscape('r');
+                        break;
+                    case '\f':
+                        writeEscape('f');
+                        break;
+                    default:
+                        if (c <= 0x1f) {
+                            writeUnicodeEscape(c);
+                        } else {
+                            writeByte(c);
+                        }
+                }
+            } else if (c < 0x800) {
+                writeByte(0xc0 | (c >> 6));
+                writeByte(0x80 | (c & 0x3f));
+            } else if (c == '\u2028' || c == '\u2029') {
+                writeUnicodeEscape(c);
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    writeByte(0xf0 | (codePoint >> 18));
+                    writeByte(0x80 | ((codePoint >> 12) & 0x3f));
+                    writeByte(0x80 | ((codePoint >> 6) & 0x3f));
+                    writeByte(0x80 | (codePoint & 0x3f));
+                } else {
+                    // Unpaired surrogate, encoded the way String.getBytes("UTF-8") does
+                    writeByte('?');
+                }
+            } else {
+                writeByte(0xe0 | (c >> 12));
+                writeByte(0x80 | ((c >> 6) & 0x3f));
+                writeByte(0x80 | (c & 0x3f));
+            }
+        }
+        writeByte('"');
+    }
+
+    private void writeEscape(char c) throws IOException {
+        writeByte('\\');
+        writeByte(c);
+    }
+
+    private void writeUnicodeEscape(char c) throws IOException {
+        writeByte('\\');
+        writeByte('u');
+        writeByte(HEX[(c >> 12) & 0xf]);
+        writeByte(HEX[(c >> 8) & 0xf]);
+        writeByte(HEX[(c >> 4) & 0xf]);
+        writeByte(HEX[c & 0xf]);
+    }
+
+    private void writeByte(int b) throws IOException {
+        if (count == buffer.length) {
+            drain();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    private void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+        if (length > buffer.length - count) {
+            drain();
+            if (length > buffer.length) {
+                out.write(bytes, offset, length);
+                written += length;
+                return;
+            }
+        }
+        System.arraycopy(bytes, offset, buffer, count, length);
+        count += length;
+    }
+}
@@ -0,0 +1,51 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+/**
+ * Log record parameter that formats a message or response only when the
+ * record is published, which may be on an asynchronous logging thread.
+ */
+final class LoggedPayload {
+
+    private final PayloadFormatter formatter;
+    private final PostmarkMessage message;
+    private final String text;
+
+    LoggedPayload(PayloadFormatter formatter, PostmarkMessage message) {
+        this.formatter = formatter;
+        this.message = message;
+        this.text = null;
+    }
+
+    LoggedPayload(PayloadFormatter formatter, String text) {
+        this.formatter = formatter;
+        this.message = null;
+        this.text = text;
+    }
+
+    @Override
+    public String toString() {
+        return (message != null) ? formatter.format(message) : formatter.format(text);
+    }
+}
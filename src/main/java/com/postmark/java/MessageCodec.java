@@ -0,0 +1,69 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.List;
+
+/**
+ * Converts messages to the JSON wire format used by the Postmark API and
+ * parses the API's responses.
+ * <p>
+ * Implementations must be thread-safe; a single codec is shared by every
+ * send made through a {@link PostmarkClient}.
+ * </p>
+ *
+ * @see StreamingMessageCodec
+ * @see GsonMessageCodec
+ */
+public interface MessageCodec {
+
+    /**
+     * Writes a message as compact UTF-8 JSON.
+     *
+     * @param message the message to write
+     * @param out     the stream to write to; it is flushed but not closed
+     * @throws IOException if the stream can not be written
+     */
+    void writeMessage(PostmarkMessage message, OutputStream out) throws IOException;
+
+    /**
+     * Reads the response to a single message send.
+     *
+     * @param reader the response body
+     * @return the parsed response
+     * @throws IOException if the body can not be read or is not valid JSON
+     */
+    PostmarkResponse readResponse(Reader reader) throws IOException;
+
+    /**
+     * Reads the response to a batch send.
+     *
+     * @param reader the response body, a JSON array
+     * @return one response per message in the batch, in request order
+     * @throws IOException if the body can not be read or is not valid JSON
+     */
+    List<PostmarkResponse> readResponses(Reader reader) throws IOException;
+}
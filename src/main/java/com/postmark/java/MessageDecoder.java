@@ -0,0 +1,162 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads messages back from the JSON written by a {@link MessageCodec}.
+ * <p>
+ * Template model numbers are kept as parsed, so they are written out again
+ * exactly as they were read rather than as doubles.
+ * </p>
+ */
+final class MessageDecoder {
+
+    private MessageDecoder() {
+    }
+
+    static PostmarkMessage decode(byte[] json, int offset, int length, boolean templated) throws IOException {
+        JsonObject o;
+        try {
+            o = new JsonParser().parse(new InputStreamReader(new ByteArrayInputStream(json, offset, length), "UTF-8"))
+                    .getAsJsonObject();
+        } catch (JsonParseException e) {
+            throw new IOException("Malformed message: " + e.getMessage(), e);
+        } catch (IllegalStateException e) {
+            throw new IOException("Malformed message: " + e.getMessage(), e);
+        }
+
+        PostmarkMessage message;
+        String html = string(o, "HtmlBody");
+        String text = string(o, "TextBody");
+        if (templated) {
+            TemplatedPostmarkMessage t = new TemplatedPostmarkMessage(string(o, "From"), string(o, "To"),
+                    string(o, "TemplateAlias"), model(o.get("TemplateModel")));
+            JsonElement id = o.get("TemplateId");
+            if (id != null && !id.isJsonNull()) {
+                t.setTemplateId(id.getAsLong());
+            }
+            JsonElement inlineCss = o.get("InlineCss");
+            if (inlineCss != null && !inlineCss.isJsonNull()) {
+                t.setInlineCss(inlineCss.getAsBoolean());
+            }
+            t.setReplyToAddress(string(o, "ReplyTo"));
+            t.setCcAddress(string(o, "Cc"));
+            t.setBccAddress(string(o, "Bcc"));
+            t.setSubject(string(o, "Subject"));
+            t.setTag(string(o, "Tag"));
+            t.setHtmlBody(html);
+            t.setTextBody(text);
+            message = t;
+        } else {
+            message = new PostmarkMessage(string(o, "From"), string(o, "To"), string(o, "ReplyTo"), string(o, "Cc"),
+                    string(o, "Bcc"), string(o, "Subject"), (html != null) ? html : text, html != null,
+                    string(o, "Tag"), null);
+            if (html != null) {
+                message.setTextBody(text);
+            }
+        }
+
+        JsonElement headers = o.get("Headers");
+        if (headers != null && headers.isJsonArray()) {
+            List<NameValuePair> list = new ArrayList<NameValuePair>();
+            for (JsonElement header : headers.getAsJsonArray()) {
+                // Written by field name, as Gson does for NameValuePair
+                list.add(new NameValuePair(string(header.getAsJsonObject(), "name"), string(header.getAsJsonObject(), "value")));
+            }
+            message.setHeaders(list);
+        }
+
+        JsonElement attachments = o.get("Attachments");
+        if (attachments != null && attachments.isJsonArray()) {
+            List<Attachment> list = new ArrayList<Attachment>();
+            for (JsonElement element : attachments.getAsJsonArray()) {
+                if (element.isJsonNull()) {
+                    list.add(null);
+                    continue;
+                }
+                JsonObject a = element.getAsJsonObject();
+                Attachment attachment = new Attachment();
+                // Attachment fields are written with their Java names
+                attachment.setName(string(a, "name"));
+                attachment.setContentType(string(a, "contentType"));
+                attachment.setContent(string(a, "content"));
+                list.add(attachment);
+            }
+            message.setAttachments(list);
+        }
+
+        return message;
+    }
+
+    private static String string(JsonObject o, String name) {
+        JsonElement value = o.get(name);
+        return (value == null || value.isJsonNull()) ? null : value.getAsString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> model(JsonElement element) {
+        return (element == null || element.isJsonNull()) ? null : (Map<String, Object>) value(element);
+    }
+
+    private static Object value(JsonElement element) {
+        if (element.isJsonNull()) {
+            return null;
+        }
+        if (element.isJsonPrimitive()) {
+            JsonPrimitive p = element.getAsJsonPrimitive();
+            if (p.isBoolean()) {
+                return p.getAsBoolean();
+            }
+            // Lazily parsed, so toString() gives back the original digits
+            return p.isNumber() ? p.getAsNumber() : p.getAsString();
+        }
+        if (element.isJsonArray()) {
+            JsonArray array = element.getAsJsonArray();
+            List<Object> list = new ArrayList<Object>(array.size());
+            for (JsonElement item : array) {
+                list.add(value(item));
+            }
+            return list;
+        }
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        for (Map.Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet()) {
+            map.put(entry.getKey(), value(entry.getValue()));
+        }
+        return map;
+    }
+}
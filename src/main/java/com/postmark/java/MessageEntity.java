@@ -0,0 +1,159 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Request body that serializes a message straight into the connection's
+ * output stream when the request is sent.
+ * <p>
+ * Nothing is serialized up front, so neither a JSON String nor a byte array
+ * copy of the payload is ever built. The entity can be written any number of
+ * times, which lets a failed request be retried, unless the message streams an
+ * attachment from a one-shot source. Its length is not known in advance, so it
+ * is sent with chunked encoding.
+ * </p>
+ */
+class MessageEntity extends AbstractHttpEntity {
+
+    private final MessageCodec codec;
+    private final PostmarkMessage message;
+
+    MessageEntity(MessageCodec codec, PostmarkMessage message) {
+        this.codec = codec;
+        this.message = message;
+        setChunked(true);
+    }
+
+    public boolean isRepeatable() {
+        return isRepeatable(message);
+    }
+
+    public long getContentLength() {
+        return -1;
+    }
+
+    public InputStream getContent() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeTo(out);
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        codec.writeMessage(message, out);
+    }
+
+    public boolean isStreaming() {
+        return false;
+    }
+
+    /**
+     * Estimates the size of a message's JSON from the lengths of its fields,
+     * without serializing anything. Good enough to decide whether compressing
+     * the message is worthwhile.
+     */
+    static long estimateSize(PostmarkMessage message) {
+        long size = length(message.getFromAddress()) + length(message.getToAddress())
+                + length(message.getReplyToAddress()) + length(message.getCcAddress())
+                + length(message.getBccAddress()) + length(message.getSubject())
+                + length(message.getHtmlBody()) + length(message.getTextBody()) + length(message.getTag());
+
+        List<NameValuePair> headers = message.getHeaders();
+        if (headers != null) {
+            for (NameValuePair header : headers) {
+                if (header != null) {
+                    size += length(header.getName()) + length(header.getValue());
+                }
+            }
+        }
+        List<Attachment> attachments = message.getAttachments();
+        if (attachments != null) {
+            for (Attachment attachment : attachments) {
+                if (attachment == null) {
+                    continue;
+                }
+                AttachmentSource source = attachment.getSource();
+                if (source == null) {
+                    size += length(attachment.getContent());
+                } else if (source.length() > 0) {
+                    size += 4 * ((source.length() + 2) / 3);
+                }
+            }
+        }
+        return size;
+    }
+
+    private static int length(String value) {
+        return (value == null) ? 0 : value.length();
+    }
+
+    /**
+     * @return false if the message streams an attachment that can only be read once
+     */
+    static boolean isRepeatable(PostmarkMessage message) {
+        List<Attachment> attachments = message.getAttachments();
+        if (attachments != null) {
+            for (Attachment attachment : attachments) {
+                if (attachment != null && attachment.getSource() != null && !attachment.getSource().isRepeatable()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the size of the message's JSON, computed without holding it in memory
+     */
+    static long measure(MessageCodec codec, PostmarkMessage message) throws IOException {
+        if (codec instanceof StreamingMessageCodec) {
+            return ((StreamingMessageCodec) codec).measure(message);
+        }
+        return count(codec, message);
+    }
+
+    // Serializes into a stream that only counts the bytes
+    static long count(MessageCodec codec, PostmarkMessage message) throws IOException {
+        final long[] count = new long[1];
+        codec.writeMessage(message, new OutputStream() {
+            @Override
+            public void write(int b) {
+                count[0]++;
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) {
+                count[0] += length;
+            }
+        });
+        return count[0];
+    }
+}
@@ -0,0 +1,263 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A 128-bit hash of a message's content, used to recognise the same message
+ * sent twice.
+ * <p>
+ * The fields are hashed as they are, with MurmurHash3 (x64, 128-bit), instead
+ * of being serialized first. Every field is length-prefixed so that content
+ * can not move between fields without changing the hash. Template models are
+ * hashed by value; map entries are combined without regard to order, so two
+ * equal maps hash alike whatever their iteration order.
+ * </p>
+ */
+final class MessageFingerprint {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    // Separates absent fields from empty ones
+    private static final long NULL = -1;
+
+    private final long high;
+    private final long low;
+
+    private MessageFingerprint(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    /**
+     * @param message the message to hash
+     * @return the fingerprint, or null if the message streams an attachment whose
+     *         content can not be hashed without reading it
+     */
+    static MessageFingerprint of(PostmarkMessage message) {
+        Hasher h = new Hasher();
+        h.add(message.getClass().getName());
+        h.add(message.getFromAddress());
+        h.add(message.getToAddress());
+        h.add(message.getCcAddress());
+        h.add(message.getBccAddress());
+        h.add(message.getReplyToAddress());
+        h.add(message.getSubject());
+        h.add(message.getHtmlBody());
+        h.add(message.getTextBody());
+        h.add(message.getTag());
+
+        List<NameValuePair> headers = message.getHeaders();
+        h.addLong(headers == null ? NULL : headers.size());
+        if (headers != null) {
+            for (NameValuePair header : headers) {
+                h.add(header == null ? null : header.getName());
+                h.add(header == null ? null : header.getValue());
+            }
+        }
+
+        List<Attachment> attachments = message.getAttachments();
+        h.addLong(attachments == null ? NULL : attachments.size());
+        if (attachments != null) {
+            for (Attachment attachment : attachments) {
+                if (attachment == null) {
+                    h.addLong(NULL);
+                    continue;
+                }
+                if (attachment.getSource() != null) {
+                    return null;
+                }
+                h.add(attachment.getName());
+                h.add(attachment.getContentType());
+                h.add(attachment.getContent());
+            }
+        }
+
+        if (message instanceof TemplatedPostmarkMessage) {
+            TemplatedPostmarkMessage templated = (TemplatedPostmarkMessage) message;
+            h.addLong(templated.getTemplateId() == null ? NULL : templated.getTemplateId());
+            h.add(templated.getTemplateAlias());
+            h.add(String.valueOf(templated.getInlineCss()));
+            h.addValue(templated.getTemplateModel());
+        }
+
+        return h.finish();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        MessageFingerprint that = (MessageFingerprint) o;
+        return high == that.high && low == that.low;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) low;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%016x%016x", high, low);
+    }
+
+    // Streaming MurmurHash3 x64/128 over 16-bit chars, eight to a block
+    private static final class Hasher {
+
+        private long h1;
+        private long h2;
+        private long k1;
+        private long k2;
+        private int buffered;
+        private long length;
+
+        void add(String value) {
+            if (value == null) {
+                addLong(NULL);
+                return;
+            }
+            int n = value.length();
+            addLong(n);
+            for (int i = 0; i < n; i++) {
+                addChar(value.charAt(i));
+            }
+        }
+
+        void addLong(long value) {
+            addChar((char) value);
+            addChar((char) (value >>> 16));
+            addChar((char) (value >>> 32));
+            addChar((char) (value >>> 48));
+        }
+
+        void addValue(Object value) {
+            if (value == null) {
+                addLong(NULL);
+            } else if (value instanceof Map) {
+                // Entries are hashed on their own and summed, so their order does not matter
+                long sumHigh = 0;
+                long sumLow = 0;
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                    Hasher entryHasher = new Hasher();
+                    entryHasher.addValue(entry.getKey());
+                    entryHasher.addValue(entry.getValue());
+                    MessageFingerprint f = entryHasher.finish();
+                    sumHigh += f.high;
+                    sumLow += f.low;
+                }
+                add("map");
+                addLong(((Map<?, ?>) value).size());
+                addLong(sumHigh);
+                addLong(sumLow);
+            } else if (value instanceof Collection) {
+                add("list");
+                addLong(((Collection<?>) value).size());
+                for (Object item : (Collection<?>) value) {
+                    addValue(item);
+                }
+            } else if (value instanceof Object[]) {
+                Object[] array = (Object[]) value;
+                add("list");
+                addLong(array.length);
+                for (Object item : array) {
+                    addValue(item);
+                }
+            } else {
+                // Numbers and strings are told apart, since they are written differently
+                add(value instanceof String ? "string" : "scalar");
+                add(value.toString());
+            }
+        }
+
+        private void addChar(char c) {
+            if (buffered < 4) {
+                k1 |= (long) c << (buffered << 4);
+            } else {
+                k2 |= (long) c << ((buffered - 4) << 4);
+            }
+            if (++buffered == 8) {
+                mixBlock();
+            }
+            length += 2;
+        }
+
+        private void mixBlock() {
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+
+            k1 = 0;
+            k2 = 0;
+            buffered = 0;
+        }
+
+        MessageFingerprint finish() {
+            if (buffered > 0) {
+                h1 ^= mixK1(k1);
+                h2 ^= mixK2(k2);
+            }
+            h1 ^= length;
+            h2 ^= length;
+            h1 += h2;
+            h2 += h1;
+            h1 = fmix(h1);
+            h2 = fmix(h2);
+            h1 += h2;
+            h2 += h1;
+            return new MessageFingerprint(h1, h2);
+        }
+
+        private static long mixK1(long k) {
+            k *= C1;
+            k = Long.rotateLeft(k, 31);
+            return k * C2;
+        }
+
+        private static long mixK2(long k) {
+            k *= C2;
+            k = Long.rotateLeft(k, 33);
+            return k * C1;
+        }
+
+        private static long fmix(long k) {
+            k ^= k >>> 33;
+            k *= 0xff51afd7ed558ccdL;
+            k ^= k >>> 33;
+            k *= 0xc4ceb9fe1a85ec53L;
+            k ^= k >>> 33;
+            return k;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The parts of a {@link MessagePrototype} that every derived message shares,
+ * encoded once as UTF-8 JSON.
+ * <p>
+ * {@link StreamingMessageCodec} splices the fragments around the fields that
+ * differ per message (To, Tag and Headers), so a derived message costs only as
+ * much to serialize as those fields. The output is byte for byte what the
+ * message would serialize to otherwise. Fragments are only used while the
+ * message still holds the prototype's own values; a message whose shared fields
+ * have been replaced is serialized field by field.
+ * </p>
+ */
+final class MessageFragments {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final String fromAddress;
+    private final String replyToAddress;
+    private final String ccAddress;
+    private final String bccAddress;
+    private final String subject;
+    private final String htmlBody;
+    private final String textBody;
+    private final List<Attachment> attachments;
+
+    // "From":...
+    final byte[] head;
+
+    // "ReplyTo":... through "TextBody":...
+    final byte[] body;
+
+    // "Attachments":[...], or null when they have to be streamed per message
+    final byte[] tail;
+
+    MessageFragments(PostmarkMessage message) throws IOException {
+        this.fromAddress = message.getFromAddress();
+        this.replyToAddress = message.getReplyToAddress();
+        this.ccAddress = message.getCcAddress();
+        this.bccAddress = message.getBccAddress();
+        this.subject = message.getSubject();
+        this.htmlBody = message.getHtmlBody();
+        this.textBody = message.getTextBody();
+        this.attachments = message.getAttachments();
+
+        JsonStreamWriter writer;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        writer = open(out);
+        writer.field("From", fromAddress);
+        head = close(writer, out);
+
+        writer = open(out);
+        writer.field("ReplyTo", replyToAddress);
+        writer.field("Cc", ccAddress);
+        writer.field("Bcc", bccAddress);
+        writer.field("Subject", subject);
+        writer.field("HtmlBody", htmlBody);
+        writer.field("TextBody", textBody);
+        body = close(writer, out);
+
+        // Streamed attachments stay streamed rather than being held in memory
+        if (attachments == null || hasSource(attachments)) {
+            tail = (attachments == null) ? EMPTY : null;
+        } else {
+            writer = open(out);
+            StreamingMessageCodec.writeAttachments(attachments, writer);
+            tail = close(writer, out);
+        }
+    }
+
+    /**
+     * @return true if the message still holds the values the fragments were encoded from
+     */
+    boolean matches(PostmarkMessage message) {
+        return message.getFromAddress() == fromAddress
+                && message.getReplyToAddress() == replyToAddress
+                && message.getCcAddress() == ccAddress
+                && message.getBccAddress() == bccAddress
+                && message.getSubject() == subject
+                && message.getHtmlBody() == htmlBody
+                && message.getTextBody() == textBody
+                && (tail == null || message.getAttachments() == attachments);
+    }
+
+    private static boolean hasSource(List<Attachment> attachments) {
+        for (Attachment attachment : attachments) {
+            if (attachment != null && attachment.getSource() != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static JsonStreamWriter open(ByteArrayOutputStream out) throws IOException {
+        out.reset();
+        return new JsonStreamWriter(out).beginObject();
+    }
+
+    // The pairs written since open(), without the braces around them
+    private static byte[] close(JsonStreamWriter writer, ByteArrayOutputStream out) throws IOException {
+        writer.endObject().flush();
+        byte[] object = out.toByteArray();
+        return Arrays.copyOfRange(object, 1, object.length - 1);
+    }
+}
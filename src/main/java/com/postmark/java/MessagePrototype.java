@@ -0,0 +1,277 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable template for messages that go to many recipients.
+ * <p>
+ * A prototype holds everything the recipients have in common: sender, subject,
+ * bodies, tag, headers and attachments. It is safe to share between threads.
+ * Each call to {@link #to(String)} or {@link #to(String, String, List)} creates
+ * a small message that refers to the prototype's Strings and lists rather than
+ * copying them, so fanning out to a million recipients never copies a body or
+ * an attachment. The derived messages are already clean and are sent as they are.
+ * Their header and attachment lists are read-only; replace them with the setters
+ * to change them.
+ * </p>
+ * Sample code:
+ * <pre>
+ * {@code
+ * MessagePrototype newsletter = new MessagePrototype.Builder()
+ *         .from("news@example.com")
+ *         .subject("This week's offers")
+ *         .htmlBody(html)
+ *         .tag("newsletter")
+ *         .build();
+ *
+ * for (String recipient : recipients) {
+ *     client.sendMessageAsync(newsletter.to(recipient));
+ * }
+ * }
+ * </pre>
+ * With {@link Builder#freeze()} the shared parts are also pre-encoded as JSON,
+ * so serializing a derived message costs only what differs per recipient.
+ * Attachments are shared by every derived message, so they must not be changed
+ * after the prototype is built, and their sources must be readable more than once.
+ */
+public final class MessagePrototype {
+
+    private final String fromAddress;
+    private final String replyToAddress;
+    private final String ccAddress;
+    private final String bccAddress;
+    private final String subject;
+    private final String body;
+    private final boolean isHTML;
+    private final String tag;
+    private final List<NameValuePair> headers;
+    private final List<Attachment> attachments;
+    private final MessageFragments fragments;
+
+    private MessagePrototype(Builder builder) {
+        this.fromAddress = trim(builder.fromAddress);
+        this.replyToAddress = builder.replyToAddress;
+        this.ccAddress = builder.ccAddress;
+        this.bccAddress = builder.bccAddress;
+        this.subject = (builder.subject == null) ? "" : builder.subject.trim();
+        this.body = builder.body;
+        this.isHTML = builder.isHTML;
+        this.tag = builder.tag;
+        this.headers = Collections.unmodifiableList(new ArrayList<NameValuePair>(builder.headers));
+        this.attachments = builder.attachments.isEmpty() ? null
+                : Collections.unmodifiableList(new ArrayList<Attachment>(builder.attachments));
+        this.fragments = builder.freeze ? freeze() : null;
+    }
+
+    private MessageFragments freeze() {
+        try {
+            return new MessageFragments(to(""));
+        } catch (IOException e) {
+            // Only in-memory content is encoded, so this can not happen
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Creates a message for one recipient.
+     *
+     * @param toAddress the recipient, or a comma-separated list of recipients
+     * @return a new message sharing everything else with the prototype
+     */
+    public PostmarkMessage to(String toAddress) {
+        return to(toAddress, tag, null);
+    }
+
+    /**
+     * Creates a message for one recipient with its own tag and extra headers.
+     *
+     * @param toAddress the recipient, or a comma-separated list of recipients
+     * @param tag       the tag for this message, replacing the prototype's
+     * @param headers   headers sent after the prototype's, or null for none
+     * @return a new message sharing everything else with the prototype
+     */
+    public PostmarkMessage to(String toAddress, String tag, List<NameValuePair> headers) {
+        List<NameValuePair> allHeaders = (headers == null || headers.isEmpty())
+                ? this.headers
+                : new Concatenation<NameValuePair>(this.headers, new ArrayList<NameValuePair>(headers));
+
+        PostmarkMessage message = new PostmarkMessage(fromAddress, trim(toAddress), replyToAddress, ccAddress,
+                bccAddress, subject, body, isHTML, tag, allHeaders);
+        message.setAttachments(attachments);
+        message.fragments = fragments;
+        return message;
+    }
+
+    public String getFromAddress() {
+        return fromAddress;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    /**
+     * @return the headers every message carries, unmodifiable
+     */
+    public List<NameValuePair> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * @return the attachments every message carries, unmodifiable, or null for none
+     */
+    public List<Attachment> getAttachments() {
+        return attachments;
+    }
+
+    private static String trim(String value) {
+        return (value == null) ? null : value.trim();
+    }
+
+    /**
+     * Collects the fields of a {@link MessagePrototype}.
+     * A builder is not thread-safe, but the prototypes it builds are.
+     */
+    public static final class Builder {
+
+        private String fromAddress;
+        private String replyToAddress;
+        private String ccAddress;
+        private String bccAddress;
+        private String subject;
+        private String body;
+        private boolean isHTML;
+        private String tag;
+        private final List<NameValuePair> headers = new ArrayList<NameValuePair>();
+        private final List<Attachment> attachments = new ArrayList<Attachment>();
+        private boolean freeze;
+
+        public Builder from(String fromAddress) {
+            this.fromAddress = fromAddress;
+            return this;
+        }
+
+        public Builder replyTo(String replyToAddress) {
+            this.replyToAddress = replyToAddress;
+            return this;
+        }
+
+        public Builder cc(String ccAddress) {
+            this.ccAddress = ccAddress;
+            return this;
+        }
+
+        public Builder bcc(String bccAddress) {
+            this.bccAddress = bccAddress;
+            return this;
+        }
+
+        public Builder subject(String subject) {
+            this.subject = subject;
+            return this;
+        }
+
+        public Builder htmlBody(String htmlBody) {
+            this.body = htmlBody;
+            this.isHTML = true;
+            return this;
+        }
+
+        public Builder textBody(String textBody) {
+            this.body = textBody;
+            this.isHTML = false;
+            return this;
+        }
+
+        public Builder tag(String tag) {
+            this.tag = tag;
+            return this;
+        }
+
+        public Builder header(String name, String value) {
+            headers.add(new NameValuePair(name, value));
+            return this;
+        }
+
+        /**
+         * @throws IllegalArgumentException if the attachment streams from a source
+         *                                  that can only be read once
+         */
+        public Builder attachment(Attachment attachment) {
+            if (attachment.getSource() != null && !attachment.getSource().isRepeatable()) {
+                throw new IllegalArgumentException("Attachment " + attachment.getName()
+                        + " can only be read once and can not be shared between messages.");
+            }
+            attachments.add(attachment);
+            return this;
+        }
+
+        /**
+         * Encodes the shared parts as JSON once, when the prototype is built, so that
+         * sending a derived message only encodes its To, Tag and Headers. Costs the
+         * memory of a UTF-8 copy of the bodies and of any in-memory attachments;
+         * attachments streamed from a source are still streamed per message.
+         */
+        public Builder freeze() {
+            this.freeze = true;
+            return this;
+        }
+
+        public MessagePrototype build() {
+            return new MessagePrototype(this);
+        }
+    }
+
+    // A read-only view of one list followed by another
+    private static final class Concatenation<E> extends AbstractList<E> {
+
+        private final List<E> first;
+        private final List<E> second;
+
+        Concatenation(List<E> first, List<E> second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public E get(int index) {
+            int size = first.size();
+            return (index < size) ? first.get(index) : second.get(index - size);
+        }
+
+        @Override
+        public int size() {
+            return first.size() + second.size();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+/**
+ * Receives timings from {@link PostmarkClient} as messages are sent.
+ * <p>
+ * Methods are called on the sending thread, so implementations must be
+ * thread-safe and quick. When no listener is configured the client does not
+ * read the clock at all.
+ * </p>
+ * The connection phases are reported once per attempt, so a retried send
+ * reports them more than once.
+ *
+ * @see SendMetrics
+ * @see PostmarkClientConfig#setMetricsListener(MetricsListener)
+ */
+public interface MetricsListener {
+
+    /**
+     * Called before a message is validated.
+     */
+    void sendStarted();
+
+    /**
+     * Called when a phase of the send has finished.
+     *
+     * @param phase the phase that finished
+     * @param nanos how long it took, in nanoseconds
+     */
+    void phaseCompleted(SendPhase phase, long nanos);
+
+    /**
+     * Called once a send has succeeded or failed.
+     *
+     * @param status the outcome
+     * @param nanos  how long the whole send took, in nanoseconds
+     */
+    void sendCompleted(PostmarkStatus status, long nanos);
+}
@@ -0,0 +1,738 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * A local write-ahead log of messages waiting to be sent, so that queued mail
+ * survives a crash.
+ * <p>
+ * Messages are appended as JSON to memory-mapped segment files in a directory
+ * of their own, and acknowledged once Postmark has accepted them. When an
+ * outbox is opened, the messages that were appended but never acknowledged
+ * are found again and can be replayed through {@link #pending()}. Fully
+ * acknowledged segments are deleted, and sealed segments that are mostly
+ * acknowledged have their remaining messages copied forward first.
+ * </p>
+ * <p>
+ * With {@link OutboxConfig#isSyncWrites()} on, {@link #append(PostmarkMessage)}
+ * returns once the message has been forced to disk. Threads appending at the
+ * same time share a single force, so the cost of syncing is spread over all of
+ * them. An outbox is usually handed to a {@link QueueingSender}, which appends
+ * each message before queueing it and acknowledges it once sent:
+ * </p>
+ * <pre>
+ * {@code
+ * Outbox outbox = new Outbox(Paths.get("/var/spool/postmark"), new OutboxConfig());
+ * QueueingSenderConfig config = new QueueingSenderConfig();
+ * config.setOutbox(outbox);
+ * QueueingSender sender = new QueueingSender(client, config);
+ * }
+ * </pre>
+ * <p>
+ * Only one outbox may have a directory open at a time. Messages with
+ * attachments that can only be read once can not be appended.
+ * </p>
+ */
+public class Outbox implements Closeable {
+
+    private static Logger logger = Logger.getLogger("com.postmark.java");
+
+    private static final String SUFFIX = ".outbox";
+
+    // Record layout: length, CRC-32 of the rest, sequence, type, payload
+    private static final int HEADER = 4 + 4 + 8 + 1;
+
+    private static final byte MESSAGE = 1;
+    private static final byte TEMPLATED = 2;
+    private static final byte ACK = 3;
+
+    // sun.misc.Unsafe.invokeCleaner, on Java 9 and later
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+            Field field = type.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+        } catch (Exception e) {
+            // Before Java 9 the cleaner is reached through the buffer itself
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    private final boolean syncWrites;
+    private final double compactionRatio;
+    private final MessageCodec codec = new StreamingMessageCodec();
+    private final CRC32 crc = new CRC32();
+
+    // Guarded by this: the segments oldest first, the last being appended to
+    private final List<Segment> segments = new ArrayList<Segment>();
+    private final Map<Long, Record> records = new LinkedHashMap<Long, Record>();
+    private final Set<Segment> dirty = new LinkedHashSet<Segment>();
+    // Removed from the log but not yet unmapped and deleted, oldest first
+    private final List<Segment> retired = new ArrayList<Segment>();
+    private long nextSequence = 1;
+    private long nextSegmentId = 1;
+    private boolean closed;
+    private boolean compacting;
+    // Set when a segment fills up; the compaction runs once the append has released the lock
+    private boolean compactionDue;
+
+    // Guarded by syncLock: the group commit state
+    private final Object syncLock = new Object();
+    private long synced;
+    private boolean syncing;
+
+    /**
+     * Opens the outbox in a directory, creating it if needed, and recovers the
+     * messages that were never acknowledged.
+     *
+     * @param directory the directory holding the segment files
+     * @param config    segment and sync options
+     * @throws IOException if the directory or its segments can not be read
+     */
+    public Outbox(Path directory, OutboxConfig config) throws IOException {
+        this.directory = directory;
+        this.segmentSize = config.getSegmentSize();
+        this.syncWrites = config.isSyncWrites();
+        this.compactionRatio = config.getCompactionRatio();
+
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    /**
+     * Writes a message to the log.
+     *
+     * @param message the message to keep until it is acknowledged
+     * @return the message's sequence number, used to acknowledge it
+     * @throws IOException if the message can not be written
+     * @throws IllegalArgumentException if the message has a one-shot attachment
+     *                                  or is of a class the outbox can not read back
+     */
+    public long append(PostmarkMessage message) throws IOException {
+        byte type;
+        if (message.getClass() == PostmarkMessage.class) {
+            type = MESSAGE;
+        } else if (message.getClass() == TemplatedPostmarkMessage.class) {
+            type = TEMPLATED;
+        } else {
+            throw new IllegalArgumentException("The outbox can not store a " + message.getClass().getName());
+        }
+        if (message.getAttachments() != null) {
+            for (Attachment attachment : message.getAttachments()) {
+                if (attachment != null && attachment.getSource() != null && !attachment.getSource().isRepeatable()) {
+                    throw new IllegalArgumentException("Attachment '" + attachment.getName() + "' can only be read once");
+                }
+            }
+        }
+
+        // Serialized before taking the lock, so appends only contend on the copy
+        Payload payload = new Payload((int) Math.min(MessageEntity.estimateSize(message), Integer.MAX_VALUE - HEADER));
+        codec.writeMessage(message, payload);
+
+        long sequence;
+        boolean compact;
+        synchronized (this) {
+            ensureOpen();
+            sequence = nextSequence++;
+            records.put(sequence, write(sequence, type, payload.buffer(), payload.size()));
+            compact = takeCompactionDue();
+        }
+
+        if (syncWrites) {
+            sync(sequence);
+        }
+        if (compact) {
+            compact();
+        }
+        return sequence;
+    }
+
+    /**
+     * Marks messages as done, so they are not replayed. Acknowledgements are not
+     * forced to disk on their own: after a crash a message may be replayed even
+     * though it was acknowledged, but never the other way round.
+     *
+     * @param sequences the sequence numbers returned by {@link #append(PostmarkMessage)}
+     * @throws IOException if the acknowledgement can not be written
+     */
+    public void ack(long... sequences) throws IOException {
+        byte[] payload = new byte[sequences.length * 8];
+        int length = 0;
+        boolean compact;
+
+        synchronized (this) {
+            ensureOpen();
+            for (long sequence : sequences) {
+                Record record = records.remove(sequence);
+                if (record != null) {
+                    record.segment.release(record);
+                    length = putLong(payload, length, sequence);
+                }
+            }
+            if (length > 0) {
+                write(0, ACK, payload, length);
+            }
+            compact = takeCompactionDue();
+        }
+
+        if (compact) {
+            compact();
+        }
+    }
+
+    /**
+     * @return the messages appended but not yet acknowledged, by sequence number
+     * @throws IOException if a message can not be read back
+     */
+    public SortedMap<Long, PostmarkMessage> pending() throws IOException {
+        List<Long> sequences = new ArrayList<Long>();
+        List<byte[]> payloads = new ArrayList<byte[]>();
+        List<Byte> types = new ArrayList<Byte>();
+        synchronized (this) {
+            ensureOpen();
+            for (Map.Entry<Long, Record> entry : records.entrySet()) {
+                Record record = entry.getValue();
+                sequences.add(entry.getKey());
+                types.add(record.segment.buffer.get(record.offset + HEADER - 1));
+                payloads.add(record.segment.read(record.offset + HEADER, record.length - HEADER));
+            }
+        }
+
+        // Decoded outside the lock, so appends are not held up
+        SortedMap<Long, PostmarkMessage> pending = new TreeMap<Long, PostmarkMessage>();
+        for (int i = 0; i < sequences.size(); i++) {
+            byte[] json = payloads.get(i);
+            pending.put(sequences.get(i), MessageDecoder.decode(json, 0, json.length, types.get(i) == TEMPLATED));
+        }
+        return pending;
+    }
+
+    /**
+     * @return the number of messages appended but not yet acknowledged
+     */
+    public synchronized int getPendingCount() {
+        return records.size();
+    }
+
+    /**
+     * @return the number of segment files
+     */
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Deletes the oldest segments once all their messages are acknowledged. A
+     * sealed segment with few messages left has them copied forward first.
+     * Segments are always removed oldest first, so that no acknowledgement is
+     * lost while the message it refers to is still on disk. Copied messages are
+     * forced to disk without holding up appends, and only then are the old
+     * segments removed. Removed segments are unmapped before their files are
+     * deleted; if a sync is forcing segments at that moment, they are released by
+     * the next compaction or by {@link #close()}. A call made while another
+     * compaction is under way returns at once.
+     *
+     * @throws IOException if a segment can not be rewritten or deleted
+     */
+    public void compact() throws IOException {
+        int removable = 0;
+        boolean copied = false;
+        synchronized (this) {
+            ensureOpen();
+            if (compacting) {
+                return;
+            }
+            compacting = true;
+            boolean planned = false;
+            try {
+                while (removable < segments.size() - 1) {
+                    Segment oldest = segments.get(removable);
+                    if (oldest.live > 0) {
+                        if (oldest.liveBytes > oldest.position * compactionRatio) {
+                            break;
+                        }
+                        copyForward(oldest);
+                        copied = true;
+                    }
+                    removable++;
+                }
+                planned = true;
+            } finally {
+                if (!planned || removable == 0) {
+                    compacting = false;
+                }
+            }
+        }
+        if (removable == 0) {
+            return;
+        }
+
+        boolean forced = false;
+        try {
+            // The copies must be on disk before the segments they came from are deleted
+            if (copied) {
+                forceAll();
+            }
+            forced = true;
+        } finally {
+            synchronized (this) {
+                compacting = false;
+                // Left in place if closed meanwhile; the next open finds the copies twice and keeps one
+                if (forced && !closed) {
+                    for (int i = 0; i < removable; i++) {
+                        Segment oldest = segments.remove(0);
+                        dirty.remove(oldest);
+                        retired.add(oldest);
+                    }
+                    releaseRetired();
+                }
+            }
+        }
+    }
+
+    /**
+     * Forces everything written so far to disk and closes the outbox.
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (Segment segment : dirty) {
+                segment.mapped.force();
+            }
+            dirty.clear();
+            if (releaseRetired()) {
+                for (Segment segment : segments) {
+                    unmap(segment.mapped);
+                }
+            }
+        }
+    }
+
+    // Must hold the lock. A sync forces segments outside it, and touching an unmapped
+    // buffer crashes the JVM, so nothing is unmapped while a sync is under way.
+    private boolean releaseRetired() throws IOException {
+        synchronized (syncLock) {
+            if (syncing) {
+                return false;
+            }
+        }
+        while (!retired.isEmpty()) {
+            Segment oldest = retired.get(0);
+            unmap(oldest.mapped);
+            Files.deleteIfExists(oldest.path);
+            retired.remove(0);
+        }
+        return true;
+    }
+
+    // Releases a mapping now instead of when it is collected: until then a deleted
+    // segment keeps its address space and disk space, and Windows can not delete it
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            if (INVOKE_CLEANER != null) {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+            } else {
+                Method cleaner = buffer.getClass().getMethod("cleaner");
+                cleaner.setAccessible(true);
+                Object instance = cleaner.invoke(buffer);
+                if (instance != null) {
+                    instance.getClass().getMethod("clean").invoke(instance);
+                }
+            }
+        } catch (Exception e) {
+            logger.log(Level.FINE, "Could not unmap an outbox segment; it is released when collected", e);
+        }
+    }
+
+    // Appends a record to the active segment, starting a new one if it is full. Compaction
+    // is left to the caller, after the lock is released, so the new segment keeps the room
+    // it was created with.
+    private Record write(long sequence, byte type, byte[] payload, int length) throws IOException {
+        int size = HEADER + length;
+        Segment segment = segments.get(segments.size() - 1);
+        if (segment.position + size > segment.buffer.capacity()) {
+            segment = roll(size);
+        }
+
+        crc.reset();
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            crc.update((int) (sequence >>> shift));
+        }
+        crc.update(type);
+        crc.update(payload, 0, length);
+
+        int offset = segment.position;
+        ByteBuffer buffer = segment.buffer;
+        ((Buffer) buffer).position(offset + 4);
+        buffer.putInt((int) crc.getValue());
+        buffer.putLong(sequence);
+        buffer.put(type);
+        buffer.put(payload, 0, length);
+
+        // The length goes in last: a record only becomes visible once complete
+        buffer.putInt(offset, size);
+        segment.position = offset + size;
+        dirty.add(segment);
+
+        Record record = new Record(segment, offset, size);
+        if (type != ACK) {
+            segment.retain(record);
+        }
+        return record;
+    }
+
+    private Segment roll(int minimumSize) throws IOException {
+        Segment segment = Segment.create(directory.resolve(name(nextSegmentId++)), Math.max(segmentSize, minimumSize));
+        segments.add(segment);
+        syncDirectory();
+        compactionDue = true;
+        return segment;
+    }
+
+    // Must hold the lock
+    private boolean takeCompactionDue() {
+        boolean due = compactionDue;
+        compactionDue = false;
+        return due;
+    }
+
+    // Copies a segment's unacknowledged messages to the end of the log; the caller forces them
+    private void copyForward(Segment segment) throws IOException {
+        List<Map.Entry<Long, Record>> moved = new ArrayList<Map.Entry<Long, Record>>();
+        for (Map.Entry<Long, Record> entry : records.entrySet()) {
+            if (entry.getValue().segment == segment) {
+                moved.add(entry);
+            }
+        }
+        for (Map.Entry<Long, Record> entry : moved) {
+            Record record = entry.getValue();
+            byte type = segment.buffer.get(record.offset + HEADER - 1);
+            byte[] payload = segment.read(record.offset + HEADER, record.length - HEADER);
+            segment.release(record);
+            entry.setValue(write(entry.getKey(), type, payload, payload.length));
+        }
+    }
+
+    // Group commit: one thread forces the dirty segments while the others wait for it
+    private void sync(long sequence) throws IOException {
+        synchronized (syncLock) {
+            while (syncing && synced < sequence) {
+                try {
+                    syncLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the outbox to sync");
+                }
+            }
+            if (synced >= sequence) {
+                return;
+            }
+            syncing = true;
+        }
+        forceDirty();
+    }
+
+    // Forces every dirty segment, waiting for a sync under way instead of joining it:
+    // copied messages keep their old sequence numbers, which a sync may already cover
+    private void forceAll() throws IOException {
+        synchronized (syncLock) {
+            while (syncing) {
+                try {
+                    syncLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the outbox to sync");
+                }
+            }
+            syncing = true;
+        }
+        forceDirty();
+    }
+
+    // Called with syncing set, so that no segment is unmapped while it is forced outside the lock
+    private void forceDirty() throws IOException {
+        long target;
+        Segment[] toForce;
+        synchronized (this) {
+            target = nextSequence - 1;
+            toForce = dirty.toArray(new Segment[dirty.size()]);
+            dirty.clear();
+        }
+
+        boolean forced = false;
+        try {
+            for (Segment segment : toForce) {
+                segment.mapped.force();
+            }
+            forced = true;
+        } finally {
+            if (!forced) {
+                synchronized (this) {
+                    Collections.addAll(dirty, toForce);
+                }
+            }
+            synchronized (syncLock) {
+                syncing = false;
+                if (forced) {
+                    synced = Math.max(synced, target);
+                }
+                syncLock.notifyAll();
+            }
+        }
+    }
+
+    private void recover() throws IOException {
+        List<Long> ids = new ArrayList<Long>();
+        DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX);
+        try {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    ids.add(Long.parseLong(name.substring(0, name.length() - SUFFIX.length()), 16));
+                } catch (NumberFormatException e) {
+                    logger.log(Level.WARNING, "Ignoring unexpected file in the outbox: " + file);
+                }
+            }
+        } finally {
+            files.close();
+        }
+        Collections.sort(ids);
+
+        for (long id : ids) {
+            Segment segment = Segment.open(directory.resolve(name(id)));
+            segments.add(segment);
+            scan(segment);
+            nextSegmentId = id + 1;
+        }
+
+        if (segments.isEmpty()) {
+            segments.add(Segment.create(directory.resolve(name(nextSegmentId++)), segmentSize));
+            syncDirectory();
+        }
+        compact();
+    }
+
+    // Replays a segment's records, stopping at the first incomplete one
+    private void scan(Segment segment) {
+        ByteBuffer buffer = segment.buffer;
+        int offset = 0;
+        while (offset + HEADER <= buffer.capacity()) {
+            int size = buffer.getInt(offset);
+            if (size == 0) {
+                break;
+            }
+            if (size < HEADER || offset + size > buffer.capacity() || !isIntact(segment, offset, size)) {
+                logger.log(Level.WARNING, "Truncating torn record at " + offset + " in " + segment.path);
+                for (int i = offset; i < buffer.capacity(); i++) {
+                    buffer.put(i, (byte) 0);
+                }
+                dirty.add(segment);
+                break;
+            }
+
+            long sequence = buffer.getLong(offset + 8);
+            byte type = buffer.get(offset + 16);
+            if (type == ACK) {
+                for (int i = offset + HEADER; i < offset + size; i += 8) {
+                    Record acked = records.remove(buffer.getLong(i));
+                    if (acked != null) {
+                        acked.segment.release(acked);
+                    }
+                }
+            } else {
+                // A message copied forward by a compaction that did not finish is found twice
+                Record record = new Record(segment, offset, size);
+                segment.retain(record);
+                Record previous = records.put(sequence, record);
+                if (previous != null) {
+                    previous.segment.release(previous);
+                }
+                nextSequence = Math.max(nextSequence, sequence + 1);
+            }
+            offset += size;
+        }
+        segment.position = offset;
+    }
+
+    private boolean isIntact(Segment segment, int offset, int size) {
+        byte[] rest = segment.read(offset + 8, size - 8);
+        crc.reset();
+        crc.update(rest, 0, rest.length);
+        return (int) crc.getValue() == segment.buffer.getInt(offset + 4);
+    }
+
+    // Makes a created or deleted segment file durable; not every platform can
+    private void syncDirectory() {
+        try {
+            FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ);
+            try {
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Could not sync the outbox directory: " + e.getMessage());
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("The outbox has been closed.");
+        }
+    }
+
+    private static String name(long id) {
+        return String.format("%016x", id) + SUFFIX;
+    }
+
+    private static int putLong(byte[] bytes, int offset, long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            bytes[offset++] = (byte) (value >>> shift);
+        }
+        return offset;
+    }
+
+    // A memory-mapped segment file and the share of it still unacknowledged
+    private static final class Segment {
+
+        final Path path;
+        final MappedByteBuffer mapped;
+        // The same mapping, typed so that calls compile against Java 7's ByteBuffer
+        final ByteBuffer buffer;
+        int position;
+        int live;
+        long liveBytes;
+
+        private Segment(Path path, MappedByteBuffer mapped) {
+            this.path = path;
+            this.mapped = mapped;
+            this.buffer = mapped;
+        }
+
+        static Segment create(Path path, int size) throws IOException {
+            return map(path, size);
+        }
+
+        static Segment open(Path path) throws IOException {
+            return map(path, -1);
+        }
+
+        // The mapping stays valid after the file is closed
+        private static Segment map(Path path, int size) throws IOException {
+            RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw");
+            try {
+                if (size >= 0) {
+                    file.setLength(size);
+                }
+                return new Segment(path, file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, file.length()));
+            } finally {
+                file.close();
+            }
+        }
+
+        byte[] read(int offset, int length) {
+            byte[] bytes = new byte[length];
+            ByteBuffer view = buffer.duplicate();
+            ((Buffer) view).position(offset);
+            view.get(bytes);
+            return bytes;
+        }
+
+        void retain(Record record) {
+            live++;
+            liveBytes += record.length;
+        }
+
+        void release(Record record) {
+            live--;
+            liveBytes -= record.length;
+        }
+    }
+
+    private static final class Record {
+
+        final Segment segment;
+        final int offset;
+        final int length;
+
+        Record(Segment segment, int offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    // Serialization buffer whose array is used as is instead of copied
+    private static final class Payload extends ByteArrayOutputStream {
+
+        Payload(int size) {
+            super(Math.max(size, 32));
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+    }
+}
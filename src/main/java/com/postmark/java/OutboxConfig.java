@@ -0,0 +1,87 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+/**
+ * Options for an {@link Outbox}.
+ */
+public class OutboxConfig {
+
+    // Size of each memory-mapped segment file, in bytes.
+    private int segmentSize = 64 * 1024 * 1024;
+
+    // Whether append() waits until the record has been forced to disk.
+    private boolean syncWrites = true;
+
+    // A sealed segment is rewritten once no more than this fraction of it is still unacknowledged.
+    private double compactionRatio = 0.25;
+
+    /**
+     * @return the size of each segment file, in bytes
+     */
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * @param segmentSize The size of each segment file, in bytes. A message larger
+     *                    than this gets a segment of its own.
+     */
+    public void setSegmentSize(int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * @return true if appends wait until the message is on disk
+     */
+    public boolean isSyncWrites() {
+        return syncWrites;
+    }
+
+    /**
+     * @param syncWrites Whether {@link Outbox#append(PostmarkMessage)} waits until the
+     *                   message has been forced to disk. Concurrent appends share one
+     *                   force. Without it, appended messages survive a crash of the JVM
+     *                   but not of the machine.
+     */
+    public void setSyncWrites(boolean syncWrites) {
+        this.syncWrites = syncWrites;
+    }
+
+    /**
+     * @return the fraction of live data below which a sealed segment is compacted
+     */
+    public double getCompactionRatio() {
+        return compactionRatio;
+    }
+
+    /**
+     * @param compactionRatio A sealed segment whose unacknowledged messages take up
+     *                        no more than this fraction of it has them copied to the
+     *                        end of the log and is deleted. Segments with none left
+     *                        are always deleted.
+     */
+    public void setCompactionRatio(double compactionRatio) {
+        this.compactionRatio = compactionRatio;
+    }
+}
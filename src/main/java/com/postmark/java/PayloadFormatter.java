@@ -0,0 +1,212 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.util.List;
+
+/**
+ * Renders messages and API responses for debug logging.
+ * <p>
+ * Long values are truncated to {@link #getMaxLength()} characters, attachment
+ * content is never included, and recipient addresses can be masked so that
+ * logs do not collect personal data. The server token is never part of the
+ * payload and so never logged.
+ * </p>
+ * Formatting only happens when a log record is actually published.
+ */
+public class PayloadFormatter {
+
+    // Longest value written to the log, in characters.
+    private int maxLength = 256;
+
+    // Mask the local part of email addresses; on unless turned off.
+    private boolean redactAddresses = true;
+
+    /**
+     * @return a one-line summary of the message
+     */
+    public String format(PostmarkMessage message) {
+        StringBuilder sb = new StringBuilder(Math.min(4 * maxLength, 1024));
+        sb.append("{From=");
+        address(sb, message.getFromAddress());
+        sb.append(", To=");
+        address(sb, message.getToAddress());
+        if (message.getCcAddress() != null) {
+            sb.append(", Cc=");
+            address(sb, message.getCcAddress());
+        }
+        if (message.getBccAddress() != null) {
+            sb.append(", Bcc=");
+            address(sb, message.getBccAddress());
+        }
+        if (message.getReplyToAddress() != null) {
+            sb.append(", ReplyTo=");
+            address(sb, message.getReplyToAddress());
+        }
+        if (message instanceof TemplatedPostmarkMessage) {
+            TemplatedPostmarkMessage templated = (TemplatedPostmarkMessage) message;
+            sb.append(", Template=");
+            truncate(sb, (templated.getTemplateId() != null) ? templated.getTemplateId().toString() : templated.getTemplateAlias());
+            if (templated.getTemplateModel() != null) {
+                // Models carry personal data; their keys are enough to debug with
+                sb.append(", TemplateModel=");
+                truncate(sb, templated.getTemplateModel().keySet().toString());
+            }
+        } else {
+            sb.append(", Subject=");
+            truncate(sb, message.getSubject());
+        }
+        if (message.getTag() != null) {
+            sb.append(", Tag=");
+            truncate(sb, message.getTag());
+        }
+        if (message.getHtmlBody() != null) {
+            sb.append(", HtmlBody=");
+            truncate(sb, message.getHtmlBody());
+        }
+        if (message.getTextBody() != null) {
+            sb.append(", TextBody=");
+            truncate(sb, message.getTextBody());
+        }
+
+        List<NameValuePair> headers = message.getHeaders();
+        if (headers != null && !headers.isEmpty()) {
+            sb.append(", Headers=").append(headers.size());
+        }
+        List<Attachment> attachments = message.getAttachments();
+        if (attachments != null && !attachments.isEmpty()) {
+            sb.append(", Attachments=[");
+            for (int i = 0; i < attachments.size(); i++) {
+                Attachment attachment = attachments.get(i);
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                if (attachment != null) {
+                    sb.append(attachment.getName()).append(" (").append(attachment.getContentType()).append(')');
+                }
+            }
+            sb.append(']');
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * @return the text, truncated, with any email addresses in it masked if redaction is on
+     */
+    public String format(String text) {
+        if (redactAddresses && text != null && text.indexOf('@') >= 0) {
+            text = redact(text);
+        }
+        StringBuilder sb = new StringBuilder(Math.min(maxLength + 32, (text == null) ? 4 : text.length() + 32));
+        truncate(sb, text);
+        return sb.toString();
+    }
+
+    // Masks the local part of every address in free text, such as a response body
+    private static String redact(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '@') {
+                int start = sb.length();
+                while (start > 0 && isLocalChar(sb.charAt(start - 1))) {
+                    start--;
+                }
+                if (start < sb.length()) {
+                    sb.setLength(start + 1);
+                    sb.append("***");
+                }
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private static boolean isLocalChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '.' || c == '_' || c == '%' || c == '+' || c == '-';
+    }
+
+    private void truncate(StringBuilder sb, String value) {
+        if (value == null) {
+            sb.append("null");
+        } else if (value.length() <= maxLength) {
+            sb.append(value);
+        } else {
+            sb.append(value, 0, maxLength).append("... (").append(value.length()).append(" chars)");
+        }
+    }
+
+    private void address(StringBuilder sb, String addresses) {
+        if (!redactAddresses || addresses == null) {
+            truncate(sb, addresses);
+            return;
+        }
+        // Keep the first character of each local part and the domain: j***@example.com
+        int start = sb.length();
+        boolean local = true;
+        boolean first = true;
+        for (int i = 0; i < addresses.length() && sb.length() - start < maxLength; i++) {
+            char c = addresses.charAt(i);
+            if (c == '@') {
+                local = false;
+                sb.append("***@");
+            } else if (c == ',' || c == '<' || c == ' ') {
+                local = true;
+                first = true;
+                sb.append(c);
+            } else if (!local || first) {
+                sb.append(c);
+                first = false;
+            }
+        }
+    }
+
+    /**
+     * @return the longest value written to the log
+     */
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * @param maxLength The longest value written to the log, in characters
+     */
+    public void setMaxLength(int maxLength) {
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * @return true if email addresses are masked
+     */
+    public boolean isRedactAddresses() {
+        return redactAddresses;
+    }
+
+    /**
+     * @param redactAddresses Mask the local part of email addresses, for example j***@example.com;
+     *                        true by default
+     */
+    public void setRedactAddresses(boolean redactAddresses) {
+        this.redactAddresses = redactAddresses;
+    }
+}
@@ -0,0 +1,50 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+/**
+ * Receives the outcome of an asynchronous send.
+ * <p>
+ * Callbacks run on the thread that completes the send, which is one of the
+ * client's I/O threads. They should return quickly and must not block on
+ * another send made through the same client.
+ * </p>
+ *
+ * @see PostmarkClient#sendMessageAsync(PostmarkMessage, PostmarkCallback)
+ */
+public interface PostmarkCallback {
+
+    /**
+     * Called when Postmark accepted the message.
+     *
+     * @param response details about the transaction
+     */
+    void onSuccess(PostmarkResponse response);
+
+    /**
+     * Called when the message could not be sent or was rejected.
+     *
+     * @param exception the reason, with the API response attached when there is one
+     */
+    void onFailure(PostmarkException exception);
+}
@@ -22,19 +22,41 @@
 
 package com.postmark.java;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import org.apache.http.client.HttpClient;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
 import org.apache.http.client.HttpResponseException;
 import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.BasicResponseHandler;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.DefaultHttpClient;
-import org.joda.time.DateTime;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
 import java.util.List;
-import java.util.logging.ConsoleHandler;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -43,27 +65,67 @@ import java.util.logging.Logger;
  * <p>
  * This library can be used to leverage the postmarkapp.com functionality from a Java client
  * </p>
+ * <p>
+ * A client owns a pool of keep-alive connections to the Postmark API and is safe
+ * to share between threads. Create one per server token, reuse it for every send
+ * and {@link #close()} it when the application shuts down.
+ * </p>
  *
  * @see <a href="http://github.com/jaredholdcroft/postmark-java"></a>
  */
 
 // Class that does the heavy lifting
-public class PostmarkClient {
+public class PostmarkClient implements Closeable {
 
     private static Logger logger = Logger.getLogger("com.postmark.java");
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final String emailUrl;
+    private final String batchUrl;
+    private final String templateUrl;
+    private final String batchTemplatesUrl;
+
     private String serverToken;
 
-    private static GsonBuilder gsonBuilder = new GsonBuilder();
+    private final MessageCodec codec;
+    private final boolean compressRequests;
+    private final long compressionThreshold;
+    private final int batchSize;
+    private final long maxBatchBytes;
+    private final PoolingClientConnectionManager connectionManager;
+    private final DefaultHttpClient httpClient;
+    private final IdleConnectionEvictor connectionEvictor;
 
-    static {
-        gsonBuilder.registerTypeAdapter(DateTime.class, new DateTimeTypeAdapter());
-        gsonBuilder.setPrettyPrinting();
-        gsonBuilder.setExclusionStrategies(new SkipMeExclusionStrategy(Boolean.class));
-        gsonBuilder.disableHtmlEscaping();
+    // Owns the connection pool and async threads when this client shares them
+    private final PostmarkClient parent;
 
-        logger.addHandler(new ConsoleHandler());
-        logger.setLevel(Level.ALL);
-    }
+    private final RateLimiter rateLimiter;
+    private final DeduplicationWindow deduplicationWindow;
+    private final CircuitBreaker circuitBreaker;
+    private final RetryPolicy retryPolicy;
+    private final RetryBudget retryBudget;
+
+    private final int asyncThreads;
+    private final int asyncQueueCapacity;
+    private final OverflowPolicy asyncOverflowPolicy;
+    private volatile ThreadPoolExecutor asyncExecutor;
+    private volatile boolean closed;
+
+    private final PayloadFormatter payloadFormatter;
+    private final MetricsListener metrics;
+
+    private final ResponseParser<PostmarkResponse> responseParser = new ResponseParser<PostmarkResponse>() {
+        public PostmarkResponse parse(Reader body) throws IOException {
+            return codec.readResponse(body);
+        }
+    };
+
+    private final ResponseParser<List<PostmarkResponse>> batchParser = new ResponseParser<List<PostmarkResponse>>() {
+        public List<PostmarkResponse> parse(Reader body) throws IOException {
+            return codec.readResponses(body);
+        }
+    };
 
 
     /**
@@ -76,8 +138,91 @@ public class PostmarkClient {
      */
     public PostmarkClient(String serverToken) {
 
+        this(serverToken, new PostmarkClientConfig());
+
+    }
+
+    /**
+     * Initializes a new instance of the PostmarkClient class.
+     *
+     * @param serverToken the postmark server token
+     * @param config      connection pool and timeout settings
+     */
+    public PostmarkClient(String serverToken, PostmarkClientConfig config) {
+
+        this(serverToken, config, null, config.getRateLimiter(), config.getCircuitBreaker(), config.getMetricsListener());
+
+    }
+
+    /**
+     * Initializes a client that sends through the parent's connection pool and
+     * async threads, with its own token, rate limiter, circuit breaker and metrics.
+     *
+     * @param parent the client owning the shared resources, or null to create them
+     */
+    PostmarkClient(String serverToken, PostmarkClientConfig config, PostmarkClient parent,
+                   RateLimiter rateLimiter, CircuitBreaker circuitBreaker, MetricsListener metrics) {
+
         this.serverToken = serverToken;
+        this.parent = parent;
+        this.emailUrl = config.getApiUrl() + "/email";
+        this.batchUrl = config.getApiUrl() + "/email/batch";
+        this.templateUrl = config.getApiUrl() + "/email/withTemplate";
+        this.batchTemplatesUrl = config.getApiUrl() + "/email/batchWithTemplates";
+        this.codec = config.getCodec();
+        this.compressRequests = config.isCompressRequests();
+        this.compressionThreshold = config.getCompressionThreshold();
+        this.batchSize = Math.min(config.getBatchSize(), PostmarkClientConfig.MAX_BATCH_SIZE);
+        this.maxBatchBytes = config.getMaxBatchBytes();
+        this.asyncThreads = config.getAsyncThreads();
+        this.asyncQueueCapacity = Math.max(1, config.getAsyncQueueCapacity());
+        this.asyncOverflowPolicy = config.getAsyncOverflowPolicy();
+        this.payloadFormatter = config.getPayloadFormatter();
+        this.metrics = metrics;
+
+        this.rateLimiter = rateLimiter;
+        this.deduplicationWindow = config.getDeduplicationWindow();
+        this.circuitBreaker = circuitBreaker;
+        this.retryPolicy = config.getRetryPolicy();
+        this.retryBudget = (retryPolicy == null) ? null
+                : new RetryBudget(retryPolicy.getBudgetRatio(), retryPolicy.getBudgetReserve());
+
+        if (parent != null) {
+            connectionManager = parent.connectionManager;
+            httpClient = parent.httpClient;
+            connectionEvictor = null;
+            return;
+        }
+
+        connectionManager = new PoolingClientConnectionManager();
+        connectionManager.setMaxTotal(config.getMaxConnections());
+        connectionManager.setDefaultMaxPerRoute(config.getMaxConnectionsPerRoute());
+
+        httpClient = new DefaultHttpClient(connectionManager);
+        HttpParams params = httpClient.getParams();
+        HttpConnectionParams.setConnectionTimeout(params, config.getConnectTimeout());
+        HttpConnectionParams.setSoTimeout(params, config.getSocketTimeout());
+        HttpConnectionParams.setTcpNoDelay(params, true);
+        httpClient.setKeepAliveStrategy(keepAliveStrategy(config.getKeepAlive()));
+
+        if (config.getEvictionInterval() > 0) {
+            connectionEvictor = new IdleConnectionEvictor(connectionManager, config.getIdleTimeout(), config.getEvictionInterval());
+            connectionEvictor.start();
+        } else {
+            connectionEvictor = null;
+        }
+
+    }
 
+    // Honour the server's Keep-Alive header, falling back to the configured duration
+    private static ConnectionKeepAliveStrategy keepAliveStrategy(final long defaultKeepAlive) {
+        return new DefaultConnectionKeepAliveStrategy() {
+            @Override
+            public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                long duration = super.getKeepAliveDuration(response, context);
+                return (duration < 0) ? defaultKeepAlive : duration;
+            }
+        };
     }
 
     /**
@@ -156,85 +301,804 @@ public class PostmarkClient {
      * a valid sender signature according to Postmark. To obtain a valid
      * sender signature, log in to Postmark and navigate to:
      * http://postmarkapp.com/signatures.
+     * <p>
+     * Repeated recipients are dropped. A message with more than
+     * {@link PostmarkClientConfig#MAX_RECIPIENTS} recipients is split into
+     * several, sent together as one batch; the response is that of the first part.
+     * </p>
      *
      * @param message A prepared message instance.
      * @throws PostmarkException if unable to send message
      * @return A response object
      */
     public PostmarkResponse sendMessage(PostmarkMessage message) throws PostmarkException {
+        return send(message, true);
+    }
 
-        HttpClient httpClient = new DefaultHttpClient();
-        PostmarkResponse theResponse = new PostmarkResponse();
+    /**
+     * Sends a message through the Postmark API unless the client's rate limit
+     * has been reached, in which case the message is not sent and a
+     * {@link PostmarkException} with status {@link PostmarkStatus#THROTTLED} is
+     * thrown straight away. Use this instead of {@link #sendMessage(PostmarkMessage)}
+     * to shed load rather than wait for the rate limiter.
+     *
+     * @param message A prepared message instance.
+     * @throws PostmarkException if unable to send message, or the rate limit was reached
+     * @return A response object
+     * @see PostmarkClientConfig#setRateLimiter(RateLimiter)
+     */
+    public PostmarkResponse trySendMessage(PostmarkMessage message) throws PostmarkException {
+        return send(message, false);
+    }
 
-        try {
+    private PostmarkResponse send(PostmarkMessage message, boolean waitForPermit) throws PostmarkException {
 
-            // Create post request to Postmark API endpoint
-            HttpPost method = new HttpPost("https://api.postmarkapp.com/email");
+        PostmarkResponse theResponse = null;
+        PostmarkException failure = null;
+        DeduplicationWindow.Claim claim = null;
 
-            // Add standard headers required by Postmark
-            method.addHeader("Accept", "application/json");
-            method.addHeader("Content-Type", "application/json");
-            method.addHeader("X-Postmark-Server-Token", serverToken);
-            method.addHeader("User-Agent", "Postmark-Java");
+        // The clock is only read when someone is listening
+        long started = 0;
+        PostmarkStatus status = PostmarkStatus.UNKNOWN;
+        if (metrics != null) {
+            started = System.nanoTime();
+            metrics.sendStarted();
+        }
+
+        try {
 
-            // Validate and clean the message
+            // Validate and clean the message, leaving the caller's instance untouched
             message.validate();
-            message.clean();
+            message = cleaned(message);
 
-            // Convert the message into JSON content
-            Gson gson = gsonBuilder.create();
-            String messageContents = gson.toJson(message);
-            logger.info("Message contents: " + messageContents);
+            // A message sent again within the window gets the first send's outcome
+            if (deduplicationWindow != null) {
+                claim = deduplicationWindow.claim(message);
+                if (claim != null && !claim.isOwner()) {
+                    theResponse = claim.await();
+                    status = theResponse.status;
+                    return theResponse;
+                }
+            }
 
-            // Add JSON as payload to post request
-            StringEntity payload = new StringEntity(messageContents, "UTF-8");
-            method.setEntity(payload);
+            List<PostmarkMessage> parts = RecipientSplitter.split(message, PostmarkClientConfig.MAX_RECIPIENTS);
+
+            if (metrics != null) {
+                metrics.phaseCompleted(SendPhase.VALIDATE, System.nanoTime() - started);
+            }
 
+            // Too many recipients for one message: the parts go out as one batch
+            if (parts.size() > 1) {
+                theResponse = merge(sendMessages(parts, false, null, waitForPermit, metrics));
+                if (theResponse.status != PostmarkStatus.SUCCESS) {
+                    throw new PostmarkException(theResponse.message, theResponse);
+                }
+                status = PostmarkStatus.SUCCESS;
+                return theResponse;
+            }
+            message = parts.get(0);
 
-            ResponseHandler<String> responseHandler = new BasicResponseHandler();
+            if (payloadFormatter != null && logger.isLoggable(Level.FINE)) {
+                logger.log(Level.FINE, "Message contents: {0}", new LoggedPayload(payloadFormatter, message));
+            }
 
-            try {
-                String response = httpClient.execute(method, responseHandler);
-                logger.info("Message response: " + response);
-                theResponse = gsonBuilder.create().fromJson(response, PostmarkResponse.class);
-                theResponse.status = PostmarkStatus.SUCCESS;
-            } catch (HttpResponseException hre) {
-                switch(hre.getStatusCode()) {
-                    case 401:
-                    case 422:
-                        logger.log(Level.SEVERE, "There was a problem with the email: " + hre.getMessage());
-                        theResponse.setMessage(hre.getMessage());
-                        theResponse.status = PostmarkStatus.USERERROR;
-                        throw new PostmarkException(hre.getMessage(), theResponse);
-                    case 500:
-                        logger.log(Level.SEVERE, "There has been an error sending your email: " + hre.getMessage());
-                        theResponse.setMessage(hre.getMessage());
-                        theResponse.status = PostmarkStatus.SERVERERROR;
-                        throw new PostmarkException(hre.getMessage(), theResponse);
-                    default:
-                        logger.log(Level.SEVERE, "There has been an unknown error sending your email: " + hre.getMessage());
-                        theResponse.status = PostmarkStatus.UNKNOWN;
-                        theResponse.setMessage(hre.getMessage());
-                        throw new PostmarkException(hre.getMessage(), theResponse);
+            // The message is converted into JSON as the request is written
+            HttpEntity payload = compress(new MessageEntity(codec, message), MessageEntity.estimateSize(message));
 
-                }
+            String url = (message instanceof TemplatedPostmarkMessage) ? templateUrl : emailUrl;
+            theResponse = execute(url, payload, waitForPermit, metrics, responseParser);
+            if (theResponse == null) {
+                throw new PostmarkException("The response has no body.");
             }
+            theResponse.status = PostmarkStatus.SUCCESS;
+            status = PostmarkStatus.SUCCESS;
 
         } catch (PostmarkException e) {
+            if (e.getResponse() != null && e.getResponse().status != null) {
+                status = e.getResponse().status;
+            }
             //Log it and rethrow it, don't wrap it
             logger.log(Level.SEVERE, "There has been an error sending your email: " + e.getMessage());
+            failure = e;
             throw e;
         } catch (Exception e) {
             logger.log(Level.SEVERE, "There has been an error sending your email: " + e.getMessage());
-            throw new PostmarkException(e);
+            failure = new PostmarkException(e);
+            throw failure;
+        } finally {
+            if (claim != null && claim.isOwner()) {
+                if (status == PostmarkStatus.SUCCESS) {
+                    claim.complete(theResponse);
+                } else {
+                    claim.fail((failure != null) ? failure : new PostmarkException("The send did not complete."));
+                }
+            }
+            if (metrics != null) {
+                metrics.sendCompleted(status, System.nanoTime() - started);
+            }
+        }
+
+        return theResponse;
+    }
+
+    /**
+     * Sends a message through the Postmark API without blocking the caller.
+     * The message is validated and sent on one of the client's I/O threads.
+     * <p>
+     * At most {@link PostmarkClientConfig#getAsyncQueueCapacity()} sends wait for a
+     * thread; beyond that the caller waits or the future fails at once, depending on
+     * {@link PostmarkClientConfig#getAsyncOverflowPolicy()}.
+     * </p>
+     *
+     * @param message A prepared message instance.
+     * @return a future holding the response, or failing with a {@link PostmarkException}
+     */
+    public PostmarkFuture sendMessageAsync(final PostmarkMessage message) {
+
+        PostmarkFuture future = new PostmarkFuture();
+        AsyncSend send = new AsyncSend(message, future);
+
+        ThreadPoolExecutor executor = null;
+        try {
+            executor = asyncExecutor();
+            executor.execute(send);
+        } catch (RejectedExecutionException e) {
+            if (executor == null || executor.isShutdown()) {
+                future.fail(new PostmarkException("The client has been closed."));
+            } else if (asyncOverflowPolicy == OverflowPolicy.BLOCK) {
+                waitForRoom(executor, send);
+            } else {
+                future.fail(new PostmarkException("The async send queue is full; the message was dropped."));
+            }
+        }
+
+        return future;
+    }
+
+    // Threads are all started once the queue is full, so putting straight into it is safe
+    private void waitForRoom(ThreadPoolExecutor executor, AsyncSend send) {
+        try {
+            executor.getQueue().put(send);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            send.future.fail(new PostmarkException(e));
+            return;
+        }
+        // A close that raced with the put has already drained the queue
+        if (executor.isShutdown() && executor.remove(send)) {
+            send.future.fail(new PostmarkException("The client has been closed."));
+        }
+    }
+
+    /**
+     * Sends a message through the Postmark API without blocking the caller.
+     *
+     * @param message  A prepared message instance.
+     * @param callback Notified with the response or the failure once the send completes
+     * @return a future holding the response, or failing with a {@link PostmarkException}
+     */
+    public PostmarkFuture sendMessageAsync(PostmarkMessage message, PostmarkCallback callback) {
+        PostmarkFuture future = sendMessageAsync(message);
+        future.addCallback(callback);
+        return future;
+    }
+
+    private class AsyncSend implements Runnable {
+
+        private final PostmarkMessage message;
+        private final PostmarkFuture future;
+
+        AsyncSend(PostmarkMessage message, PostmarkFuture future) {
+            this.message = message;
+            this.future = future;
+        }
+
+        PostmarkClient owner() {
+            return PostmarkClient.this;
+        }
+
+        public void run() {
+            // Skip sends that were cancelled while queued
+            if (future.isDone()) {
+                return;
+            }
+            try {
+                future.complete(sendMessage(message));
+            } catch (PostmarkException e) {
+                future.fail(e);
+            } catch (RuntimeException e) {
+                future.fail(new PostmarkException(e));
+            }
+        }
+    }
+
+    // The async executor is only started by the first asynchronous send
+    private ThreadPoolExecutor asyncExecutor() {
+        if (parent != null) {
+            if (closed) {
+                throw new RejectedExecutionException();
+            }
+            return parent.asyncExecutor();
+        }
+        ThreadPoolExecutor executor = asyncExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = asyncExecutor;
+                if (executor == null) {
+                    if (closed) {
+                        throw new RejectedExecutionException();
+                    }
+                    executor = new ThreadPoolExecutor(asyncThreads, asyncThreads, 60, TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<Runnable>(asyncQueueCapacity), daemonThreads("postmark-async-"));
+                    asyncExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    static ThreadFactory daemonThreads(final String prefix) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Sends several messages through the Postmark batch API.
+     * <p>
+     * Messages are grouped into as few requests as the batch limits allow: at most
+     * {@link PostmarkClientConfig#getBatchSize()} messages and
+     * {@link PostmarkClientConfig#getMaxBatchBytes()} bytes of JSON per request.
+     * </p>
+     * <p>
+     * Failures are reported per message rather than thrown, so one bad address does
+     * not fail the rest. The returned list has one response per message, in the same
+     * order as the input. A message was accepted when its response has status
+     * {@link PostmarkStatus#SUCCESS}; otherwise its ErrorCode and Message say why.
+     * Messages that fail local validation are not sent.
+     * </p>
+     * <p>
+     * {@link TemplatedPostmarkMessage}s go to the batch-with-templates API; a list
+     * mixing them with plain messages is sent as two sets of batches.
+     * </p>
+     * <p>
+     * Repeated recipients are dropped, and a message with more than
+     * {@link PostmarkClientConfig#MAX_RECIPIENTS} recipients is sent as several
+     * batch entries; its response is that of the first entry to fail, or of the
+     * first entry if all were accepted.
+     * </p>
+     *
+     * @param messages The prepared messages to send
+     * @return one response per message, in input order
+     */
+    public List<PostmarkResponse> sendMessages(List<? extends PostmarkMessage> messages) {
+        return sendMessages(messages, true, null, true, null);
+    }
+
+    /**
+     * Sends messages like {@link #sendMessages(List)}, refilling response objects
+     * the caller has finished with instead of allocating new ones. This saves
+     * garbage when large batches are sent in a loop.
+     * <p>
+     * The recycled responses are overwritten and must no longer be used. They are
+     * not recycled when the client has a {@link DeduplicationWindow}, since a
+     * response may then be shared by several sends.
+     * </p>
+     *
+     * @param messages The prepared messages to send
+     * @param recycled Responses from an earlier call, such as the list it returned
+     * @return one response per message, in input order
+     */
+    public List<PostmarkResponse> sendMessages(List<? extends PostmarkMessage> messages, Collection<PostmarkResponse> recycled) {
+        Deque<PostmarkResponse> pool = null;
+        if (recycled != null && deduplicationWindow == null) {
+            pool = new ArrayDeque<PostmarkResponse>(recycled.size());
+            for (PostmarkResponse response : recycled) {
+                if (response != null) {
+                    pool.add(response);
+                }
+            }
+        }
+        return sendMessages(messages, true, pool, true, null);
+    }
+
+    // Parts of a split message share the original's key, so they skip deduplication;
+    // they are also sent in the caller's permit mode and timed by its listener
+    private List<PostmarkResponse> sendMessages(List<? extends PostmarkMessage> messages, boolean deduplicate,
+                                                Deque<PostmarkResponse> recycled, boolean waitForPermit,
+                                                MetricsListener listener) {
+
+        PostmarkResponse[] responses = new PostmarkResponse[messages.size()];
+        DeduplicationWindow.Claim[] claims = (deduplicate && deduplicationWindow != null)
+                ? new DeduplicationWindow.Claim[messages.size()]
+                : null;
+
+        // Measure every valid message; the sizes drive the batch split
+        BatchPlan plain = new BatchPlan(messages.size());
+        BatchPlan templated = new BatchPlan(0);
+
+        for (int i = 0; i < messages.size(); i++) {
+            PostmarkMessage message = messages.get(i);
+            try {
+                message.validate();
+                message = cleaned(message);
+
+                // Duplicates are answered once the messages they repeat have been sent
+                if (claims != null) {
+                    claims[i] = deduplicationWindow.claim(message);
+                    if (claims[i] != null && !claims[i].isOwner()) {
+                        continue;
+                    }
+                }
+
+                // A message with too many recipients becomes several entries sharing one response
+                boolean isTemplated = message instanceof TemplatedPostmarkMessage;
+                long overhead = isTemplated ? BatchEntity.TEMPLATES_OVERHEAD : 2;
+                List<PostmarkMessage> entries = RecipientSplitter.split(message, PostmarkClientConfig.MAX_RECIPIENTS);
+                BatchEntity.Part[] parts = new BatchEntity.Part[entries.size()];
+                for (int j = 0; j < parts.length; j++) {
+                    parts[j] = new BatchEntity.Part(codec, entries.get(j));
+                    if (parts[j].size + overhead > maxBatchBytes) {
+                        throw new PostmarkException("The message is larger than the maximum batch size of " + maxBatchBytes + " bytes.");
+                    }
+                }
+                for (BatchEntity.Part part : parts) {
+                    (isTemplated ? templated : plain).add(part, i);
+                }
+            } catch (PostmarkException e) {
+                responses[i] = errorResponse(PostmarkStatus.USERERROR, e.getMessage());
+            } catch (Exception e) {
+                responses[i] = errorResponse(PostmarkStatus.UNKNOWN, e.getMessage());
+            }
+        }
+
+        try {
+            sendBatches(plain, false, responses, recycled, waitForPermit, listener);
+            sendBatches(templated, true, responses, recycled, waitForPermit, listener);
+        } finally {
+            if (claims != null) {
+                settle(claims, responses);
+            }
+        }
+
+        return Arrays.asList(responses);
+    }
+
+    // Measured messages headed for one batch endpoint, with their positions in the input
+    private static final class BatchPlan {
+
+        final List<BatchEntity.Part> parts;
+        int[] indexes;
+
+        BatchPlan(int capacity) {
+            parts = new ArrayList<BatchEntity.Part>(capacity);
+            indexes = new int[capacity];
+        }
+
+        void add(BatchEntity.Part part, int index) {
+            if (parts.size() == indexes.length) {
+                indexes = Arrays.copyOf(indexes, Math.max(16, indexes.length * 2));
+            }
+            indexes[parts.size()] = index;
+            parts.add(part);
+        }
+    }
+
+    private void sendBatches(BatchPlan plan, boolean templates, PostmarkResponse[] responses, Deque<PostmarkResponse> recycled,
+                             boolean waitForPermit, MetricsListener listener) {
+        if (plan.parts.isEmpty()) {
+            return;
+        }
+
+        long[] sizes = new long[plan.parts.size()];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = plan.parts.get(i).size;
+        }
+
+        // The planner allows for the array's brackets; the templates envelope is longer
+        long maxBytes = templates ? maxBatchBytes - BatchEntity.TEMPLATES_OVERHEAD + 2 : maxBatchBytes;
+        for (int[] batch : BatchPlanner.plan(sizes, batchSize, maxBytes)) {
+            sendBatch(plan.parts, plan.indexes, batch[0], batch[1], templates, responses, recycled, waitForPermit, listener);
+        }
+    }
+
+    // Posts parts[from, to) as one batch and stores a response for each entry
+    private void sendBatch(List<BatchEntity.Part> parts, int[] indexes, int from, int to, boolean templates,
+                           PostmarkResponse[] responses, Deque<PostmarkResponse> recycled, boolean waitForPermit,
+                           MetricsListener listener) {
+
+        try {
+
+            if (logger.isLoggable(Level.FINE)) {
+                logger.log(Level.FINE, "Sending a batch of {0} messages", to - from);
+            }
+
+            long batchBytes = templates ? BatchEntity.TEMPLATES_OVERHEAD : 2;
+            for (int i = from; i < to; i++) {
+                batchBytes += parts.get(i).size + 1;
+            }
+            HttpEntity payload = compress(new BatchEntity(codec, parts.subList(from, to), templates), batchBytes);
+
+            List<PostmarkResponse> batchResponses = execute(templates ? batchTemplatesUrl : batchUrl, payload, waitForPermit, listener,
+                    batchParser(recycled));
+
+            if (batchResponses == null || batchResponses.size() != to - from) {
+                throw new PostmarkException("Expected " + (to - from) + " responses to the batch but received "
+                        + (batchResponses == null ? 0 : batchResponses.size()));
+            }
+
+            for (int i = from; i < to; i++) {
+                PostmarkResponse theResponse = batchResponses.get(i - from);
+                theResponse.status = (theResponse.errorCode == 0) ? PostmarkStatus.SUCCESS : PostmarkStatus.USERERROR;
+                responses[indexes[i]] = merge(responses[indexes[i]], theResponse);
+            }
+
+        } catch (PostmarkException e) {
+            logger.log(Level.SEVERE, "There has been an error sending your batch: " + e.getMessage());
+            PostmarkResponse failure = e.getResponse();
+            for (int i = from; i < to; i++) {
+                responses[indexes[i]] = merge(responses[indexes[i]], (failure == null)
+                        ? errorResponse(PostmarkStatus.UNKNOWN, e.getMessage())
+                        : errorResponse(failure.status, failure.message));
+            }
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "There has been an error sending your batch: " + e.getMessage());
+            for (int i = from; i < to; i++) {
+                responses[indexes[i]] = merge(responses[indexes[i]], errorResponse(PostmarkStatus.UNKNOWN, e.getMessage()));
+            }
+        }
+    }
+
+    // The message as clean() would leave it, without changing the caller's instance so
+    // that one message can be sent from several threads. Clean messages are returned
+    // as they are, others are copied; subclasses we can not copy are cleaned in place.
+    static PostmarkMessage cleaned(PostmarkMessage message) {
+        if (message.isClean()) {
+            return message;
         }
-        finally {
+        PostmarkMessage copy = copyOf(message);
+        if (copy == null) {
+            copy = message;
+        }
+        copy.clean();
+        return copy;
+    }
+
+    // A copy of the message, or null for subclasses we do not know how to copy
+    static PostmarkMessage copyOf(PostmarkMessage message) {
+        if (message.getClass() == PostmarkMessage.class) {
+            return new PostmarkMessage(message);
+        } else if (message.getClass() == TemplatedPostmarkMessage.class) {
+            return new TemplatedPostmarkMessage((TemplatedPostmarkMessage) message);
+        }
+        return null;
+    }
+
+    // Completes the claims this batch owns, then answers its duplicates; in that order,
+    // so that a duplicate of a message in the same batch does not wait on itself
+    private static void settle(DeduplicationWindow.Claim[] claims, PostmarkResponse[] responses) {
+        for (int i = 0; i < claims.length; i++) {
+            if (claims[i] != null && claims[i].isOwner()) {
+                if (responses[i] != null) {
+                    claims[i].complete(responses[i]);
+                } else {
+                    claims[i].fail(new PostmarkException("The send did not complete."));
+                }
+            }
+        }
+        for (int i = 0; i < claims.length; i++) {
+            if (claims[i] != null && !claims[i].isOwner()) {
+                responses[i] = claims[i].awaitResponse();
+            }
+        }
+    }
+
+    // One response for a message sent as several parts: the first failure, if any
+    static PostmarkResponse merge(PostmarkResponse first, PostmarkResponse next) {
+        if (first == null || (first.status == PostmarkStatus.SUCCESS && next.status != PostmarkStatus.SUCCESS)) {
+            return next;
+        }
+        return first;
+    }
+
+    private static PostmarkResponse merge(List<PostmarkResponse> responses) {
+        PostmarkResponse merged = null;
+        for (PostmarkResponse response : responses) {
+            merged = merge(merged, response);
+        }
+        return merged;
+    }
 
-            httpClient.getConnectionManager().shutdown();
+    // Wraps the payload in a gzip encoder when compression is on and worthwhile
+    private HttpEntity compress(HttpEntity payload, long size) {
+        if (compressRequests && size >= compressionThreshold) {
+            return new GzipEntity(payload);
         }
+        return payload;
+    }
+
+    // Reads a successful response body; it is parsed straight off the connection
+    private interface ResponseParser<T> {
+        T parse(Reader body) throws IOException;
+    }
+
+    private ResponseParser<List<PostmarkResponse>> batchParser(final Deque<PostmarkResponse> recycled) {
+        if (recycled == null || !(codec instanceof StreamingMessageCodec)) {
+            return batchParser;
+        }
+        return new ResponseParser<List<PostmarkResponse>>() {
+            public List<PostmarkResponse> parse(Reader body) throws IOException {
+                return ((StreamingMessageCodec) codec).readResponses(body, recycled);
+            }
+        };
+    }
+
+    // Posts a JSON payload to the API, retrying transient failures, and returns the parsed response
+    private <T> T execute(String url, HttpEntity payload, boolean waitForPermit, MetricsListener listener,
+                          ResponseParser<T> parser) throws IOException, PostmarkException {
+
+        if (retryBudget != null) {
+            retryBudget.deposit();
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            // Retries always wait; giving up on one now would lose the message
+            acquirePermit(waitForPermit || attempt > 1);
 
+            long permit = circuitBreaker != null ? circuitBreaker.acquirePermit() : CircuitBreaker.REJECTED;
+            if (circuitBreaker != null && permit == CircuitBreaker.REJECTED) {
+                String message = "Requests to Postmark are suspended after repeated failures.";
+                throw new PostmarkException(message, errorResponse(PostmarkStatus.CIRCUITOPEN, message));
+            }
+
+            try {
+                T response = executeOnce(url, payload, listener, parser);
+                if (circuitBreaker != null) {
+                    circuitBreaker.recordSuccess(permit);
+                }
+                return response;
+            } catch (HttpResponseException hre) {
+                if (circuitBreaker != null) {
+                    // Rejected requests prove the API is up; only server-side trouble counts
+                    if (hre.getStatusCode() >= 500 || hre.getStatusCode() == 429) {
+                        circuitBreaker.recordFailure(permit);
+                    } else {
+                        circuitBreaker.recordSuccess(permit);
+                    }
+                }
+                if (!payload.isRepeatable() || !retry(attempt, hre)) {
+                    throw toPostmarkException(hre);
+                }
+            } catch (UnreadableResponseException e) {
+                // Postmark answered and may have accepted the message, so it is up and the request is not repeated
+                if (circuitBreaker != null) {
+                    circuitBreaker.recordSuccess(permit);
+                }
+                String message = "Postmark answered the request, but its response could not be read: " + e.getMessage();
+                logger.log(Level.SEVERE, message, e);
+                throw new PostmarkException(message, errorResponse(PostmarkStatus.UNKNOWN, message));
+            } catch (IOException e) {
+                if (circuitBreaker != null) {
+                    circuitBreaker.recordFailure(permit);
+                }
+                if (!payload.isRepeatable() || !retry(attempt, e)) {
+                    throw e;
+                }
+            } catch (RuntimeException e) {
+                if (circuitBreaker != null) {
+                    circuitBreaker.recordAbandoned(permit);
+                }
+                throw e;
+            }
+        }
+    }
+
+    private void acquirePermit(boolean wait) throws InterruptedIOException, PostmarkException {
+        if (rateLimiter == null) {
+            return;
+        }
+        if (!wait) {
+            if (!rateLimiter.tryAcquire()) {
+                String message = "The client rate limit has been reached.";
+                throw new PostmarkException(message, errorResponse(PostmarkStatus.THROTTLED, message));
+            }
+            return;
+        }
+        try {
+            rateLimiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the rate limiter");
+        }
+    }
+
+    // Decides whether to make another attempt and waits out the backoff if so
+    private boolean retry(int attempt, IOException e) throws InterruptedIOException {
+        if (retryPolicy == null || attempt >= retryPolicy.getMaxAttempts() || !retryPolicy.isRetryable(e)) {
+            return false;
+        }
+        if (!retryBudget.tryWithdraw()) {
+            logger.log(Level.WARNING, "Retry budget exhausted, not retrying: " + e.getMessage());
+            return false;
+        }
+
+        long delay = retryPolicy.backoff(attempt);
+        logger.log(Level.WARNING, "Attempt " + attempt + " failed, retrying in " + delay + "ms: " + e.getMessage());
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException interrupted = new InterruptedIOException("Interrupted while waiting to retry");
+            interrupted.initCause(e);
+            throw interrupted;
+        }
+        return true;
+    }
+
+    private <T> T executeOnce(String url, HttpEntity payload, MetricsListener listener, ResponseParser<T> parser) throws IOException {
+
+        // Create post request to Postmark API endpoint
+        HttpPost method = new HttpPost(url);
+
+        // Add standard headers required by Postmark
+        method.addHeader("Accept", "application/json");
+        method.addHeader("Content-Type", "application/json");
+        method.addHeader("X-Postmark-Server-Token", serverToken);
+        method.addHeader("User-Agent", "Postmark-Java");
+
+        TimedEntity timed = (listener != null) ? new TimedEntity(payload) : null;
+        method.setEntity((timed != null) ? timed : payload);
+
+        ParsingHandler<T> responseHandler = new ParsingHandler<T>(parser, timed != null);
+
+        long started = (timed != null) ? System.nanoTime() : 0;
+        T response = httpClient.execute(method, responseHandler);
+        if (timed != null && timed.writeFinished != 0) {
+            listener.phaseCompleted(SendPhase.CONNECT, timed.writeStarted - started);
+            listener.phaseCompleted(SendPhase.SERIALIZE, timed.writeFinished - timed.writeStarted);
+            listener.phaseCompleted(SendPhase.RESPONSE, responseHandler.received - timed.writeFinished);
+            listener.phaseCompleted(SendPhase.PARSE, responseHandler.parsed - responseHandler.received);
+        }
+        return response;
+    }
+
+    // Fails like BasicResponseHandler on error statuses, but parses successful bodies from
+    // the stream instead of reading them into a String first
+    private class ParsingHandler<T> implements ResponseHandler<T> {
+
+        private final ResponseParser<T> parser;
+        private final boolean timed;
+        long received;
+        long parsed;
+
+        ParsingHandler(ResponseParser<T> parser, boolean timed) {
+            this.parser = parser;
+            this.timed = timed;
+        }
+
+        public T handleResponse(HttpResponse response) throws IOException {
+            if (timed) {
+                received = System.nanoTime();
+            }
+            StatusLine statusLine = response.getStatusLine();
+            HttpEntity entity = response.getEntity();
+            if (statusLine.getStatusCode() >= 300) {
+                EntityUtils.consume(entity);
+                throw new HttpResponseException(statusLine.getStatusCode(), statusLine.getReasonPhrase());
+            }
+            if (entity == null) {
+                throw new UnreadableResponseException("The response has no body.", null);
+            }
+
+            T result;
+            try {
+                result = parse(entity);
+            } catch (IOException e) {
+                throw new UnreadableResponseException(e.getMessage(), e);
+            } catch (RuntimeException e) {
+                throw new UnreadableResponseException(e.getMessage(), e);
+            }
+            if (timed) {
+                parsed = System.nanoTime();
+            }
+            return result;
+        }
+
+        private T parse(HttpEntity entity) throws IOException {
+            // JSON is UTF-8 unless the server says otherwise
+            Charset charset = ContentType.getOrDefault(entity).getCharset();
+            if (charset == null) {
+                charset = UTF8;
+            }
+
+            if (payloadFormatter != null && logger.isLoggable(Level.FINE)) {
+                String body = EntityUtils.toString(entity, charset);
+                logger.log(Level.FINE, "Message response: {0}", new LoggedPayload(payloadFormatter, body));
+                return parser.parse(new StringReader(body));
+            }
+            // Closing the stream reads what is left, so the connection can be reused
+            Reader reader = new InputStreamReader(entity.getContent(), charset);
+            try {
+                return parser.parse(reader);
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    // A successful status whose body could not be read; the request must not be repeated
+    private static final class UnreadableResponseException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        UnreadableResponseException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    private static PostmarkException toPostmarkException(HttpResponseException hre) {
+        switch(hre.getStatusCode()) {
+            case 401:
+            case 422:
+                logger.log(Level.SEVERE, "There was a problem with the email: " + hre.getMessage());
+                return new PostmarkException(hre.getMessage(), errorResponse(PostmarkStatus.USERERROR, hre.getMessage()));
+            case 429:
+                logger.log(Level.SEVERE, "Postmark is throttling requests: " + hre.getMessage());
+                return new PostmarkException(hre.getMessage(), errorResponse(PostmarkStatus.THROTTLED, hre.getMessage()));
+            case 500:
+                logger.log(Level.SEVERE, "There has been an error sending your email: " + hre.getMessage());
+                return new PostmarkException(hre.getMessage(), errorResponse(PostmarkStatus.SERVERERROR, hre.getMessage()));
+            default:
+                logger.log(Level.SEVERE, "There has been an unknown error sending your email: " + hre.getMessage());
+                return new PostmarkException(hre.getMessage(), errorResponse(PostmarkStatus.UNKNOWN, hre.getMessage()));
+
+        }
+    }
+
+    static PostmarkResponse errorResponse(PostmarkStatus status, String message) {
+        PostmarkResponse theResponse = new PostmarkResponse();
+        theResponse.status = status;
+        theResponse.setMessage(message);
         return theResponse;
     }
 
+    /**
+     * Releases the pooled connections held by this client.
+     * The client can not be used to send messages once it has been closed.
+     * Asynchronous sends that have not started yet are abandoned.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            if (asyncExecutor != null) {
+                for (Runnable pending : asyncExecutor.shutdownNow()) {
+                    ((AsyncSend) pending).future.fail(new PostmarkException("The client has been closed."));
+                }
+            } else if (parent != null && parent.asyncExecutor != null) {
+                // The shared threads keep running; only this client's waiting sends are abandoned
+                ThreadPoolExecutor shared = parent.asyncExecutor;
+                for (Runnable pending : shared.getQueue().toArray(new Runnable[0])) {
+                    AsyncSend send = (AsyncSend) pending;
+                    if (send.owner() == this && shared.remove(send)) {
+                        send.future.fail(new PostmarkException("The client has been closed."));
+                    }
+                }
+            }
+        }
+        if (connectionEvictor != null) {
+            connectionEvictor.shutdown();
+        }
+        // Shared connections are released when their owner is closed
+        if (parent == null) {
+            connectionManager.shutdown();
+        }
+    }
+
 
 }
@@ -0,0 +1,438 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+/**
+ * Tuning options for a {@link PostmarkClient}.
+ * <p>
+ * The defaults are suitable for a single client shared by many sender threads.
+ * A config is read once when the client is created; changing it afterwards has
+ * no effect on existing clients.
+ * </p>
+ */
+public class PostmarkClientConfig {
+
+    /**
+     * The most messages the Postmark batch API accepts in one request.
+     */
+    public static final int MAX_BATCH_SIZE = 500;
+
+    /**
+     * The most recipients, across To, Cc and Bcc, the Postmark API accepts for
+     * one message. The client splits messages with more into several.
+     */
+    public static final int MAX_RECIPIENTS = 50;
+
+    // Root of the Postmark API, without a trailing slash.
+    private String apiUrl = "https://api.postmarkapp.com";
+
+    // Maximum number of pooled connections across all routes.
+    private int maxConnections = 200;
+
+    // Maximum number of pooled connections to a single host.
+    private int maxConnectionsPerRoute = 200;
+
+    // Time allowed to establish a TCP/TLS connection, in milliseconds.
+    private int connectTimeout = 10000;
+
+    // Time allowed between two packets of the response, in milliseconds.
+    private int socketTimeout = 30000;
+
+    // How long an idle connection is kept alive when the server does not say, in milliseconds.
+    private long keepAlive = 30000;
+
+    // Connections idle for longer than this are evicted from the pool, in milliseconds.
+    private long idleTimeout = 60000;
+
+    // How often the pool is scanned for expired and idle connections, in milliseconds.
+    private long evictionInterval = 5000;
+
+    // Maximum number of messages per batch request.
+    private int batchSize = MAX_BATCH_SIZE;
+
+    // Maximum JSON payload of a batch request, in bytes.
+    private long maxBatchBytes = 50L * 1024 * 1024;
+
+    // Number of threads that run asynchronous sends.
+    private int asyncThreads = 20;
+
+    // Most asynchronous sends waiting for a thread.
+    private int asyncQueueCapacity = 10000;
+
+    // What an asynchronous send does when the async queue is full.
+    private OverflowPolicy asyncOverflowPolicy = OverflowPolicy.BLOCK;
+
+    // Which failed requests are retried, null to never retry.
+    private RetryPolicy retryPolicy;
+
+    // Limits the request rate, null for no limit.
+    private RateLimiter rateLimiter;
+
+    // Short-circuits repeated sends of the same message; null sends every message.
+    private DeduplicationWindow deduplicationWindow;
+
+    // Fails requests fast while Postmark is down, null to always try.
+    private CircuitBreaker circuitBreaker;
+
+    // Gzip-compress request bodies.
+    private boolean compressRequests;
+
+    // Request bodies smaller than this are sent uncompressed, in bytes.
+    private long compressionThreshold = 16 * 1024;
+
+    // Converts messages to and from JSON.
+    private MessageCodec codec = new StreamingMessageCodec();
+
+    // Renders messages and responses for FINE logging with addresses masked, null to never log them.
+    private PayloadFormatter payloadFormatter = new PayloadFormatter();
+
+    // Receives send timings and outcomes, null to collect none.
+    private MetricsListener metricsListener;
+
+    /**
+     * @return the maximum number of pooled connections
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * @param maxConnections The maximum number of pooled connections
+     */
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * @return the maximum number of pooled connections per host
+     */
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    /**
+     * @param maxConnectionsPerRoute The maximum number of pooled connections per host
+     */
+    public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    }
+
+    /**
+     * @return the connect timeout in milliseconds
+     */
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * @param connectTimeout The connect timeout in milliseconds, 0 for none
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * @return the socket read timeout in milliseconds
+     */
+    public int getSocketTimeout() {
+        return socketTimeout;
+    }
+
+    /**
+     * @param socketTimeout The socket read timeout in milliseconds, 0 for none
+     */
+    public void setSocketTimeout(int socketTimeout) {
+        this.socketTimeout = socketTimeout;
+    }
+
+    /**
+     * @return the default keep-alive duration in milliseconds
+     */
+    public long getKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * @param keepAlive How long to keep an idle connection open when the server
+     *                  does not send a Keep-Alive header, in milliseconds
+     */
+    public void setKeepAlive(long keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * @return the idle timeout in milliseconds
+     */
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * @param idleTimeout Pooled connections idle for longer than this are closed, in milliseconds
+     */
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * @return the idle connection eviction interval in milliseconds
+     */
+    public long getEvictionInterval() {
+        return evictionInterval;
+    }
+
+    /**
+     * @param evictionInterval How often to scan the pool for expired and idle connections,
+     *                         in milliseconds, 0 to disable the background scan
+     */
+    public void setEvictionInterval(long evictionInterval) {
+        this.evictionInterval = evictionInterval;
+    }
+
+    /**
+     * @return the codec used to write messages and read responses
+     */
+    public MessageCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * @param codec The codec used to write messages and read responses
+     */
+    public void setCodec(MessageCodec codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * @return the maximum number of messages per batch request
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param batchSize The maximum number of messages per batch request,
+     *                  capped at {@link #MAX_BATCH_SIZE}
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return the maximum payload of a batch request in bytes
+     */
+    public long getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    /**
+     * @param maxBatchBytes The maximum JSON payload of a batch request, in bytes
+     */
+    public void setMaxBatchBytes(long maxBatchBytes) {
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    /**
+     * @return the number of threads running asynchronous sends
+     */
+    public int getAsyncThreads() {
+        return asyncThreads;
+    }
+
+    /**
+     * @param asyncThreads The number of threads running asynchronous sends, which is
+     *                     also the most asynchronous sends in flight at once
+     */
+    public void setAsyncThreads(int asyncThreads) {
+        this.asyncThreads = asyncThreads;
+    }
+
+    /**
+     * @return the most asynchronous sends waiting for a thread
+     */
+    public int getAsyncQueueCapacity() {
+        return asyncQueueCapacity;
+    }
+
+    /**
+     * @param asyncQueueCapacity The most asynchronous sends waiting for a thread; once
+     *                           reached, {@link #getAsyncOverflowPolicy()} applies
+     */
+    public void setAsyncQueueCapacity(int asyncQueueCapacity) {
+        this.asyncQueueCapacity = asyncQueueCapacity;
+    }
+
+    /**
+     * @return what an asynchronous send does when the async queue is full
+     */
+    public OverflowPolicy getAsyncOverflowPolicy() {
+        return asyncOverflowPolicy;
+    }
+
+    /**
+     * @param asyncOverflowPolicy {@link OverflowPolicy#BLOCK} makes the caller wait for
+     *                            room in the queue; with {@link OverflowPolicy#DROP} or
+     *                            {@link OverflowPolicy#FAIL} the returned future fails at once
+     */
+    public void setAsyncOverflowPolicy(OverflowPolicy asyncOverflowPolicy) {
+        this.asyncOverflowPolicy = asyncOverflowPolicy;
+    }
+
+    /**
+     * @return the retry policy, or null if failed requests are not retried
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * @param retryPolicy Which failed requests are retried and how, or null to never retry.
+     *                    Enable retries with care: a request that timed out may still have
+     *                    been delivered, and retrying it sends the email twice.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * @return the request rate limiter, or null if requests are not limited
+     */
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * @param rateLimiter Limits how fast requests are sent, or null for no limit.
+     *                    Clients that use the same server token should share a limiter.
+     */
+    public void setRateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * @return the circuit breaker, or null if requests are always attempted
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * @param circuitBreaker Fails requests fast with {@link PostmarkStatus#CIRCUITOPEN}
+     *                       while Postmark appears to be down, or null to always try
+     */
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * @return true if request bodies are gzip-compressed
+     */
+    public boolean isCompressRequests() {
+        return compressRequests;
+    }
+
+    /**
+     * @param compressRequests Send request bodies with {@code Content-Encoding: gzip} when they
+     *                         are at least {@link #getCompressionThreshold()} bytes
+     */
+    public void setCompressRequests(boolean compressRequests) {
+        this.compressRequests = compressRequests;
+    }
+
+    /**
+     * @return the size from which request bodies are compressed, in bytes
+     */
+    public long getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * @param compressionThreshold Request bodies smaller than this are sent uncompressed, in bytes;
+     *                             for small bodies compression costs more time than it saves
+     */
+    public void setCompressionThreshold(long compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * @return how messages and responses are rendered for logging
+     */
+    public PayloadFormatter getPayloadFormatter() {
+        return payloadFormatter;
+    }
+
+    /**
+     * @param payloadFormatter Renders messages and responses when the {@code com.postmark.java}
+     *                         logger is at {@code FINE}, or null to never log them
+     */
+    public void setPayloadFormatter(PayloadFormatter payloadFormatter) {
+        this.payloadFormatter = payloadFormatter;
+    }
+
+    /**
+     * @return the listener that receives send timings, or null
+     */
+    public MetricsListener getMetricsListener() {
+        return metricsListener;
+    }
+
+    /**
+     * @param metricsListener Receives send timings and outcomes, such as a {@link SendMetrics},
+     *                        or null to collect none
+     */
+    public void setMetricsListener(MetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
+
+    /**
+     * @return the root of the Postmark API
+     */
+    public String getApiUrl() {
+        return apiUrl;
+    }
+
+    /**
+     * @param apiUrl Root of the Postmark API, for example a local stub when testing;
+     *               defaults to https://api.postmarkapp.com
+     */
+    public void setApiUrl(String apiUrl) {
+        this.apiUrl = apiUrl.endsWith("/") ? apiUrl.substring(0, apiUrl.length() - 1) : apiUrl;
+    }
+
+    /**
+     * @return the window repeated sends are recognised in, or null
+     */
+    public DeduplicationWindow getDeduplicationWindow() {
+        return deduplicationWindow;
+    }
+
+    /**
+     * @param deduplicationWindow Recognises a message sent again while the window
+     *                            remembers it, and returns the first response
+     *                            instead of sending it twice. Null, the default,
+     *                            sends every message.
+     */
+    public void setDeduplicationWindow(DeduplicationWindow deduplicationWindow) {
+        this.deduplicationWindow = deduplicationWindow;
+    }
+}
@@ -0,0 +1,167 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The pending result of an asynchronous send.
+ * <p>
+ * {@link #get()} returns the {@link PostmarkResponse} on success and throws an
+ * {@link ExecutionException} whose cause is the {@link PostmarkException} on
+ * failure. Callbacks can be added at any time; when added after completion they
+ * run immediately on the calling thread.
+ * </p>
+ */
+public class PostmarkFuture implements Future<PostmarkResponse> {
+
+    private static Logger logger = Logger.getLogger("com.postmark.java");
+
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    // Guarded by this until done is released, immutable afterwards
+    private boolean completed;
+    private boolean cancelled;
+    private PostmarkResponse response;
+    private PostmarkException exception;
+    private List<PostmarkCallback> callbacks;
+
+    /**
+     * Completes the send successfully.
+     *
+     * @param response details about the transaction
+     * @return false if the future was already complete
+     */
+    public boolean complete(PostmarkResponse response) {
+        return finish(response, null, false);
+    }
+
+    /**
+     * Completes the send with a failure.
+     *
+     * @param exception the reason the send failed
+     * @return false if the future was already complete
+     */
+    public boolean fail(PostmarkException exception) {
+        return finish(null, exception, false);
+    }
+
+    /**
+     * Registers a callback for the outcome of the send.
+     *
+     * @param callback called once, when the send completes
+     */
+    public void addCallback(PostmarkCallback callback) {
+        synchronized (this) {
+            if (!completed) {
+                if (callbacks == null) {
+                    callbacks = new ArrayList<PostmarkCallback>(1);
+                }
+                callbacks.add(callback);
+                return;
+            }
+        }
+        notify(callback);
+    }
+
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return finish(null, new PostmarkException("The send was cancelled."), true);
+    }
+
+    public boolean isCancelled() {
+        synchronized (this) {
+            return cancelled;
+        }
+    }
+
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    public PostmarkResponse get() throws InterruptedException, ExecutionException {
+        done.await();
+        return result();
+    }
+
+    public PostmarkResponse get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return result();
+    }
+
+    private PostmarkResponse result() throws ExecutionException {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+        if (exception != null) {
+            throw new ExecutionException(exception.getMessage(), exception);
+        }
+        return response;
+    }
+
+    private boolean finish(PostmarkResponse response, PostmarkException exception, boolean cancelled) {
+        List<PostmarkCallback> pending;
+        synchronized (this) {
+            if (completed) {
+                return false;
+            }
+            this.completed = true;
+            this.cancelled = cancelled;
+            this.response = response;
+            this.exception = exception;
+            pending = callbacks;
+            callbacks = null;
+        }
+        done.countDown();
+
+        if (pending != null) {
+            for (PostmarkCallback callback : pending) {
+                notify(callback);
+            }
+        }
+        return true;
+    }
+
+    private void notify(PostmarkCallback callback) {
+        try {
+            if (exception == null) {
+                callback.onSuccess(response);
+            } else {
+                callback.onFailure(exception);
+            }
+        } catch (RuntimeException e) {
+            // One misbehaving callback must not stop the others
+            logger.log(Level.SEVERE, "A send callback threw an exception: " + e.getMessage(), e);
+        }
+    }
+}
@@ -25,6 +25,7 @@ package com.postmark.java;
 import com.google.gson.annotations.SerializedName;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -82,6 +83,12 @@ public class PostmarkMessage {
     @SkipMe
     private boolean isHTML;
 
+    // Pre-encoded JSON shared with other messages of a frozen MessagePrototype.
+    transient MessageFragments fragments;
+
+    // Identifies the message to a DeduplicationWindow; never sent to Postmark.
+    private transient String idempotencyKey;
+
 
     public PostmarkMessage(String fromAddress, String toAddress, String replyToAddress, String ccAddress, String bccAddress, String subject, String body, boolean isHTML, String tag, List<NameValuePair> headers) {
 
@@ -133,10 +140,20 @@ public class PostmarkMessage {
         this.htmlBody = message.htmlBody;
         this.textBody = message.textBody;
 
-        this.headers = message.headers;
+        this.tag = message.tag;
+
+        // The lists are copied so that the copies can be changed independently;
+        // the attachments themselves are shared
+        this.headers = (message.headers == null) ? null : new ArrayList<NameValuePair>(message.headers);
+        this.attachments = (message.attachments == null) ? null : new ArrayList<Attachment>(message.attachments);
 
         this.isHTML = message.isHTML;
 
+        // Safe to share: the fragments are only used while they match the fields
+        this.fragments = message.fragments;
+
+        this.idempotencyKey = message.idempotencyKey;
+
     }
 
     public void clean() {
@@ -145,6 +162,18 @@ public class PostmarkMessage {
         this.subject = (this.subject == null) ? "" : this.subject.trim();
     }
 
+    /**
+     * @return true if {@link #clean()} would not change the message
+     */
+    boolean isClean() {
+        return isTrimmed(fromAddress) && isTrimmed(toAddress) && subject != null && isTrimmed(subject);
+    }
+
+    static boolean isTrimmed(String value) {
+        int length = value.length();
+        return length == 0 || (value.charAt(0) > ' ' && value.charAt(length - 1) > ' ');
+    }
+
     public void validate() throws PostmarkException {
 
         if ((this.fromAddress == null) || (this.fromAddress.equals(""))) {
@@ -154,7 +183,20 @@ public class PostmarkMessage {
             throw new PostmarkException("You must specify a valid 'To' email address.");
         }
 
-        // TODO: add more validation using regex
+        // Malformed addresses would only come back as a 422 after a round trip
+        if (!AddressValidator.isValidAddress(this.fromAddress)) {
+            throw new PostmarkException("Invalid 'From' address: " + this.fromAddress);
+        }
+        validateList("To", this.toAddress);
+        validateList("Cc", this.ccAddress);
+        validateList("Bcc", this.bccAddress);
+        validateList("ReplyTo", this.replyToAddress);
+    }
+
+    private static void validateList(String field, String addresses) throws PostmarkException {
+        if (addresses != null && !addresses.isEmpty() && !AddressValidator.isValidAddressList(addresses)) {
+            throw new PostmarkException("Invalid '" + field + "' address: " + addresses);
+        }
     }
 
 
@@ -186,6 +228,20 @@ public class PostmarkMessage {
         this.toAddress = toAddress;
     }
 
+    /**
+     * @return the to email addresses, one entry per recipient
+     */
+    public List<String> getToAddresses() {
+        return AddressList.parse(toAddress);
+    }
+
+    /**
+     * @param toAddresses The email addresses the message is sent to
+     */
+    public void setToAddresses(Collection<String> toAddresses) {
+        this.toAddress = AddressList.join(toAddresses);
+    }
+
     /**
      * @return the cc email address
      */
@@ -200,6 +256,20 @@ public class PostmarkMessage {
         this.ccAddress = ccAddress;
     }
 
+    /**
+     * @return the cc email addresses, one entry per recipient
+     */
+    public List<String> getCcAddresses() {
+        return AddressList.parse(ccAddress);
+    }
+
+    /**
+     * @param ccAddresses The email addresses a copy of the message is sent to
+     */
+    public void setCcAddresses(Collection<String> ccAddresses) {
+        this.ccAddress = AddressList.join(ccAddresses);
+    }
+
     /**
      * @return the bcc email address
      */
@@ -214,6 +284,20 @@ public class PostmarkMessage {
         this.bccAddress = bccAddress;
     }
 
+    /**
+     * @return the bcc email addresses, one entry per recipient
+     */
+    public List<String> getBccAddresses() {
+        return AddressList.parse(bccAddress);
+    }
+
+    /**
+     * @param bccAddresses The email addresses a blind carbon copy of the message is sent to
+     */
+    public void setBccAddresses(Collection<String> bccAddresses) {
+        this.bccAddress = AddressList.join(bccAddresses);
+    }
+
     /**
      * @return the reply-to email address
      */
@@ -311,6 +395,23 @@ public class PostmarkMessage {
         this.attachments = attachments;
     }
 
+    /**
+     * @return the key that identifies this message to a {@link DeduplicationWindow}, or null
+     */
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    /**
+     * @param idempotencyKey Identifies the message, so that sending it again with the
+     *                       same key within the client's {@link DeduplicationWindow}
+     *                       returns the first response instead of sending it twice.
+     *                       Without a key, messages are identified by their content.
+     */
+    public void setIdempotencyKey(String idempotencyKey) {
+        this.idempotencyKey = idempotencyKey;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -328,7 +429,7 @@ public class PostmarkMessage {
         if (subject != null ? !subject.equals(that.subject) : that.subject != null) return false;
         if (textBody != null ? !textBody.equals(that.textBody) : that.textBody != null) return false;
         if (toAddress != null ? !toAddress.equals(that.toAddress) : that.toAddress != null) return false;
-        if (tag != null ? !tag.equals(that.toAddress) : that.tag != null) return false;
+        if (tag != null ? !tag.equals(that.tag) : that.tag != null) return false;
         if (isHTML != that.isHTML) return false;
 
         return true;
@@ -0,0 +1,355 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Queues messages and sends them in the background through the batch API.
+ * <p>
+ * {@link #enqueue(PostmarkMessage)} returns as soon as the message is queued.
+ * A single background thread collects queued messages into a batch and sends it
+ * when the batch reaches {@link QueueingSenderConfig#getBatchSize()} messages or
+ * when its first message has waited {@link QueueingSenderConfig#getLingerTime()}
+ * milliseconds, whichever comes first. Each message's outcome is delivered
+ * through the {@link PostmarkFuture} returned when it was queued.
+ * </p>
+ * <p>
+ * With an {@link Outbox} configured, queued messages also survive a crash: each
+ * is written to the outbox before it is queued, and acknowledged once Postmark
+ * has accepted it or rejected it for good ({@link PostmarkStatus#USERERROR}).
+ * Messages that failed for any other reason, such as a server error or a
+ * timeout, and messages still queued when the sender was shut down, stay in
+ * the outbox: their futures fail, but they are sent again by the background
+ * thread when the sender next starts, before any newly queued message. Callers
+ * should therefore not resend them themselves.
+ * </p>
+ * Sample code:
+ * <pre>
+ * {@code
+ * QueueingSender sender = new QueueingSender(client, new QueueingSenderConfig());
+ * sender.enqueue(message).addCallback(callback);
+ * ...
+ * sender.shutdown(10, TimeUnit.SECONDS);
+ * }
+ * </pre>
+ */
+public class QueueingSender implements Closeable {
+
+    private static Logger logger = Logger.getLogger("com.postmark.java");
+
+    // How long close() waits for queued messages to be sent
+    private static final long CLOSE_TIMEOUT = 30;
+
+    // Longest the worker waits before checking for a shutdown, in milliseconds
+    private static final long POLL_INTERVAL = 100;
+
+    // Sequence of a message that is not in an outbox
+    private static final long NOT_LOGGED = -1;
+
+    private final PostmarkClient client;
+    private final BlockingQueue<Pending> queue;
+    private final int batchSize;
+    private final long lingerTime;
+    private final OverflowPolicy overflowPolicy;
+    private final Outbox outbox;
+    private final Map<Long, PostmarkMessage> backlog;
+    private final Thread worker;
+
+    private volatile boolean accepting = true;
+
+    /**
+     * @param client the client that sends the batches; it is not closed by this sender
+     * @param config queue and batching options
+     */
+    public QueueingSender(PostmarkClient client, QueueingSenderConfig config) {
+        this.client = client;
+        this.queue = new ArrayBlockingQueue<Pending>(config.getCapacity());
+        this.batchSize = Math.max(1, Math.min(config.getBatchSize(), PostmarkClientConfig.MAX_BATCH_SIZE));
+        this.lingerTime = config.getLingerTime();
+        this.overflowPolicy = config.getOverflowPolicy();
+        this.outbox = config.getOutbox();
+        // Read before any new message is appended, so none is sent twice
+        this.backlog = (outbox == null) ? null : readBacklog(outbox);
+
+        worker = new Thread(new Runnable() {
+            public void run() {
+                drain();
+            }
+        }, "postmark-queueing-sender");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Queues a message to be sent in a later batch.
+     *
+     * @param message A prepared message instance. It must not be modified after it is queued.
+     * @return a future holding the message's response
+     * @throws PostmarkException if the queue is full and the overflow policy is
+     *                           {@link OverflowPolicy#FAIL}, the sender has been shut down,
+     *                           or the message is invalid or can not be written to the outbox
+     */
+    public PostmarkFuture enqueue(PostmarkMessage message) throws PostmarkException {
+        if (!accepting) {
+            throw new PostmarkException("The sender has been shut down.");
+        }
+
+        Pending pending = new Pending(message, NOT_LOGGED);
+        if (outbox != null) {
+            // Invalid messages would otherwise be replayed on every start
+            message.validate();
+            try {
+                pending = new Pending(message, outbox.append(message));
+            } catch (IOException e) {
+                throw new PostmarkException(e);
+            }
+        }
+
+        switch (overflowPolicy) {
+            case BLOCK:
+                try {
+                    queue.put(pending);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    acknowledge(pending.sequence);
+                    throw new PostmarkException(e);
+                }
+                break;
+            case DROP:
+                if (!queue.offer(pending)) {
+                    pending.future.fail(new PostmarkException("The send queue is full; the message was dropped."));
+                    acknowledge(pending.sequence);
+                    return pending.future;
+                }
+                break;
+            default:
+                if (!queue.offer(pending)) {
+                    acknowledge(pending.sequence);
+                    throw new PostmarkException("The send queue is full.");
+                }
+        }
+
+        // A shutdown that raced with this call may have already drained the queue
+        if (!accepting && queue.remove(pending)) {
+            acknowledge(pending.sequence);
+            throw new PostmarkException("The sender has been shut down.");
+        }
+
+        return pending.future;
+    }
+
+    /**
+     * @return the number of messages waiting to be sent
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * Stops accepting messages and sends everything already queued.
+     * Messages that could not be sent before the deadline are failed.
+     *
+     * @param timeout how long to wait for the queue to be flushed
+     * @param unit    the unit of the timeout
+     * @return true if every queued message was sent before the deadline
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        accepting = false;
+        worker.join(Math.max(1, unit.toMillis(timeout)));
+
+        boolean flushed = !worker.isAlive();
+        if (!flushed) {
+            worker.interrupt();
+        }
+
+        List<Pending> abandoned = new ArrayList<Pending>();
+        queue.drainTo(abandoned);
+        abandon(abandoned);
+        return flushed && abandoned.isEmpty();
+    }
+
+    /**
+     * Shuts down the sender, waiting up to 30 seconds for queued messages to be sent.
+     */
+    public void close() {
+        try {
+            shutdown(CLOSE_TIMEOUT, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drain() {
+        List<Pending> batch = new ArrayList<Pending>(batchSize);
+        try {
+            if (backlog != null) {
+                replay(batch);
+            }
+            while (accepting || !queue.isEmpty()) {
+                Pending first = queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                // Fill the batch until it is full or the first message has waited long enough
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerTime);
+                while (batch.size() < batchSize) {
+                    if (queue.drainTo(batch, batchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0 || !accepting) {
+                        break;
+                    }
+                    Pending next = queue.poll(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(POLL_INTERVAL)), TimeUnit.NANOSECONDS);
+                    if (next != null) {
+                        batch.add(next);
+                    }
+                }
+
+                send(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // Shutdown deadline passed
+        } finally {
+            abandon(batch);
+        }
+    }
+
+    // Abandoned messages are not acknowledged, so the next start sends them
+    private void abandon(List<Pending> batch) {
+        for (Pending pending : batch) {
+            pending.future.fail(new PostmarkException("The sender was shut down before the message was sent."));
+        }
+    }
+
+    private void send(List<Pending> batch) {
+        List<PostmarkMessage> messages = new ArrayList<PostmarkMessage>(batch.size());
+        for (Pending pending : batch) {
+            messages.add(pending.message);
+        }
+
+        List<PostmarkResponse> responses;
+        try {
+            responses = client.sendMessages(messages);
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "There has been an error sending your batch: " + e.getMessage(), e);
+            for (Pending pending : batch) {
+                pending.future.fail(new PostmarkException(e));
+            }
+            return;
+        }
+
+        long[] done = new long[batch.size()];
+        int count = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            Pending pending = batch.get(i);
+            PostmarkResponse response = responses.get(i);
+            if (response.status == PostmarkStatus.SUCCESS) {
+                pending.future.complete(response);
+            } else {
+                pending.future.fail(new PostmarkException(response.message, response));
+            }
+            // Sending a rejected message again gets the same answer; anything else may yet succeed
+            if ((response.status == PostmarkStatus.SUCCESS || response.status == PostmarkStatus.USERERROR)
+                    && pending.sequence != NOT_LOGGED) {
+                done[count++] = pending.sequence;
+            }
+        }
+        // Only once the outcomes are out: a crash in between resends rather than loses a message
+        if (count > 0) {
+            acknowledge(Arrays.copyOf(done, count));
+        }
+    }
+
+    private static Map<Long, PostmarkMessage> readBacklog(Outbox outbox) {
+        try {
+            return outbox.pending();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Could not read the outbox; its messages will be sent on the next start: " + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    // Sends the messages a previous run left in the outbox, oldest first, straight from
+    // the worker, so that a backlog larger than the queue does not block the constructor
+    private void replay(List<Pending> batch) throws InterruptedException {
+        if (!backlog.isEmpty()) {
+            logger.log(Level.INFO, "Resending {0} messages from the outbox", backlog.size());
+        }
+        for (Map.Entry<Long, PostmarkMessage> entry : backlog.entrySet()) {
+            if (Thread.interrupted()) {
+                // Shutdown deadline passed; the rest stay in the outbox for the next start
+                batch.clear();
+                throw new InterruptedException();
+            }
+            batch.add(new Pending(entry.getValue(), entry.getKey()));
+            if (batch.size() == batchSize) {
+                send(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            send(batch);
+            batch.clear();
+        }
+        backlog.clear();
+    }
+
+    private void acknowledge(long... sequences) {
+        if (outbox == null || (sequences.length == 1 && sequences[0] == NOT_LOGGED)) {
+            return;
+        }
+        try {
+            outbox.ack(sequences);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not acknowledge sent messages in the outbox: " + e.getMessage(), e);
+        }
+    }
+
+    private static class Pending {
+
+        final PostmarkMessage message;
+        final long sequence;
+        final PostmarkFuture future = new PostmarkFuture();
+
+        Pending(PostmarkMessage message, long sequence) {
+            this.message = message;
+            this.sequence = sequence;
+        }
+    }
+}
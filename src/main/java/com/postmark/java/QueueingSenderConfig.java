@@ -0,0 +1,118 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+/**
+ * Options for a {@link QueueingSender}.
+ */
+public class QueueingSenderConfig {
+
+    // Maximum number of messages waiting to be sent.
+    private int capacity = 10000;
+
+    // A batch is sent as soon as it holds this many messages.
+    private int batchSize = PostmarkClientConfig.MAX_BATCH_SIZE;
+
+    // A batch is sent at the latest this long after its first message was queued, in milliseconds.
+    private long lingerTime = 100;
+
+    // What to do when the queue is full.
+    private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+
+    // Durable log of the queued messages; without one they are only held in memory.
+    private Outbox outbox;
+
+    /**
+     * @return the maximum number of queued messages
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @param capacity The maximum number of messages waiting to be sent
+     */
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the number of messages that triggers a batch
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param batchSize A batch is sent as soon as it holds this many messages
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return the longest a message waits for a batch to fill, in milliseconds
+     */
+    public long getLingerTime() {
+        return lingerTime;
+    }
+
+    /**
+     * @param lingerTime A batch is sent at the latest this long after its first
+     *                   message was queued, in milliseconds
+     */
+    public void setLingerTime(long lingerTime) {
+        this.lingerTime = lingerTime;
+    }
+
+    /**
+     * @return what happens to a message when the queue is full
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * @param overflowPolicy What happens to a message when the queue is full
+     */
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * @return the log queued messages are written to, or null
+     */
+    public Outbox getOutbox() {
+        return outbox;
+    }
+
+    /**
+     * @param outbox A log every message is written to before it is queued and
+     *               acknowledged in once Postmark has accepted or rejected it. The
+     *               sender replays its unacknowledged messages when it starts.
+     *               It is not closed by the sender.
+     */
+    public void setOutbox(Outbox outbox) {
+        this.outbox = outbox;
+    }
+}
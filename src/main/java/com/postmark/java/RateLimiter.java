@@ -0,0 +1,119 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket that limits how fast requests are sent to Postmark.
+ * <p>
+ * Up to {@code burst} permits are available at once, and they are replenished
+ * at {@code permitsPerSecond}. The bucket is implemented with the generic cell
+ * rate algorithm: its whole state is the time at which the next permit would
+ * be free, kept in a single {@link AtomicLong}, so acquiring a permit is one
+ * compare-and-set and never takes a lock.
+ * </p>
+ * <p>
+ * A limiter is thread-safe. Postmark throttles per server token, so clients
+ * that use the same token should share one limiter.
+ * </p>
+ */
+public class RateLimiter {
+
+    // Nanoseconds between two permits at the steady rate
+    private final long interval;
+
+    // How far ahead of now the next free slot may be; burst * interval
+    private final long window;
+
+    // Theoretical arrival time of the next permit, on the System.nanoTime() clock
+    private final AtomicLong next;
+
+    /**
+     * @param permitsPerSecond the sustained rate
+     * @param burst            how many permits can be taken at once after an idle period
+     */
+    public RateLimiter(double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("The rate and burst size must be positive.");
+        }
+        this.interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+        this.window = interval * burst;
+        this.next = new AtomicLong(System.nanoTime());
+    }
+
+    private RateLimiter(long interval, long window) {
+        this.interval = interval;
+        this.window = window;
+        this.next = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * @return a new, full limiter with the same rate and burst
+     */
+    RateLimiter copy() {
+        return new RateLimiter(interval, window);
+    }
+
+    /**
+     * Takes a permit if one is available right now.
+     *
+     * @return false if the caller would have to wait
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            long now = System.nanoTime();
+            long current = next.get();
+            long reserved = Math.max(current, now) + interval;
+            if (reserved - now > window) {
+                return false;
+            }
+            if (next.compareAndSet(current, reserved)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Takes a permit, waiting for one to become available.
+     *
+     * @return how long the caller waited, in nanoseconds
+     * @throws InterruptedException if interrupted while waiting; the permit is not returned
+     */
+    public long acquire() throws InterruptedException {
+        while (true) {
+            long now = System.nanoTime();
+            long current = next.get();
+            long reserved = Math.max(current, now) + interval;
+            if (next.compareAndSet(current, reserved)) {
+                long wait = reserved - window - now;
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                    return wait;
+                }
+                return 0;
+            }
+        }
+    }
+}
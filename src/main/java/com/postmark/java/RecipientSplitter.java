@@ -0,0 +1,121 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Prepares a message's recipients for the API: repeated addresses are
+ * dropped, ignoring case and display names, and a message with more
+ * recipients than Postmark accepts is split into several messages.
+ * <p>
+ * Each part keeps at least one To recipient, since the API requires one; the
+ * To recipients are spread evenly over the parts and the Cc and Bcc
+ * recipients fill the room left in each. Messages with at most one recipient
+ * are returned without being parsed.
+ * </p>
+ */
+final class RecipientSplitter {
+
+    private RecipientSplitter() {
+    }
+
+    /**
+     * @param message a validated message, which is not changed
+     * @param max     the most recipients in one message
+     * @return the message itself, or copies with the recipients shared out between them
+     * @throws PostmarkException if there are too few To recipients to split the message
+     */
+    static List<PostmarkMessage> split(PostmarkMessage message, int max) throws PostmarkException {
+        int count = count(message.getToAddress()) + count(message.getCcAddress()) + count(message.getBccAddress());
+        if (count <= 1) {
+            return Collections.singletonList(message);
+        }
+
+        Set<String> seen = new HashSet<String>();
+        List<String> to = AddressList.parse(message.getToAddress());
+        List<String> cc = AddressList.parse(message.getCcAddress());
+        List<String> bcc = AddressList.parse(message.getBccAddress());
+        boolean changed = AddressList.dedupe(to, seen);
+        changed |= AddressList.dedupe(cc, seen);
+        changed |= AddressList.dedupe(bcc, seen);
+
+        int total = to.size() + cc.size() + bcc.size();
+        if (total <= max) {
+            if (!changed) {
+                return Collections.singletonList(message);
+            }
+            PostmarkMessage copy = PostmarkClient.copyOf(message);
+            if (copy == null) {
+                return Collections.singletonList(message);
+            }
+            setRecipients(copy, to, cc, bcc);
+            return Collections.singletonList(copy);
+        }
+
+        int parts = (total + max - 1) / max;
+        if (to.size() < parts) {
+            throw new PostmarkException("A message with " + total + " recipients needs at least " + parts
+                    + " 'To' addresses to be split into messages of " + max + " recipients.");
+        }
+
+        List<PostmarkMessage> messages = new ArrayList<PostmarkMessage>(parts);
+        int toFrom = 0;
+        int ccFrom = 0;
+        int bccFrom = 0;
+        for (int i = 0; i < parts; i++) {
+            PostmarkMessage copy = PostmarkClient.copyOf(message);
+            if (copy == null) {
+                throw new PostmarkException("A message with more than " + max + " recipients can not be split.");
+            }
+
+            int toTo = (int) ((long) to.size() * (i + 1) / parts);
+            int room = max - (toTo - toFrom);
+            int ccTo = Math.min(cc.size(), ccFrom + room);
+            room -= ccTo - ccFrom;
+            int bccTo = Math.min(bcc.size(), bccFrom + room);
+
+            setRecipients(copy, to.subList(toFrom, toTo), cc.subList(ccFrom, ccTo), bcc.subList(bccFrom, bccTo));
+            messages.add(copy);
+
+            toFrom = toTo;
+            ccFrom = ccTo;
+            bccFrom = bccTo;
+        }
+        return messages;
+    }
+
+    private static int count(String field) {
+        return (field == null) ? 0 : Math.max(0, AddressValidator.count(field));
+    }
+
+    private static void setRecipients(PostmarkMessage message, List<String> to, List<String> cc, List<String> bcc) {
+        message.setToAddress(AddressList.join(to));
+        message.setCcAddress(AddressList.join(cc));
+        message.setBccAddress(AddressList.join(bcc));
+    }
+}
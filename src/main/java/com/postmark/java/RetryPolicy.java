@@ -0,0 +1,195 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import org.apache.http.client.HttpResponseException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides which failed requests are retried and how long to wait in between.
+ * <p>
+ * A request is retried when it failed with one of the retryable HTTP status
+ * codes or with one of the retryable exception types, up to
+ * {@link #getMaxAttempts()} attempts in total. The wait before attempt
+ * {@code n + 1} is drawn uniformly from {@code [0, min(maxDelay, baseDelay * 2^(n-1))]}
+ * ("full jitter"), which spreads retries from many threads over time instead
+ * of synchronising them.
+ * </p>
+ * <p>
+ * Retries also draw from a budget shared by every send of a client. Each
+ * request adds {@link #getBudgetRatio()} of a retry to the budget, which holds
+ * at most {@link #getBudgetReserve()} retries. When the budget is empty failed
+ * requests are not retried, so retries can not multiply the load on Postmark
+ * during an outage.
+ * </p>
+ * 401 and 422 responses mean the request itself is wrong and are never retried.
+ */
+public class RetryPolicy {
+
+    private int maxAttempts = 3;
+    private long baseDelay = 100;
+    private long maxDelay = 10000;
+    private double budgetRatio = 0.1;
+    private int budgetReserve = 10;
+
+    private Set<Integer> retryableStatusCodes = new HashSet<Integer>(Arrays.asList(429, 500, 502, 503, 504));
+
+    private List<Class<? extends Exception>> retryableExceptions = new ArrayList<Class<? extends Exception>>(
+            Collections.<Class<? extends Exception>>singletonList(IOException.class));
+
+    /**
+     * @return true if a request that failed with the exception may be attempted again
+     */
+    public boolean isRetryable(Exception exception) {
+        if (exception instanceof HttpResponseException) {
+            int statusCode = ((HttpResponseException) exception).getStatusCode();
+            return statusCode != 401 && statusCode != 422 && retryableStatusCodes.contains(statusCode);
+        }
+        for (Class<? extends Exception> type : retryableExceptions) {
+            if (type.isInstance(exception)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param attempt the number of the attempt that just failed, starting at 1
+     * @return how long to wait before the next attempt, in milliseconds
+     */
+    public long backoff(int attempt) {
+        long ceiling = baseDelay << Math.min(attempt - 1, 30);
+        if (ceiling <= 0 || ceiling > maxDelay) {
+            ceiling = maxDelay;
+        }
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * @return the maximum number of attempts per request, including the first
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @param maxAttempts The maximum number of attempts per request, including the first
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * @return the backoff ceiling after the first failure, in milliseconds
+     */
+    public long getBaseDelay() {
+        return baseDelay;
+    }
+
+    /**
+     * @param baseDelay The backoff ceiling after the first failure, doubled after each
+     *                  further failure, in milliseconds
+     */
+    public void setBaseDelay(long baseDelay) {
+        this.baseDelay = baseDelay;
+    }
+
+    /**
+     * @return the largest backoff, in milliseconds
+     */
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    /**
+     * @param maxDelay The largest backoff, in milliseconds
+     */
+    public void setMaxDelay(long maxDelay) {
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * @return the fraction of a retry each request adds to the retry budget
+     */
+    public double getBudgetRatio() {
+        return budgetRatio;
+    }
+
+    /**
+     * @param budgetRatio The fraction of a retry each request adds to the retry budget;
+     *                    0.1 allows roughly one retry per ten requests
+     */
+    public void setBudgetRatio(double budgetRatio) {
+        this.budgetRatio = budgetRatio;
+    }
+
+    /**
+     * @return the most retries the budget can hold
+     */
+    public int getBudgetReserve() {
+        return budgetReserve;
+    }
+
+    /**
+     * @param budgetReserve The most retries the budget can hold; the budget starts full
+     */
+    public void setBudgetReserve(int budgetReserve) {
+        this.budgetReserve = budgetReserve;
+    }
+
+    /**
+     * @return the HTTP status codes that are retried
+     */
+    public Set<Integer> getRetryableStatusCodes() {
+        return retryableStatusCodes;
+    }
+
+    /**
+     * @param retryableStatusCodes The HTTP status codes that are retried; 401 and 422 are ignored
+     */
+    public void setRetryableStatusCodes(Set<Integer> retryableStatusCodes) {
+        this.retryableStatusCodes = retryableStatusCodes;
+    }
+
+    /**
+     * @return the exception types that are retried
+     */
+    public List<Class<? extends Exception>> getRetryableExceptions() {
+        return retryableExceptions;
+    }
+
+    /**
+     * @param retryableExceptions The exception types that are retried, including subclasses
+     */
+    public void setRetryableExceptions(List<Class<? extends Exception>> retryableExceptions) {
+        this.retryableExceptions = retryableExceptions;
+    }
+}
@@ -0,0 +1,303 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+package com.postmark.java;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Sends messages for several Postmark servers through one connection pool.
+ * <p>
+ * A {@link RoutingStrategy} picks the server token for each message. Every
+ * token gets its own rate limiter, circuit breaker, retry budget and
+ * {@link SendMetrics}, while
+ * the connections, the idle connection evictor and the async threads are
+ * shared, so one process can serve all tenants without a client per tenant.
+ * </p>
+ * <p>
+ * The configuration applies to every token. Its rate limiter is copied for
+ * each token, so each one is throttled on its own, unless the token has a
+ * limiter of its own from {@link #setRateLimiter(String, RateLimiter)}. Its
+ * circuit breaker is copied the same way, with its listeners, because Postmark
+ * throttles per token: one tenant being throttled must not suspend the others.
+ * Its metrics listener, if any, receives the timings of all tokens together,
+ * and the deduplication window is shared.
+ * </p>
+ * Sample code:
+ * <pre>
+ * {@code
+ * Map<String, String> tokens = new HashMap<String, String>();
+ * tokens.put("example.com", "token-for-example");
+ * tokens.put("example.org", "token-for-example-org");
+ * RoutingClient client = new RoutingClient(RoutingStrategy.byFromDomain(tokens, null));
+ * client.sendMessage(message);
+ * }
+ * </pre>
+ */
+public class RoutingClient implements Closeable {
+
+    private final RoutingStrategy strategy;
+    private final PostmarkClientConfig config;
+
+    // Owns the shared connection pool and async threads; never sends itself
+    private final PostmarkClient shared;
+
+    private final ConcurrentMap<String, Server> servers = new ConcurrentHashMap<String, Server>();
+    private final Map<String, RateLimiter> rateLimiters = new HashMap<String, RateLimiter>();
+
+    /**
+     * @param strategy chooses the server token for each message
+     */
+    public RoutingClient(RoutingStrategy strategy) {
+        this(strategy, new PostmarkClientConfig());
+    }
+
+    /**
+     * @param strategy chooses the server token for each message
+     * @param config   connection pool, timeout and resilience settings for all tokens
+     */
+    public RoutingClient(RoutingStrategy strategy, PostmarkClientConfig config) {
+        this.strategy = strategy;
+        this.config = config;
+        this.shared = new PostmarkClient(null, config, null, null, null, null);
+    }
+
+    /**
+     * Throttles one server token with its own limiter instead of a copy of the
+     * configured one.
+     *
+     * @param serverToken the token to throttle
+     * @param rateLimiter its limiter, or null for none
+     * @throws IllegalStateException if messages have already been sent with the token
+     */
+    public synchronized void setRateLimiter(String serverToken, RateLimiter rateLimiter) {
+        if (servers.containsKey(serverToken)) {
+            throw new IllegalStateException("Messages have already been sent with this server token.");
+        }
+        rateLimiters.put(serverToken, rateLimiter);
+    }
+
+    /**
+     * Sends a message with the server token chosen for it.
+     *
+     * @param message A prepared message instance.
+     * @return A response object
+     * @throws PostmarkException if no token could be chosen, or the send failed
+     * @see PostmarkClient#sendMessage(PostmarkMessage)
+     */
+    public PostmarkResponse sendMessage(PostmarkMessage message) throws PostmarkException {
+        return server(route(message)).client.sendMessage(message);
+    }
+
+    /**
+     * Sends a message with the server token chosen for it, unless that token's
+     * rate limit has been reached.
+     *
+     * @param message A prepared message instance.
+     * @return A response object
+     * @throws PostmarkException if no token could be chosen, the rate limit was reached, or the send failed
+     * @see PostmarkClient#trySendMessage(PostmarkMessage)
+     */
+    public PostmarkResponse trySendMessage(PostmarkMessage message) throws PostmarkException {
+        return server(route(message)).client.trySendMessage(message);
+    }
+
+    /**
+     * Sends a message with the server token chosen for it, without blocking the caller.
+     *
+     * @param message A prepared message instance.
+     * @return a future holding the response, or failing with a {@link PostmarkException}
+     * @see PostmarkClient#sendMessageAsync(PostmarkMessage)
+     */
+    public PostmarkFuture sendMessageAsync(PostmarkMessage message) {
+        String token;
+        try {
+            token = route(message);
+        } catch (PostmarkException e) {
+            PostmarkFuture future = new PostmarkFuture();
+            future.fail(e);
+            return future;
+        }
+        return server(token).client.sendMessageAsync(message);
+    }
+
+    /**
+     * @param message  A prepared message instance.
+     * @param callback Notified with the response or the failure once the send completes
+     * @return a future holding the response, or failing with a {@link PostmarkException}
+     */
+    public PostmarkFuture sendMessageAsync(PostmarkMessage message, PostmarkCallback callback) {
+        PostmarkFuture future = sendMessageAsync(message);
+        future.addCallback(callback);
+        return future;
+    }
+
+    /**
+     * Sends several messages through the Postmark batch API, one set of batches
+     * per server token.
+     * <p>
+     * As with {@link PostmarkClient#sendMessages(List)}, failures are reported
+     * per message, in input order. A message for which no token could be chosen
+     * gets a {@link PostmarkStatus#USERERROR} response and is not sent.
+     * </p>
+     *
+     * @param messages The prepared messages to send
+     * @return one response per message, in input order
+     */
+    public List<PostmarkResponse> sendMessages(List<? extends PostmarkMessage> messages) {
+
+        PostmarkResponse[] responses = new PostmarkResponse[messages.size()];
+
+        // Group by token, keeping each message's position in the input
+        Map<String, List<Integer>> groups = new LinkedHashMap<String, List<Integer>>();
+        for (int i = 0; i < messages.size(); i++) {
+            try {
+                String token = route(messages.get(i));
+                List<Integer> group = groups.get(token);
+                if (group == null) {
+                    group = new ArrayList<Integer>();
+                    groups.put(token, group);
+                }
+                group.add(i);
+            } catch (PostmarkException e) {
+                responses[i] = PostmarkClient.errorResponse(PostmarkStatus.USERERROR, e.getMessage());
+            }
+        }
+
+        for (Map.Entry<String, List<Integer>> group : groups.entrySet()) {
+            List<Integer> indexes = group.getValue();
+            List<PostmarkMessage> batch = new ArrayList<PostmarkMessage>(indexes.size());
+            for (int index : indexes) {
+                batch.add(messages.get(index));
+            }
+            List<PostmarkResponse> sent = server(group.getKey()).client.sendMessages(batch);
+            for (int i = 0; i < indexes.size(); i++) {
+                responses[indexes.get(i)] = sent.get(i);
+            }
+        }
+
+        return Arrays.asList(responses);
+    }
+
+    /**
+     * @return the server tokens that messages have been sent with so far
+     */
+    public Set<String> getServerTokens() {
+        return Collections.unmodifiableSet(servers.keySet());
+    }
+
+    /**
+     * @param serverToken a server token
+     * @return the timings and outcomes of the token's single-message sends, or null if nothing has been sent with it
+     */
+    public SendMetrics getMetrics(String serverToken) {
+        Server server = servers.get(serverToken);
+        return (server == null) ? null : server.metrics;
+    }
+
+    /**
+     * Releases the shared connections. The client can not be used to send
+     * messages once it has been closed, and asynchronous sends that have not
+     * started yet are abandoned.
+     */
+    public void close() {
+        shared.close();
+    }
+
+    private String route(PostmarkMessage message) throws PostmarkException {
+        String token = strategy.route(message);
+        if (token == null) {
+            throw new PostmarkException("No server token is configured for this message.");
+        }
+        return token;
+    }
+
+    private Server server(String serverToken) {
+        Server server = servers.get(serverToken);
+        if (server == null) {
+            synchronized (this) {
+                server = servers.get(serverToken);
+                if (server == null) {
+                    server = new Server(serverToken);
+                    servers.put(serverToken, server);
+                }
+            }
+        }
+        return server;
+    }
+
+    // The per-token half of a client; the connections belong to the shared client
+    private final class Server {
+
+        final PostmarkClient client;
+        final SendMetrics metrics = new SendMetrics();
+
+        Server(String serverToken) {
+            RateLimiter rateLimiter;
+            if (rateLimiters.containsKey(serverToken)) {
+                rateLimiter = rateLimiters.get(serverToken);
+            } else {
+                rateLimiter = (config.getRateLimiter() == null) ? null : config.getRateLimiter().copy();
+            }
+            CircuitBreaker circuitBreaker = (config.getCircuitBreaker() == null) ? null : config.getCircuitBreaker().copy();
+            MetricsListener listener = (config.getMetricsListener() == null)
+                    ? metrics
+                    : new BothListeners(metrics, config.getMetricsListener());
+            client = new PostmarkClient(serverToken, config, shared, rateLimiter, circuitBreaker, listener);
+        }
+    }
+
+    private static final class BothListeners implements MetricsListener {
+
+        private final MetricsListener first;
+        private final MetricsListener second;
+
+        BothListeners(MetricsListener first, MetricsListener second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        public void sendStarted() {
+            first.sendStarted();
+            second.sendStarted();
+        }
+
+        public void phaseCompleted(SendPhase phase, long nanos) {
+            first.phaseCompleted(phase, nanos);
+            second.phaseCompleted(phase, nanos);
+        }
+
+        public void sendCompleted(PostmarkStatus status, long nanos) {
+            first.sendCompleted(status, nanos);
+            second.sendCompleted(status, nanos);
+        }
+    }
+}
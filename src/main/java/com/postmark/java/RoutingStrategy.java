@@ -0,0 +1,174 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+package com.postmark.java;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Chooses the server token a message is sent with, so that one
+ * {@link RoutingClient} can send for several Postmark servers.
+ * <p>
+ * The built-in strategies route by tag, by the domain of the From address, or
+ * by a hash of either one spread over a list of tokens. Subclasses can route on
+ * anything else in the message. Strategies must be thread-safe and should be
+ * quick; they run on the sending thread for every message.
+ * </p>
+ */
+public abstract class RoutingStrategy {
+
+    /**
+     * The part of a message that identifies its tenant.
+     */
+    public enum Key {
+        /** The message's tag. */
+        TAG,
+        /** The domain of the From address, in lower case. */
+        FROM_DOMAIN
+    }
+
+    /**
+     * @param message a validated message
+     * @return the server token to send it with, or null if there is none
+     */
+    public abstract String route(PostmarkMessage message);
+
+    /**
+     * Routes messages by their tag.
+     *
+     * @param tokensByTag  the server token for each tag
+     * @param defaultToken the token for untagged messages and unknown tags, or null to reject them
+     */
+    public static RoutingStrategy byTag(Map<String, String> tokensByTag, String defaultToken) {
+        return new Lookup(Key.TAG, new HashMap<String, String>(tokensByTag), defaultToken);
+    }
+
+    /**
+     * Routes messages by the domain of their From address. Domains are matched
+     * ignoring case.
+     *
+     * @param tokensByDomain the server token for each sending domain
+     * @param defaultToken   the token for unknown domains, or null to reject them
+     */
+    public static RoutingStrategy byFromDomain(Map<String, String> tokensByDomain, String defaultToken) {
+        Map<String, String> tokens = new HashMap<String, String>(tokensByDomain.size() * 2);
+        for (Map.Entry<String, String> entry : tokensByDomain.entrySet()) {
+            tokens.put(entry.getKey().toLowerCase(Locale.ENGLISH), entry.getValue());
+        }
+        return new Lookup(Key.FROM_DOMAIN, tokens, defaultToken);
+    }
+
+    /**
+     * Spreads tenants over several server tokens by hashing their key. A tenant
+     * always goes to the same token, and adding a token only moves the tenants
+     * that the new token takes over.
+     *
+     * @param key    what identifies a tenant; messages without one hash as the empty string
+     * @param tokens the server tokens to shard over
+     */
+    public static RoutingStrategy hashed(Key key, List<String> tokens) {
+        if (tokens.isEmpty()) {
+            throw new IllegalArgumentException("At least one server token is required.");
+        }
+        return new Hashed(key, new ArrayList<String>(tokens));
+    }
+
+    static String key(Key key, PostmarkMessage message) {
+        if (key == Key.TAG) {
+            return message.getTag();
+        }
+        String from = message.getFromAddress();
+        if (from == null) {
+            return null;
+        }
+        String address = AddressList.address(from);
+        int at = address.lastIndexOf('@');
+        return (at < 0) ? null : address.substring(at + 1).toLowerCase(Locale.ENGLISH);
+    }
+
+    private static final class Lookup extends RoutingStrategy {
+
+        private final Key key;
+        private final Map<String, String> tokens;
+        private final String defaultToken;
+
+        Lookup(Key key, Map<String, String> tokens, String defaultToken) {
+            this.key = key;
+            this.tokens = Collections.unmodifiableMap(tokens);
+            this.defaultToken = defaultToken;
+        }
+
+        @Override
+        public String route(PostmarkMessage message) {
+            String value = key(key, message);
+            String token = (value == null) ? null : tokens.get(value);
+            return (token == null) ? defaultToken : token;
+        }
+    }
+
+    // Rendezvous hashing: the token with the highest score for the tenant wins
+    private static final class Hashed extends RoutingStrategy {
+
+        private final Key key;
+        private final String[] tokens;
+        private final long[] seeds;
+
+        Hashed(Key key, List<String> tokens) {
+            this.key = key;
+            this.tokens = tokens.toArray(new String[tokens.size()]);
+            this.seeds = new long[this.tokens.length];
+            for (int i = 0; i < seeds.length; i++) {
+                seeds[i] = mix(this.tokens[i].hashCode());
+            }
+        }
+
+        @Override
+        public String route(PostmarkMessage message) {
+            String tenant = key(key, message);
+            long hash = mix((tenant == null) ? 0 : tenant.hashCode());
+            int best = 0;
+            long bestScore = Long.MIN_VALUE;
+            for (int i = 0; i < seeds.length; i++) {
+                long score = mix(hash ^ seeds[i]);
+                if (score > bestScore) {
+                    best = i;
+                    bestScore = score;
+                }
+            }
+            return tokens[best];
+        }
+
+        // The 64-bit finalizer from MurmurHash3
+        private static long mix(long h) {
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+            return h;
+        }
+    }
+}
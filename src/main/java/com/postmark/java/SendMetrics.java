@@ -0,0 +1,194 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Default {@link MetricsListener}: counts outcomes by status, tracks the number
+ * of sends in flight, and keeps a latency histogram for whole sends and for
+ * each {@link SendPhase}.
+ * <p>
+ * Counters are striped across cache lines so that concurrent senders do not
+ * contend, and the histograms have a fixed size however many messages are
+ * sent. Call {@link #register(String)} to publish the metrics over JMX.
+ * </p>
+ * Sample code:
+ * <pre>
+ * {@code
+ * SendMetrics metrics = new SendMetrics();
+ * metrics.register("transactional");
+ * config.setMetricsListener(metrics);
+ * }
+ * </pre>
+ */
+public class SendMetrics implements MetricsListener, SendMetricsMBean {
+
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    private final StripedCounter inFlight = new StripedCounter();
+    private final StripedCounter[] outcomes = new StripedCounter[PostmarkStatus.values().length];
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram[] phases = new LatencyHistogram[SendPhase.values().length];
+
+    private volatile ObjectName objectName;
+
+    public SendMetrics() {
+        for (int i = 0; i < outcomes.length; i++) {
+            outcomes[i] = new StripedCounter();
+        }
+        for (int i = 0; i < phases.length; i++) {
+            phases[i] = new LatencyHistogram();
+        }
+    }
+
+    public void sendStarted() {
+        inFlight.increment();
+    }
+
+    public void phaseCompleted(SendPhase phase, long nanos) {
+        phases[phase.ordinal()].record(nanos);
+    }
+
+    public void sendCompleted(PostmarkStatus status, long nanos) {
+        inFlight.decrement();
+        outcomes[status.ordinal()].increment();
+        latency.record(nanos);
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server as
+     * {@code com.postmark.java:type=SendMetrics,name=<name>}.
+     *
+     * @param name distinguishes clients in the same JVM
+     * @return the name the MBean was registered under
+     * @throws JMException if the name is invalid or already taken
+     */
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName("com.postmark.java:type=SendMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        this.objectName = objectName;
+        return objectName;
+    }
+
+    /**
+     * Removes these metrics from the platform MBean server, if they were registered.
+     *
+     * @throws JMException if the MBean could not be unregistered
+     */
+    public void unregister() throws JMException {
+        ObjectName objectName = this.objectName;
+        if (objectName != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            this.objectName = null;
+        }
+    }
+
+    public long getInFlight() {
+        return inFlight.sum();
+    }
+
+    /**
+     * @param status an outcome
+     * @return the number of sends that ended with that outcome
+     */
+    public long getCount(PostmarkStatus status) {
+        return outcomes[status.ordinal()].sum();
+    }
+
+    public long getSuccessCount() {
+        return getCount(PostmarkStatus.SUCCESS);
+    }
+
+    public long getUserErrorCount() {
+        return getCount(PostmarkStatus.USERERROR);
+    }
+
+    public long getServerErrorCount() {
+        return getCount(PostmarkStatus.SERVERERROR);
+    }
+
+    public long getThrottledCount() {
+        return getCount(PostmarkStatus.THROTTLED);
+    }
+
+    public long getCircuitOpenCount() {
+        return getCount(PostmarkStatus.CIRCUITOPEN);
+    }
+
+    public long getUnknownCount() {
+        return getCount(PostmarkStatus.UNKNOWN);
+    }
+
+    /**
+     * @param quantile between 0 and 1, for example 0.99
+     * @return the latency of whole sends at the quantile, in nanoseconds
+     */
+    public long getLatency(double quantile) {
+        return latency.percentile(quantile);
+    }
+
+    /**
+     * @param phase    a phase of the send
+     * @param quantile between 0 and 1, for example 0.99
+     * @return the latency of that phase at the quantile, in nanoseconds
+     */
+    public long getLatency(SendPhase phase, double quantile) {
+        return phases[phase.ordinal()].percentile(quantile);
+    }
+
+    public double getLatencyP50() {
+        return latency.percentile(0.5) / NANOS_PER_MILLI;
+    }
+
+    public double getLatencyP99() {
+        return latency.percentile(0.99) / NANOS_PER_MILLI;
+    }
+
+    public double getLatencyP999() {
+        return latency.percentile(0.999) / NANOS_PER_MILLI;
+    }
+
+    public double getPhaseLatency(String phase, double quantile) {
+        return getLatency(SendPhase.valueOf(phase), quantile) / NANOS_PER_MILLI;
+    }
+
+    /**
+     * Clears the counters and histograms. The in-flight gauge is left alone.
+     */
+    public void reset() {
+        for (StripedCounter outcome : outcomes) {
+            outcome.add(-outcome.sum());
+        }
+        latency.reset();
+        for (LatencyHistogram phase : phases) {
+            phase.reset();
+        }
+    }
+}
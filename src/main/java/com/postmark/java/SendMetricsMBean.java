@@ -0,0 +1,58 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+/**
+ * JMX view of {@link SendMetrics}. Latencies are in milliseconds.
+ */
+public interface SendMetricsMBean {
+
+    long getInFlight();
+
+    long getSuccessCount();
+
+    long getUserErrorCount();
+
+    long getServerErrorCount();
+
+    long getThrottledCount();
+
+    long getCircuitOpenCount();
+
+    long getUnknownCount();
+
+    double getLatencyP50();
+
+    double getLatencyP99();
+
+    double getLatencyP999();
+
+    /**
+     * @param phase    one of the {@link SendPhase} names, for example SERIALIZE
+     * @param quantile between 0 and 1, for example 0.99
+     * @return the latency of that phase at the quantile, in milliseconds
+     */
+    double getPhaseLatency(String phase, double quantile);
+
+    void reset();
+}
@@ -36,6 +36,13 @@ import com.google.gson.FieldAttributes;
 public class SkipMeExclusionStrategy implements ExclusionStrategy {
     private final Class<?> typeToSkip;
 
+    /**
+     * Skips only fields annotated with {@link SkipMe}.
+     */
+    public SkipMeExclusionStrategy() {
+        this(null);
+    }
+
     public SkipMeExclusionStrategy(Class<?> typeToSkip) {
         this.typeToSkip = typeToSkip;
     }
@@ -0,0 +1,339 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reflection-free {@link MessageCodec}.
+ * <p>
+ * Messages are written field by field with {@link JsonStreamWriter}, producing
+ * the same bytes as {@link GsonMessageCodec} without reflection, exclusion
+ * strategies or an intermediate String. Responses are read token by token.
+ * {@link TemplatedPostmarkMessage} models are written the same way when they
+ * hold Strings, numbers, booleans, Maps, Collections and arrays; any other
+ * model value is serialized by Gson. Subclasses of {@link PostmarkMessage}
+ * this codec does not know about are handed to the Gson fallback so that any
+ * fields they add are not lost.
+ * </p>
+ */
+public class StreamingMessageCodec implements MessageCodec {
+
+    private final MessageCodec fallback;
+    private final GsonMessageCodec gson;
+
+    public StreamingMessageCodec() {
+        this(new GsonMessageCodec());
+    }
+
+    /**
+     * @param fallback codec used for message types this codec can not write
+     */
+    public StreamingMessageCodec(MessageCodec fallback) {
+        this.fallback = fallback;
+        this.gson = (fallback instanceof GsonMessageCodec) ? (GsonMessageCodec) fallback : new GsonMessageCodec();
+    }
+
+    public void writeMessage(PostmarkMessage message, OutputStream out) throws IOException {
+        if (!canWrite(message)) {
+            fallback.writeMessage(message, out);
+            return;
+        }
+
+        byte[] buffer = BufferPool.DEFAULT.acquire();
+        try {
+            JsonStreamWriter writer = new JsonStreamWriter(out, buffer);
+            writeMessage(message, writer);
+            writer.flush();
+        } finally {
+            BufferPool.DEFAULT.release(buffer);
+        }
+    }
+
+    /**
+     * Computes the size of a message's JSON without producing it. Attachment
+     * sources of known length are not read.
+     *
+     * @return the number of bytes {@link #writeMessage(PostmarkMessage, OutputStream)} would write
+     */
+    long measure(PostmarkMessage message) throws IOException {
+        if (!canWrite(message)) {
+            return MessageEntity.count(fallback, message);
+        }
+
+        byte[] buffer = BufferPool.DEFAULT.acquire();
+        try {
+            JsonStreamWriter writer = JsonStreamWriter.measuring(buffer);
+            writeMessage(message, writer);
+            return writer.size();
+        } finally {
+            BufferPool.DEFAULT.release(buffer);
+        }
+    }
+
+    private static boolean canWrite(PostmarkMessage message) {
+        Class<?> type = message.getClass();
+        return type == PostmarkMessage.class || type == TemplatedPostmarkMessage.class;
+    }
+
+    void writeMessage(PostmarkMessage message, JsonStreamWriter writer) throws IOException {
+        MessageFragments fragments = message.fragments;
+        if (fragments != null && fragments.matches(message)) {
+            writeMessage(message, fragments, writer);
+            return;
+        }
+
+        writer.beginObject();
+        if (message instanceof TemplatedPostmarkMessage) {
+            // Gson writes a subclass's fields before those it inherits
+            writeTemplate((TemplatedPostmarkMessage) message, writer);
+        }
+        writer.field("From", message.getFromAddress());
+        writer.field("To", message.getToAddress());
+        writer.field("ReplyTo", message.getReplyToAddress());
+        writer.field("Cc", message.getCcAddress());
+        writer.field("Bcc", message.getBccAddress());
+        writer.field("Subject", message.getSubject());
+        writer.field("HtmlBody", message.getHtmlBody());
+        writer.field("TextBody", message.getTextBody());
+        writer.field("Tag", message.getTag());
+        writeHeaders(message.getHeaders(), writer);
+        writeAttachments(message.getAttachments(), writer);
+        writer.endObject();
+    }
+
+    // Splices the per-message fields between the prototype's pre-encoded ones
+    private static void writeMessage(PostmarkMessage message, MessageFragments fragments, JsonStreamWriter writer) throws IOException {
+        writer.beginObject();
+        writer.fragment(fragments.head);
+        writer.field("To", message.getToAddress());
+        writer.fragment(fragments.body);
+        writer.field("Tag", message.getTag());
+        writeHeaders(message.getHeaders(), writer);
+        if (fragments.tail != null) {
+            writer.fragment(fragments.tail);
+        } else {
+            writeAttachments(message.getAttachments(), writer);
+        }
+        writer.endObject();
+    }
+
+    private void writeTemplate(TemplatedPostmarkMessage message, JsonStreamWriter writer) throws IOException {
+        if (message.getTemplateId() != null) {
+            writer.name("TemplateId").value(message.getTemplateId().longValue());
+        }
+        writer.field("TemplateAlias", message.getTemplateAlias());
+        if (message.getTemplateModel() != null) {
+            writer.name("TemplateModel");
+            writeValue(message.getTemplateModel(), writer);
+        }
+        if (message.getInlineCss() != null) {
+            writer.name("InlineCss").value(message.getInlineCss().booleanValue());
+        }
+    }
+
+    // Writes a model value as Gson would with its runtime type
+    private void writeValue(Object value, JsonStreamWriter writer) throws IOException {
+        if (value == null) {
+            writer.nullValue();
+        } else if (value instanceof String) {
+            writer.value((String) value);
+        } else if (value instanceof Boolean) {
+            writer.value(((Boolean) value).booleanValue());
+        } else if (value instanceof Number) {
+            writer.value((Number) value);
+        } else if (value instanceof Character) {
+            writer.value(value.toString());
+        } else if (value instanceof Map) {
+            writer.beginObject();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                // Gson leaves out null map values unless told to serialize nulls
+                if (entry.getValue() != null) {
+                    writer.name(String.valueOf(entry.getKey()));
+                    writeValue(entry.getValue(), writer);
+                }
+            }
+            writer.endObject();
+        } else if (value instanceof Collection) {
+            writer.beginArray();
+            for (Object element : (Collection<?>) value) {
+                writeValue(element, writer);
+            }
+            writer.endArray();
+        } else if (value instanceof Object[]) {
+            writer.beginArray();
+            for (Object element : (Object[]) value) {
+                writeValue(element, writer);
+            }
+            writer.endArray();
+        } else {
+            writer.jsonValue(gson.toJson(value));
+        }
+    }
+
+    static void writeHeaders(List<NameValuePair> headers, JsonStreamWriter writer) throws IOException {
+        if (headers == null) {
+            return;
+        }
+        writer.name("Headers").beginArray();
+        for (NameValuePair header : headers) {
+            if (header == null) {
+                writer.nullValue();
+                continue;
+            }
+            writer.beginObject();
+            writer.field("name", header.getName());
+            writer.field("value", header.getValue());
+            writer.endObject();
+        }
+        writer.endArray();
+    }
+
+    static void writeAttachments(List<Attachment> attachments, JsonStreamWriter writer) throws IOException {
+        if (attachments == null) {
+            return;
+        }
+        writer.name("Attachments").beginArray();
+        for (Attachment attachment : attachments) {
+            if (attachment == null) {
+                writer.nullValue();
+                continue;
+            }
+            writer.beginObject();
+            writer.field("name", attachment.getName());
+            writer.field("contentType", attachment.getContentType());
+            if (attachment.getSource() != null) {
+                writer.name("content").base64Value(attachment.getSource());
+            } else {
+                writer.field("content", attachment.getContent());
+            }
+            writer.endObject();
+        }
+        writer.endArray();
+    }
+
+    public PostmarkResponse readResponse(Reader in) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        reader.setLenient(true);
+        try {
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                return null;
+            }
+            return readResponse(reader, new PostmarkResponse(), new IsoDateTimeParser());
+        } catch (IllegalStateException e) {
+            throw new IOException(e);
+        } catch (NumberFormatException e) {
+            throw new IOException(e);
+        }
+    }
+
+    public List<PostmarkResponse> readResponses(Reader in) throws IOException {
+        return readResponses(in, null);
+    }
+
+    /**
+     * Reads the response to a batch send into recycled response objects.
+     *
+     * @param recycled responses to refill before new ones are created, or null
+     */
+    List<PostmarkResponse> readResponses(Reader in, Deque<PostmarkResponse> recycled) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        reader.setLenient(true);
+        try {
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                return null;
+            }
+            List<PostmarkResponse> responses = new ArrayList<PostmarkResponse>();
+            IsoDateTimeParser dates = new IsoDateTimeParser();
+            reader.beginArray();
+            while (reader.hasNext()) {
+                PostmarkResponse response = (recycled == null) ? null : recycled.poll();
+                responses.add(readResponse(reader, (response == null) ? new PostmarkResponse() : reset(response), dates));
+            }
+            reader.endArray();
+            return responses;
+        } catch (IllegalStateException e) {
+            throw new IOException(e);
+        } catch (NumberFormatException e) {
+            throw new IOException(e);
+        }
+    }
+
+    PostmarkResponse readResponse(JsonReader reader, PostmarkResponse response, IsoDateTimeParser dates) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+            } else if (name.equals("ErrorCode")) {
+                response.errorCode = reader.nextInt();
+            } else if (name.equals("Message")) {
+                response.message = reader.nextString();
+            } else if (name.equals("MessageID")) {
+                response.messageId = reader.nextString();
+            } else if (name.equals("SubmittedAt")) {
+                response.submittedAt = dates.parse(reader.nextString());
+            } else if (name.equals("To")) {
+                response.to = reader.nextString();
+            } else if (name.equals("Status")) {
+                response.status = status(reader.nextString());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return response;
+    }
+
+    private static PostmarkResponse reset(PostmarkResponse response) {
+        response.status = null;
+        response.message = null;
+        response.submittedAt = null;
+        response.to = null;
+        response.errorCode = 0;
+        response.messageId = null;
+        return response;
+    }
+
+    // Gson maps unknown enum constants to null rather than failing
+    private static PostmarkStatus status(String name) {
+        for (PostmarkStatus status : PostmarkStatus.values()) {
+            if (status.name().equals(name)) {
+                return status;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,224 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import com.google.gson.annotations.SerializedName;
+
+import java.util.Map;
+
+/**
+ * A message rendered by Postmark from a stored template.
+ * <p>
+ * Instead of a subject and body the message names a template, by ID or by
+ * alias, and carries the model the template is rendered with. The model is
+ * usually a few hundred bytes, where a rendered HTML body is tens of
+ * kilobytes, so personalized sends upload and serialize far less. Model
+ * values may be Strings, numbers, booleans, Maps, Lists, arrays or any
+ * object Gson can serialize.
+ * </p>
+ * Sample code:
+ * <pre>
+ * {@code
+ * Map<String, Object> model = new HashMap<String, Object>();
+ * model.put("name", "Jane");
+ * model.put("product_url", "https://example.com/welcome");
+ *
+ * TemplatedPostmarkMessage message = new TemplatedPostmarkMessage(
+ *         "hello@example.com", "jane@example.com", "welcome", model);
+ * client.sendMessage(message);
+ * }
+ * </pre>
+ * Messages of this type are sent to {@code /email/withTemplate}, and batches of
+ * them to {@code /email/batchWithTemplates}.
+ */
+public class TemplatedPostmarkMessage extends PostmarkMessage {
+
+    // The ID of the template to render.
+    @SerializedName("TemplateId")
+    private Long templateId;
+
+    // The alias of the template to render, as an alternative to its ID.
+    @SerializedName("TemplateAlias")
+    private String templateAlias;
+
+    // The values the template is rendered with.
+    @SerializedName("TemplateModel")
+    private Map<String, Object> templateModel;
+
+    // Whether Postmark inlines the template's CSS. This is optional.
+    @SerializedName("InlineCss")
+    private Boolean inlineCss;
+
+
+    public TemplatedPostmarkMessage(String fromAddress, String toAddress, long templateId, Map<String, Object> templateModel) {
+
+        super(fromAddress, toAddress, null, null, null, null, null, false, null, null);
+
+        this.templateId = templateId;
+        this.templateModel = templateModel;
+    }
+
+    public TemplatedPostmarkMessage(String fromAddress, String toAddress, String templateAlias, Map<String, Object> templateModel) {
+
+        super(fromAddress, toAddress, null, null, null, null, null, false, null, null);
+
+        this.templateAlias = templateAlias;
+        this.templateModel = templateModel;
+    }
+
+    // Copy Constructor
+
+    public TemplatedPostmarkMessage(TemplatedPostmarkMessage message) {
+
+        super(message);
+
+        this.templateId = message.templateId;
+        this.templateAlias = message.templateAlias;
+        this.templateModel = message.templateModel;
+        this.inlineCss = message.inlineCss;
+    }
+
+    /**
+     * Trims the addresses. Unlike a plain message the subject comes from the
+     * template, so it is left alone.
+     */
+    @Override
+    public void clean() {
+        setFromAddress(getFromAddress().trim());
+        setToAddress(getToAddress().trim());
+    }
+
+    @Override
+    boolean isClean() {
+        return isTrimmed(getFromAddress()) && isTrimmed(getToAddress());
+    }
+
+    @Override
+    public void validate() throws PostmarkException {
+
+        super.validate();
+
+        if (templateId == null && (templateAlias == null || templateAlias.equals(""))) {
+            throw new PostmarkException("You must specify a template ID or alias.");
+        }
+    }
+
+
+    /**
+     * @return the ID of the template, or null when it is named by alias
+     */
+    public Long getTemplateId() {
+        return templateId;
+    }
+
+    /**
+     * @param templateId The ID of the template to render
+     */
+    public void setTemplateId(Long templateId) {
+        this.templateId = templateId;
+    }
+
+    /**
+     * @return the alias of the template, or null when it is named by ID
+     */
+    public String getTemplateAlias() {
+        return templateAlias;
+    }
+
+    /**
+     * @param templateAlias The alias of the template to render
+     */
+    public void setTemplateAlias(String templateAlias) {
+        this.templateAlias = templateAlias;
+    }
+
+    /**
+     * @return the values the template is rendered with
+     */
+    public Map<String, Object> getTemplateModel() {
+        return templateModel;
+    }
+
+    /**
+     * @param templateModel The values the template is rendered with
+     */
+    public void setTemplateModel(Map<String, Object> templateModel) {
+        this.templateModel = templateModel;
+    }
+
+    /**
+     * @return whether Postmark inlines the template's CSS, or null for its default
+     */
+    public Boolean getInlineCss() {
+        return inlineCss;
+    }
+
+    /**
+     * @param inlineCss Whether Postmark inlines the template's CSS
+     */
+    public void setInlineCss(Boolean inlineCss) {
+        this.inlineCss = inlineCss;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        if (!super.equals(o)) return false;
+
+        TemplatedPostmarkMessage that = (TemplatedPostmarkMessage) o;
+
+        if (templateId != null ? !templateId.equals(that.templateId) : that.templateId != null) return false;
+        if (templateAlias != null ? !templateAlias.equals(that.templateAlias) : that.templateAlias != null)
+            return false;
+        if (templateModel != null ? !templateModel.equals(that.templateModel) : that.templateModel != null)
+            return false;
+        if (inlineCss != null ? !inlineCss.equals(that.inlineCss) : that.inlineCss != null) return false;
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = super.hashCode();
+        result = 31 * result + (templateId != null ? templateId.hashCode() : 0);
+        result = 31 * result + (templateAlias != null ? templateAlias.hashCode() : 0);
+        result = 31 * result + (templateModel != null ? templateModel.hashCode() : 0);
+        result = 31 * result + (inlineCss != null ? inlineCss.hashCode() : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("TemplatedPostmarkMessage");
+        sb.append("{ fromAddress='").append(getFromAddress()).append('\'');
+        sb.append(", toAddress='").append(getToAddress()).append('\'');
+        sb.append(", templateId=").append(templateId);
+        sb.append(", templateAlias='").append(templateAlias).append('\'');
+        sb.append(", templateModel=").append(templateModel);
+        sb.append(", tag='").append(getTag()).append('\'');
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,128 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AddressListTest {
+
+    @Test
+    public void parsesEntries() {
+        assertEquals(Arrays.asList("a@example.com", "b@example.com"), AddressList.parse(" a@example.com,b@example.com , "));
+        assertTrue(AddressList.parse(null).isEmpty());
+        assertTrue(AddressList.parse(" , ").isEmpty());
+    }
+
+    @Test
+    public void keepsCommasInDisplayNames() {
+        List<String> entries = AddressList.parse("\"Doe, Jane\" <jane@example.com>, \"A \\\" , B\" <b@example.com>,c@example.com");
+
+        assertEquals(Arrays.asList("\"Doe, Jane\" <jane@example.com>", "\"A \\\" , B\" <b@example.com>", "c@example.com"), entries);
+    }
+
+    @Test
+    public void joinsEntries() {
+        assertEquals("a@example.com, Bee <b@example.com>", AddressList.join(Arrays.asList("a@example.com", " Bee <b@example.com>")));
+        assertNull(AddressList.join(Collections.<String>emptyList()));
+    }
+
+    @Test
+    public void extractsAddress() {
+        assertEquals("jane@example.com", AddressList.address("\"Doe, Jane\" <jane@example.com>"));
+        assertEquals("jane@example.com", AddressList.address(" jane@example.com "));
+    }
+
+    @Test
+    public void dedupesIgnoringCaseAndNames() {
+        List<String> unique = AddressList.dedupe(Arrays.asList("a@example.com", "Ann <A@Example.com>", "b@example.com"));
+
+        assertEquals(Arrays.asList("a@example.com", "b@example.com"), unique);
+    }
+
+    @Test
+    public void leavesSmallMessagesAlone() throws Exception {
+        PostmarkMessage message = message(recipients(0, 2), null, null);
+
+        assertSame(message, RecipientSplitter.split(message, 50).get(0));
+    }
+
+    @Test
+    public void dedupesAcrossFields() throws Exception {
+        PostmarkMessage message = message("a@example.com, A@example.com", "a@EXAMPLE.com, c@example.com", "c@example.com");
+
+        List<PostmarkMessage> parts = RecipientSplitter.split(message, 50);
+
+        assertEquals(1, parts.size());
+        assertEquals("a@example.com", parts.get(0).getToAddress());
+        assertEquals("c@example.com", parts.get(0).getCcAddress());
+        assertNull(parts.get(0).getBccAddress());
+        assertEquals("a@example.com, A@example.com", message.getToAddress());
+    }
+
+    @Test
+    public void splitsLargeMessages() throws Exception {
+        PostmarkMessage message = message(recipients(0, 70), recipients(70, 20), recipients(90, 30));
+
+        List<PostmarkMessage> parts = RecipientSplitter.split(message, 50);
+
+        assertEquals(3, parts.size());
+        int total = 0;
+        for (PostmarkMessage part : parts) {
+            int count = part.getToAddresses().size() + part.getCcAddresses().size() + part.getBccAddresses().size();
+            assertTrue(count <= 50);
+            assertTrue(part.getToAddresses().size() > 0);
+            assertEquals(message.getSubject(), part.getSubject());
+            total += count;
+        }
+        assertEquals(120, total);
+    }
+
+    @Test(expected = PostmarkException.class)
+    public void needsEnoughToRecipientsToSplit() throws Exception {
+        RecipientSplitter.split(message("a@example.com", null, recipients(0, 60)), 50);
+    }
+
+    private static PostmarkMessage message(String to, String cc, String bcc) {
+        PostmarkMessage message = new PostmarkMessage("from@example.com", to, null, null, "Subject", "Body", false, null);
+        message.setCcAddress(cc);
+        message.setBccAddress(bcc);
+        return message;
+    }
+
+    static String recipients(int from, int count) {
+        String[] addresses = new String[count];
+        for (int i = 0; i < count; i++) {
+            addresses[i] = "user" + (from + i) + "@example.com";
+        }
+        return AddressList.join(Arrays.asList(addresses));
+    }
+}
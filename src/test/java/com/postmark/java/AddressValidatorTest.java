@@ -0,0 +1,113 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AddressValidatorTest {
+
+    private static final String[] VALID = {
+            "jane@example.com",
+            "  jane@example.com  ",
+            "jane.doe+news@mail.example.co.uk",
+            "o'brien@example.ie",
+            "\"jane doe\"@example.com",
+            "\"a@b\"@example.com",
+            "Jane Doe <jane@example.com>",
+            "\"Doe, Jane\" <jane@example.com>",
+            "John Q. Public <john@example.com>",
+            "<jane@example.com>",
+            "jane@[192.0.2.1]",
+            "j\u00f6rg@b\u00fccher.example",
+            "jane@xn--bcher-kva.example",
+            "jane@a-b.example.com"
+    };
+
+    private static final String[] INVALID = {
+            "",
+            "jane",
+            "jane@",
+            "@example.com",
+            "jane@localhost",
+            "jane@@example.com",
+            "jane..doe@example.com",
+            ".jane@example.com",
+            "jane.@example.com",
+            "jane doe@example.com",
+            "jane@-example.com",
+            "jane@example-.com",
+            "jane@example..com",
+            "jane@example.com.",
+            "jane@exa_mple.com",
+            "Jane <jane@example.com",
+            "Jane jane@example.com>",
+            "Jane <jane@example.com> extra",
+            "\"unterminated <jane@example.com>",
+            "Jane <jane@example.com> <joe@example.com>",
+            "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa@example.com"
+    };
+
+    @Test
+    public void acceptsValidAddresses() {
+        for (String address : VALID) {
+            assertTrue(address, AddressValidator.isValidAddress(address));
+            assertTrue(address, AddressValidator.isValidAddressList(address));
+        }
+    }
+
+    @Test
+    public void rejectsInvalidAddresses() {
+        for (String address : INVALID) {
+            assertFalse(address, AddressValidator.isValidAddress(address));
+        }
+        assertFalse(AddressValidator.isValidAddress(null));
+    }
+
+    @Test
+    public void countsListEntries() {
+        assertEquals(3, AddressValidator.count("a@example.com, \"Doe, Jane\" <jane@example.com>,b@example.org"));
+        assertEquals(-1, AddressValidator.count("a@example.com,,b@example.org"));
+        assertEquals(-1, AddressValidator.count("a@example.com, b@"));
+        assertEquals(-1, AddressValidator.count("a@example.com,"));
+        assertFalse(AddressValidator.isValidAddress("a@example.com, b@example.com"));
+    }
+
+    @Test
+    public void cachedDomainsGiveTheSameAnswer() {
+        for (int i = 0; i < 3; i++) {
+            assertTrue(AddressValidator.isValidAddress("user" + i + "@EXAMPLE.com"));
+            assertTrue(AddressValidator.isValidAddress("user" + i + "@example.COM"));
+            assertFalse(AddressValidator.isValidAddress("user" + i + "@example"));
+        }
+    }
+
+    @Test(expected = PostmarkException.class)
+    public void messageValidationChecksCc() throws PostmarkException {
+        new PostmarkMessage("from@example.com", "to@example.com", null, "not an address", "Subject", "Body", false, null)
+                .validate();
+    }
+}
@@ -0,0 +1,90 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class AttachmentCacheTest {
+
+    @Test
+    public void identicalContentIsEncodedOnce() throws Exception {
+        AttachmentCache cache = new AttachmentCache(1024);
+        byte[] logo = "logo".getBytes("US-ASCII");
+
+        Attachment first = cache.attach("logo.png", "image/png", logo);
+        Attachment second = cache.attach("brand.png", "image/png", ByteBuffer.wrap(logo.clone()));
+
+        assertEquals("bG9nbw==", first.getContent());
+        assertSame(first.getContent(), second.getContent());
+        assertEquals("brand.png", second.getName());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getEntryCount());
+        assertEquals(8, cache.getSize());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        AttachmentCache cache = new AttachmentCache(16);
+        Attachment a = cache.attach("a", "text/plain", new byte[3]);
+        cache.attach("b", "text/plain", new byte[4]);
+        cache.attach("a", "text/plain", new byte[3]);
+        cache.attach("c", "text/plain", new byte[5]);
+
+        // a (4 chars) was used after b (8 chars), so b made room for c (8 chars)
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(12, cache.getSize());
+        assertSame(a.getContent(), cache.attach("a", "text/plain", new byte[3]).getContent());
+        long misses = cache.getMissCount();
+        cache.attach("b", "text/plain", new byte[4]);
+        assertEquals(misses + 1, cache.getMissCount());
+    }
+
+    @Test
+    public void internSharesExistingContent() {
+        AttachmentCache cache = new AttachmentCache(1024);
+        Attachment first = new Attachment();
+        first.setContent(new String("SGVsbG8="));
+        Attachment second = new Attachment();
+        second.setContent(new String("SGVsbG8="));
+
+        cache.intern(first);
+        cache.intern(second);
+
+        assertSame(first.getContent(), second.getContent());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void oversizedContentIsNotKept() {
+        AttachmentCache cache = new AttachmentCache(4);
+        cache.attach("big", "application/octet-stream", new byte[30]);
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(0, cache.getSize());
+    }
+}
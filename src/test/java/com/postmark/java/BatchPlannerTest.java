@@ -0,0 +1,59 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class BatchPlannerTest {
+
+    @Test
+    public void splitsOnMessageCount() {
+        List<int[]> batches = BatchPlanner.plan(new long[1201], 500, Long.MAX_VALUE);
+
+        assertEquals(3, batches.size());
+        assertArrayEquals(new int[]{0, 500}, batches.get(0));
+        assertArrayEquals(new int[]{500, 1000}, batches.get(1));
+        assertArrayEquals(new int[]{1000, 1201}, batches.get(2));
+    }
+
+    @Test
+    public void splitsOnPayloadBytes() {
+        // [a,b] is 2 + 4 + 1 + 4 = 11 bytes, [a,b,c] would be 16
+        List<int[]> batches = BatchPlanner.plan(new long[]{4, 4, 4, 10}, 500, 11);
+
+        assertEquals(3, batches.size());
+        assertArrayEquals(new int[]{0, 2}, batches.get(0));
+        assertArrayEquals(new int[]{2, 3}, batches.get(1));
+        assertArrayEquals(new int[]{3, 4}, batches.get(2));
+    }
+
+    @Test
+    public void handlesEmptyInput() {
+        assertEquals(0, BatchPlanner.plan(new long[0], 500, 100).size());
+    }
+}
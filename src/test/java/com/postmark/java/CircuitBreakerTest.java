@@ -0,0 +1,184 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+
+    private long time = 1000000;
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        CircuitBreaker breaker = breaker(new CircuitBreakerConfig());
+
+        for (int i = 0; i < 4; i++) {
+            long permit = breaker.acquirePermit();
+            assertTrue(permit != CircuitBreaker.REJECTED);
+            breaker.recordFailure(permit);
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        breaker.recordFailure(breaker.acquirePermit());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(CircuitBreaker.REJECTED, breaker.acquirePermit());
+    }
+
+    @Test
+    public void opensOnFailureRateInWindow() {
+        CircuitBreakerConfig config = new CircuitBreakerConfig();
+        config.setMinimumRequests(10);
+        config.setFailureRate(0.5);
+        CircuitBreaker breaker = breaker(config);
+
+        for (int i = 0; i < 9; i++) {
+            breaker.recordSuccess(breaker.acquirePermit());
+            breaker.recordFailure(breaker.acquirePermit());
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void forgetsFailuresOutsideWindow() {
+        CircuitBreakerConfig config = new CircuitBreakerConfig();
+        config.setMinimumRequests(4);
+        config.setConsecutiveFailures(100);
+        CircuitBreaker breaker = breaker(config);
+
+        breaker.recordFailure(breaker.acquirePermit());
+        breaker.recordFailure(breaker.acquirePermit());
+        breaker.recordFailure(breaker.acquirePermit());
+        time += config.getWindow() * 2;
+        breaker.recordSuccess(breaker.acquirePermit());
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void halfOpenProbesCloseTheCircuit() {
+        CircuitBreakerConfig config = new CircuitBreakerConfig();
+        config.setConsecutiveFailures(1);
+        config.setHalfOpenProbes(2);
+        CircuitBreaker breaker = breaker(config);
+        List<String> transitions = listen(breaker);
+
+        breaker.recordFailure(breaker.acquirePermit());
+        time += config.getOpenDuration();
+
+        long first = breaker.acquirePermit();
+        long second = breaker.acquirePermit();
+        assertTrue(first != CircuitBreaker.REJECTED);
+        assertTrue(second != CircuitBreaker.REJECTED);
+        assertEquals(CircuitBreaker.REJECTED, breaker.acquirePermit());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        breaker.recordSuccess(first);
+        breaker.recordSuccess(second);
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals("[CLOSED>OPEN, OPEN>HALF_OPEN, HALF_OPEN>CLOSED]", transitions.toString());
+    }
+
+    @Test
+    public void abandonedProbeFreesItsSlot() {
+        CircuitBreakerConfig config = new CircuitBreakerConfig();
+        config.setConsecutiveFailures(1);
+        config.setHalfOpenProbes(1);
+        CircuitBreaker breaker = breaker(config);
+
+        breaker.recordFailure(breaker.acquirePermit());
+        time += config.getOpenDuration();
+        long probe = breaker.acquirePermit();
+        assertTrue(probe != CircuitBreaker.REJECTED);
+        assertEquals(CircuitBreaker.REJECTED, breaker.acquirePermit());
+
+        breaker.recordAbandoned(probe);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        probe = breaker.acquirePermit();
+        assertTrue(probe != CircuitBreaker.REJECTED);
+        breaker.recordSuccess(probe);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void failedProbeReopensTheCircuit() {
+        CircuitBreakerConfig config = new CircuitBreakerConfig();
+        config.setConsecutiveFailures(1);
+        CircuitBreaker breaker = breaker(config);
+
+        breaker.recordFailure(breaker.acquirePermit());
+        time += config.getOpenDuration();
+        long probe = breaker.acquirePermit();
+        assertTrue(probe != CircuitBreaker.REJECTED);
+        breaker.recordFailure(probe);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(CircuitBreaker.REJECTED, breaker.acquirePermit());
+    }
+
+    @Test
+    public void staleSuccessDoesNotCloseTheCircuit() {
+        CircuitBreakerConfig config = new CircuitBreakerConfig();
+        config.setConsecutiveFailures(1);
+        config.setHalfOpenProbes(1);
+        CircuitBreaker breaker = breaker(config);
+
+        // A slow request starts while the circuit is still closed
+        long slow = breaker.acquirePermit();
+        breaker.recordFailure(breaker.acquirePermit());
+        time += config.getOpenDuration();
+        long probe = breaker.acquirePermit();
+        assertTrue(probe != CircuitBreaker.REJECTED);
+
+        breaker.recordSuccess(slow);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        breaker.recordSuccess(probe);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    private CircuitBreaker breaker(CircuitBreakerConfig config) {
+        return new CircuitBreaker(config) {
+            @Override
+            long now() {
+                return time;
+            }
+        };
+    }
+
+    private static List<String> listen(CircuitBreaker breaker) {
+        final List<String> transitions = new ArrayList<String>();
+        breaker.addListener(new CircuitBreakerListener() {
+            public void onStateChange(CircuitBreaker breaker, CircuitBreaker.State from, CircuitBreaker.State to) {
+                transitions.add(from + ">" + to);
+            }
+        });
+        return transitions;
+    }
+}
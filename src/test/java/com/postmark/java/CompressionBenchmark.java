@@ -0,0 +1,132 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import org.apache.http.HttpEntity;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares request bodies sent with and without gzip compression.
+ * <p>
+ * For a range of payloads it reports the bytes on the wire, the time spent
+ * producing them, and the resulting time to put one request on the wire at a
+ * few link speeds (encoding time plus transfer time).
+ * </p>
+ * Run with: {@code java -cp ... com.postmark.java.CompressionBenchmark}
+ */
+public class CompressionBenchmark {
+
+    private static final int ITERATIONS = 50;
+    private static final double[] LINKS_MBIT = {10, 100, 1000};
+
+    public static void main(String[] args) throws IOException {
+        MessageCodec codec = new StreamingMessageCodec();
+
+        System.out.println(String.format("%-28s %12s %12s %8s %10s %10s %s",
+                "payload", "raw bytes", "gzip bytes", "ratio", "raw ms", "gzip ms", "wire ms raw/gzip @ 10/100/1000 Mbit"));
+
+        for (int kb : new int[]{4, 16, 64, 200, 400}) {
+            PostmarkMessage message = message(kb * 1024, kb);
+            report(kb + " KB HTML", new MessageEntity(codec, message));
+        }
+
+        for (int count : new int[]{50, 500}) {
+            List<BatchEntity.Part> parts = new ArrayList<BatchEntity.Part>();
+            for (int i = 0; i < count; i++) {
+                parts.add(new BatchEntity.Part(codec, message(20 * 1024, i)));
+            }
+            report("batch of " + count + " x 20 KB", new BatchEntity(codec, parts));
+        }
+    }
+
+    private static void report(String name, HttpEntity entity) throws IOException {
+        HttpEntity gzip = new GzipEntity(entity);
+
+        // Warm up both paths before timing them
+        for (int i = 0; i < ITERATIONS; i++) {
+            write(entity);
+            write(gzip);
+        }
+
+        long rawBytes = 0;
+        long rawStart = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            rawBytes = write(entity);
+        }
+        double rawMillis = (System.nanoTime() - rawStart) / 1e6 / ITERATIONS;
+
+        long gzipBytes = 0;
+        long gzipStart = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            gzipBytes = write(gzip);
+        }
+        double gzipMillis = (System.nanoTime() - gzipStart) / 1e6 / ITERATIONS;
+
+        StringBuilder wire = new StringBuilder();
+        for (double mbit : LINKS_MBIT) {
+            double bytesPerMilli = mbit * 1000000 / 8 / 1000;
+            wire.append(String.format(" %.1f/%.1f", rawMillis + rawBytes / bytesPerMilli, gzipMillis + gzipBytes / bytesPerMilli));
+        }
+
+        System.out.println(String.format("%-28s %12d %12d %7.1f%% %10.3f %10.3f%s",
+                name, rawBytes, gzipBytes, 100.0 * gzipBytes / rawBytes, rawMillis, gzipMillis, wire));
+    }
+
+    private static long write(HttpEntity entity) throws IOException {
+        final long[] count = new long[1];
+        entity.writeTo(new OutputStream() {
+            @Override
+            public void write(int b) {
+                count[0]++;
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) {
+                count[0] += length;
+            }
+        });
+        return count[0];
+    }
+
+    // Marketing-style HTML: repetitive markup around varying text
+    private static PostmarkMessage message(int size, long seed) {
+        Random random = new Random(seed);
+        StringBuilder html = new StringBuilder(size + 256);
+        html.append("<html><body><table width=\"100%\" cellpadding=\"0\" cellspacing=\"0\">");
+        while (html.length() < size) {
+            html.append("<tr><td style=\"font-family: Arial, sans-serif; font-size: 14px; color: #333333;\">");
+            html.append("<a href=\"https://example.com/products/").append(random.nextInt(100000)).append("?utm_source=newsletter\">");
+            html.append("Product ").append(random.nextInt(1000)).append("</a> only $").append(random.nextInt(500)).append(".99");
+            html.append("</td></tr>");
+        }
+        html.append("</table></body></html>");
+
+        return new PostmarkMessage("news@example.com", "reader@example.com", null, null,
+                "This week's offers", html.toString(), true, "newsletter");
+    }
+}
@@ -0,0 +1,197 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class DeduplicationWindowTest {
+
+    private PostmarkStubServer server;
+    private PostmarkClient client;
+    private DeduplicationWindow window;
+
+    @Before
+    public void start() throws Exception {
+        server = PostmarkStubServer.start("token");
+        window = new DeduplicationWindow(1, TimeUnit.MINUTES, 100);
+        PostmarkClientConfig config = new PostmarkClientConfig();
+        config.setApiUrl(server.getUrl());
+        config.setDeduplicationWindow(window);
+        client = new PostmarkClient("token", config);
+    }
+
+    @After
+    public void stop() {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void fingerprintsContent() {
+        assertEquals(MessageFingerprint.of(message("a")), MessageFingerprint.of(message("a")));
+        assertNotEquals(MessageFingerprint.of(message("a")), MessageFingerprint.of(message("b")));
+
+        PostmarkMessage shifted = message("a");
+        shifted.setSubject("Subjec");
+        shifted.setTag("ta");
+        PostmarkMessage original = message("a");
+        original.setTag("a");
+        assertNotEquals(MessageFingerprint.of(original), MessageFingerprint.of(shifted));
+    }
+
+    @Test
+    public void fingerprintsNullAttachments() throws Exception {
+        Attachment attachment = new Attachment();
+        attachment.setName("a.txt");
+        attachment.setContentType("text/plain");
+        attachment.setContent("YQ==");
+        PostmarkMessage withNull = message("a");
+        withNull.setAttachments(Arrays.asList(attachment, null));
+        PostmarkMessage without = message("a");
+        without.setAttachments(Arrays.asList(attachment));
+
+        assertEquals(MessageFingerprint.of(withNull), MessageFingerprint.of(new PostmarkMessage(withNull)));
+        assertNotEquals(MessageFingerprint.of(withNull), MessageFingerprint.of(without));
+        assertEquals(PostmarkStatus.SUCCESS, client.sendMessage(withNull).getStatus());
+    }
+
+    @Test
+    public void fingerprintsModelsWhateverTheirOrder() {
+        Map<String, Object> first = new LinkedHashMap<String, Object>();
+        first.put("name", "Jane");
+        first.put("count", 1);
+        Map<String, Object> second = new TreeMap<String, Object>(first);
+        Map<String, Object> other = new HashMap<String, Object>(first);
+        other.put("count", "1");
+
+        assertEquals(MessageFingerprint.of(templated(first)), MessageFingerprint.of(templated(second)));
+        assertNotEquals(MessageFingerprint.of(templated(first)), MessageFingerprint.of(templated(other)));
+    }
+
+    @Test
+    public void doesNotFingerprintStreamedAttachments() {
+        PostmarkMessage message = message("a");
+        message.setAttachments(Arrays.asList(Attachment.fromByteBuffer("a.txt", "text/plain",
+                java.nio.ByteBuffer.wrap(new byte[]{1, 2, 3}))));
+
+        assertNull(MessageFingerprint.of(message));
+    }
+
+    @Test
+    public void equalsComparesTags() {
+        PostmarkMessage tagged = message("a");
+        tagged.setTag("receipts");
+        PostmarkMessage other = message("a");
+        other.setTag("receipts");
+
+        assertEquals(tagged, other);
+        other.setTag("to@example.com");
+        assertFalse(tagged.equals(other));
+    }
+
+    @Test
+    public void returnsTheOriginalResponseForDuplicates() throws Exception {
+        PostmarkResponse first = client.sendMessage(message("a"));
+        PostmarkResponse second = client.sendMessage(message("a"));
+
+        assertSame(first, second);
+        assertEquals(1, server.getMessageCount());
+        assertEquals(1, window.getDuplicateCount());
+    }
+
+    @Test
+    public void usesIdempotencyKeys() throws Exception {
+        PostmarkMessage first = message("a");
+        first.setIdempotencyKey("order-1");
+        PostmarkMessage retried = message("a changed");
+        retried.setIdempotencyKey("order-1");
+
+        assertSame(client.sendMessage(first), client.sendMessage(retried));
+        assertEquals(1, server.getMessageCount());
+    }
+
+    @Test
+    public void forgetsFailedSends() throws Exception {
+        server.setErrorRate(500, 1.0);
+        try {
+            client.sendMessage(message("a"));
+            fail("Expected a PostmarkException");
+        } catch (PostmarkException e) {
+            assertEquals(PostmarkStatus.SERVERERROR, e.getResponse().getStatus());
+        }
+        server.reset();
+
+        assertEquals(PostmarkStatus.SUCCESS, client.sendMessage(message("a")).getStatus());
+        assertEquals(1, server.getMessageCount());
+    }
+
+    @Test
+    public void dedupesWithinBatches() throws Exception {
+        client.sendMessage(message("a"));
+
+        List<PostmarkResponse> responses = client.sendMessages(Arrays.asList(message("a"), message("b"), message("b")));
+
+        assertEquals(PostmarkStatus.SUCCESS, responses.get(0).getStatus());
+        assertSame(responses.get(1), responses.get(2));
+        assertEquals(2, server.getMessageCount());
+    }
+
+    @Test
+    public void dropsOldestBeyondCapacity() throws Exception {
+        DeduplicationWindow small = new DeduplicationWindow(1, TimeUnit.MINUTES, 2);
+        PostmarkResponse accepted = new PostmarkResponse();
+        accepted.setStatus(PostmarkStatus.SUCCESS);
+        for (String body : new String[]{"a", "b", "c"}) {
+            small.claim(message(body)).complete(accepted);
+        }
+
+        assertEquals(2, small.size());
+        assertEquals(true, small.claim(message("a")).isOwner());
+        assertEquals(false, small.claim(message("c")).isOwner());
+    }
+
+    private static PostmarkMessage message(String body) {
+        return new PostmarkMessage("from@example.com", "to@example.com", null, null, "Subject", body, false, null);
+    }
+
+    private static TemplatedPostmarkMessage templated(Map<String, Object> model) {
+        return new TemplatedPostmarkMessage("from@example.com", "to@example.com", "welcome", model);
+    }
+}
@@ -0,0 +1,88 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+public class IsoDateTimeParserTest {
+
+    @Test
+    public void matchesJoda() {
+        String[] samples = {
+                "2014-02-17T07:25:01.4178645-05:00",
+                "2014-02-17T07:25:01-05:00",
+                "2014-02-17T07:25:01Z",
+                "2014-02-17T07:25:01.1Z",
+                "2014-02-17T07:25:01.12+05:30",
+                "2014-02-17T07:25:01.999999999Z",
+                "2000-02-29T23:59:59.5-12:00",
+                "1969-12-31T23:59:59.999Z",
+                "1600-03-01T00:00:00+14:00",
+        };
+        for (String sample : samples) {
+            assertEquals(sample, new DateTime(sample), IsoDateTimeParser.parseDateTime(sample));
+        }
+    }
+
+    @Test
+    public void matchesJodaForRandomInstants() {
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            long millis = (random.nextLong() % (400L * 365 * 86400000L));
+            DateTimeZone zone = DateTimeZone.forOffsetMillis((random.nextInt(28 * 4) - 14 * 4) * 15 * 60000);
+            String text = new DateTime(millis, zone).toString();
+            assertEquals(text, new DateTime(text), IsoDateTimeParser.parseDateTime(text));
+        }
+    }
+
+    @Test
+    public void fallsBackForOtherLayouts() {
+        String[] samples = {"2014-02-17", "2014-02-17T07:25", "2014-02-17T07:25:01", "2014-02-17T07:25:01+0500", "2014-W07-1"};
+        for (String sample : samples) {
+            assertEquals(Long.MIN_VALUE, IsoDateTimeParser.parseMillis(sample));
+            assertEquals(sample, new DateTime(sample), IsoDateTimeParser.parseDateTime(sample));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidDates() {
+        IsoDateTimeParser.parseDateTime("2014-02-30T07:25:01Z");
+    }
+
+    @Test
+    public void remembersTheLastTimestamp() {
+        IsoDateTimeParser parser = new IsoDateTimeParser();
+        DateTime first = parser.parse("2014-02-17T07:25:01Z");
+
+        assertSame(first, parser.parse("2014-02-17T07:25:01Z"));
+        assertNotEquals(first, parser.parse("2014-02-17T07:25:02Z"));
+    }
+}
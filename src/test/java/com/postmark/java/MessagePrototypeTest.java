@@ -0,0 +1,156 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class MessagePrototypeTest {
+
+    @Test
+    public void derivedMessagesShareContent() {
+        Attachment attachment = new Attachment();
+        attachment.setName("terms.pdf");
+        attachment.setContentType("application/pdf");
+        attachment.setContent("SGVsbG8=");
+
+        String html = "<p>Hello</p>";
+        MessagePrototype prototype = new MessagePrototype.Builder()
+                .from(" news@example.com ")
+                .subject("Offers")
+                .htmlBody(html)
+                .tag("newsletter")
+                .header("X-Campaign", "42")
+                .attachment(attachment)
+                .build();
+
+        PostmarkMessage first = prototype.to("a@example.com ");
+        PostmarkMessage second = prototype.to("b@example.com", "vip",
+                Collections.singletonList(new NameValuePair("X-Recipient", "b")));
+
+        assertSame(html, first.getHtmlBody());
+        assertSame(first.getAttachments(), second.getAttachments());
+        assertEquals("news@example.com", first.getFromAddress());
+        assertEquals("a@example.com", first.getToAddress());
+        assertEquals("newsletter", first.getTag());
+        assertEquals(1, first.getHeaders().size());
+
+        assertEquals("vip", second.getTag());
+        assertEquals(2, second.getHeaders().size());
+        assertEquals("X-Recipient", second.getHeaders().get(1).getName());
+
+        // Derived messages need no cleaning, so they are sent as they are
+        assertSame(first, PostmarkClient.cleaned(first));
+    }
+
+    @Test
+    public void frozenPrototypeSerializesLikeGson() throws IOException {
+        Attachment attachment = new Attachment();
+        attachment.setName("terms.pdf");
+        attachment.setContentType("application/pdf");
+        attachment.setContent("SGVsbG8=");
+
+        MessagePrototype prototype = new MessagePrototype.Builder()
+                .from("news@example.com")
+                .replyTo("reply@example.com")
+                .subject("Offers \u2603")
+                .htmlBody("<p>\"Hello\"</p>")
+                .header("X-Campaign", "42")
+                .attachment(attachment)
+                .freeze()
+                .build();
+
+        StreamingMessageCodec streaming = new StreamingMessageCodec();
+        GsonMessageCodec gson = new GsonMessageCodec();
+
+        PostmarkMessage message = prototype.to("a@example.com", "vip",
+                Collections.singletonList(new NameValuePair("X-Recipient", "a")));
+        assertArrayEquals(toBytes(gson, message), toBytes(streaming, message));
+        assertEquals(toBytes(gson, message).length, streaming.measure(message));
+
+        // Replacing a shared field must not leave the old fragment in place
+        message.setSubject("Changed");
+        message.setAttachments(null);
+        assertArrayEquals(toBytes(gson, message), toBytes(streaming, message));
+
+        PostmarkMessage bare = new MessagePrototype.Builder().from("a@example.com").textBody("Hi").freeze().build().to("b@example.com");
+        assertArrayEquals(toBytes(gson, bare), toBytes(streaming, bare));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOneShotAttachments() {
+        new MessagePrototype.Builder().attachment(
+                Attachment.fromInputStream("a.txt", "text/plain", new ByteArrayInputStream(new byte[1])));
+    }
+
+    @Test
+    public void cleaningLeavesCallersMessageAlone() {
+        PostmarkMessage message = new PostmarkMessage(" from@example.com", "to@example.com ", null, null,
+                null, "Body", false, "tag");
+
+        PostmarkMessage cleaned = PostmarkClient.cleaned(message);
+
+        assertNotSame(message, cleaned);
+        assertEquals(" from@example.com", message.getFromAddress());
+        assertEquals("from@example.com", cleaned.getFromAddress());
+        assertEquals("to@example.com", cleaned.getToAddress());
+        assertEquals("", cleaned.getSubject());
+        assertEquals("tag", cleaned.getTag());
+    }
+
+    @Test
+    public void copyConstructorCopiesEverything() {
+        List<Attachment> attachments = new ArrayList<Attachment>();
+        attachments.add(new Attachment());
+        PostmarkMessage message = new PostmarkMessage("from@example.com", "to@example.com", null, null,
+                "Subject", "Body", false, "tag");
+        message.setAttachments(attachments);
+        message.getHeaders().add(new NameValuePair("X-A", "a"));
+
+        PostmarkMessage copy = new PostmarkMessage(message);
+        copy.getHeaders().add(new NameValuePair("X-B", "b"));
+
+        assertEquals("tag", copy.getTag());
+        assertEquals(attachments, copy.getAttachments());
+        assertNotSame(attachments, copy.getAttachments());
+        assertEquals(1, message.getHeaders().size());
+        assertEquals(2, copy.getHeaders().size());
+    }
+
+    private static byte[] toBytes(MessageCodec codec, PostmarkMessage message) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.writeMessage(message, out);
+        return out.toByteArray();
+    }
+}
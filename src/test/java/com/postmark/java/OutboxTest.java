@@ -0,0 +1,328 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.RandomAccessFile;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OutboxTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replaysUnacknowledgedMessages() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        Outbox outbox = new Outbox(directory, new OutboxConfig());
+        long first = outbox.append(message(0));
+        long second = outbox.append(message(1));
+        outbox.append(message(2));
+        outbox.ack(first);
+        outbox.close();
+
+        Outbox reopened = new Outbox(directory, new OutboxConfig());
+        SortedMap<Long, PostmarkMessage> pending = reopened.pending();
+
+        assertEquals(Arrays.asList(second, second + 1), new ArrayList<Long>(pending.keySet()));
+        assertEquals(message(1), pending.get(second));
+        assertEquals(message(2), pending.get(second + 1));
+        assertTrue(reopened.append(message(3)) > second + 1);
+        reopened.close();
+    }
+
+    @Test
+    public void roundTripsTemplatedMessages() throws Exception {
+        Map<String, Object> model = new LinkedHashMap<String, Object>();
+        model.put("name", "Jane");
+        model.put("count", 3);
+        model.put("items", Arrays.asList("a", "b"));
+        TemplatedPostmarkMessage message = new TemplatedPostmarkMessage("from@example.com", "to@example.com", 42L, model);
+        message.setHeaders(Arrays.asList(new NameValuePair("X-Id", "1")));
+
+        Outbox outbox = new Outbox(folder.getRoot().toPath(), new OutboxConfig());
+        outbox.append(message);
+        TemplatedPostmarkMessage read = (TemplatedPostmarkMessage) outbox.pending().values().iterator().next();
+        outbox.close();
+
+        assertEquals(Long.valueOf(42), read.getTemplateId());
+        assertEquals("3", read.getTemplateModel().get("count").toString());
+        assertEquals(Arrays.asList("a", "b"), read.getTemplateModel().get("items"));
+        assertEquals(message.getHeaders(), read.getHeaders());
+    }
+
+    @Test
+    public void keepsNullAttachments() throws Exception {
+        PostmarkMessage message = message(0);
+        Attachment attachment = new Attachment();
+        attachment.setName("a.txt");
+        attachment.setContentType("text/plain");
+        attachment.setContent("YQ==");
+        message.setAttachments(Arrays.asList(attachment, null));
+
+        Outbox outbox = new Outbox(folder.getRoot().toPath(), new OutboxConfig());
+        outbox.append(message);
+        PostmarkMessage read = outbox.pending().values().iterator().next();
+        outbox.close();
+
+        assertEquals(2, read.getAttachments().size());
+        assertEquals("a.txt", read.getAttachments().get(0).getName());
+        assertNull(read.getAttachments().get(1));
+    }
+
+    @Test
+    public void deletesAcknowledgedSegments() throws Exception {
+        OutboxConfig config = new OutboxConfig();
+        config.setSegmentSize(4096);
+        config.setSyncWrites(false);
+        Outbox outbox = new Outbox(folder.getRoot().toPath(), config);
+
+        long kept = outbox.append(message(0));
+        for (int i = 1; i < 200; i++) {
+            outbox.ack(outbox.append(message(i)));
+        }
+        outbox.compact();
+
+        // The one message left was copied forward, so the old segments could go
+        assertEquals(1, outbox.getPendingCount());
+        assertTrue(outbox.getSegmentCount() <= 2);
+        assertEquals(outbox.getSegmentCount(), countFiles());
+        assertEquals(message(0), outbox.pending().get(kept));
+        outbox.close();
+    }
+
+    @Test
+    public void makesRoomForMessagesAfterCompaction() throws Exception {
+        OutboxConfig config = new OutboxConfig();
+        config.setSegmentSize(4096);
+        config.setSyncWrites(false);
+        Outbox outbox = new Outbox(folder.getRoot().toPath(), config);
+
+        long kept = outbox.append(message(0));
+        for (int i = 1; i <= 30; i++) {
+            outbox.ack(outbox.append(message(i)));
+        }
+
+        // Copying the live message forward must not take the room this one was rolled for
+        PostmarkMessage large = message(31);
+        StringBuilder body = new StringBuilder();
+        while (body.length() < 3900) {
+            body.append("0123456789");
+        }
+        large.setTextBody(body.toString());
+        long appended = outbox.append(large);
+
+        assertEquals(2, outbox.getPendingCount());
+        assertEquals(message(0), outbox.pending().get(kept));
+        assertEquals(large, outbox.pending().get(appended));
+        outbox.close();
+    }
+
+    @Test
+    public void ignoresTornRecords() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        Outbox outbox = new Outbox(directory, new OutboxConfig());
+        outbox.append(message(0));
+        long torn = outbox.append(message(1));
+        outbox.close();
+
+        // Corrupt the last byte of the second record's payload
+        Path segment = onlyFile();
+        RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw");
+        int first = file.readInt();
+        file.seek(first);
+        int second = file.readInt();
+        file.seek(first + second - 1);
+        file.write('x');
+        file.close();
+
+        Outbox reopened = new Outbox(directory, new OutboxConfig());
+        assertEquals(1, reopened.getPendingCount());
+        long next = reopened.append(message(2));
+        assertEquals(torn, next);
+        assertEquals(2, reopened.pending().size());
+        reopened.close();
+    }
+
+    @Test
+    public void queueingSenderResendsAfterRestart() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        Outbox outbox = new Outbox(directory, new OutboxConfig());
+        outbox.append(message(0));
+        outbox.append(message(1));
+        outbox.close();
+
+        PostmarkStubServer server = PostmarkStubServer.start("token");
+        PostmarkClientConfig clientConfig = new PostmarkClientConfig();
+        clientConfig.setApiUrl(server.getUrl());
+        PostmarkClient client = new PostmarkClient("token", clientConfig);
+        Outbox reopened = new Outbox(directory, new OutboxConfig());
+        QueueingSenderConfig config = new QueueingSenderConfig();
+        config.setOutbox(reopened);
+        config.setLingerTime(1);
+        try {
+            QueueingSender sender = new QueueingSender(client, config);
+            assertEquals(PostmarkStatus.SUCCESS, sender.enqueue(message(2)).get(5, TimeUnit.SECONDS).getStatus());
+            assertTrue(sender.shutdown(5, TimeUnit.SECONDS));
+
+            assertEquals(3, server.getMessageCount());
+            assertEquals(0, reopened.getPendingCount());
+        } finally {
+            reopened.close();
+            client.close();
+            server.close();
+        }
+    }
+
+    @Test
+    public void queueingSenderResendsFailedMessagesAfterRestart() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        PostmarkStubServer server = PostmarkStubServer.start("token");
+        PostmarkClientConfig clientConfig = new PostmarkClientConfig();
+        clientConfig.setApiUrl(server.getUrl());
+        clientConfig.setRetryPolicy(null);
+        PostmarkClient client = new PostmarkClient("token", clientConfig);
+        Outbox outbox = new Outbox(directory, new OutboxConfig());
+        QueueingSenderConfig config = new QueueingSenderConfig();
+        config.setOutbox(outbox);
+        config.setLingerTime(1);
+        try {
+            QueueingSender sender = new QueueingSender(client, config);
+            server.setErrorRate(422, 1);
+            assertRejected(sender.enqueue(message(0)), PostmarkStatus.USERERROR);
+            server.reset();
+            server.setErrorRate(500, 1);
+            assertRejected(sender.enqueue(message(1)), PostmarkStatus.SERVERERROR);
+            assertTrue(sender.shutdown(5, TimeUnit.SECONDS));
+
+            // A rejected message would be rejected again; the server error may pass
+            assertEquals(1, outbox.getPendingCount());
+            outbox.close();
+
+            server.reset();
+            Outbox reopened = new Outbox(directory, new OutboxConfig());
+            config.setOutbox(reopened);
+            try {
+                QueueingSender restarted = new QueueingSender(client, config);
+                assertTrue(restarted.shutdown(5, TimeUnit.SECONDS));
+
+                assertEquals(1, server.getMessageCount());
+                assertEquals(0, reopened.getPendingCount());
+            } finally {
+                reopened.close();
+            }
+        } finally {
+            outbox.close();
+            client.close();
+            server.close();
+        }
+    }
+
+    @Test
+    public void queueingSenderReplaysBacklogLargerThanItsQueue() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        Outbox outbox = new Outbox(directory, new OutboxConfig());
+        for (int i = 0; i < 5; i++) {
+            outbox.append(message(i));
+        }
+        outbox.close();
+
+        PostmarkStubServer server = PostmarkStubServer.start("token");
+        PostmarkClientConfig clientConfig = new PostmarkClientConfig();
+        clientConfig.setApiUrl(server.getUrl());
+        PostmarkClient client = new PostmarkClient("token", clientConfig);
+        Outbox reopened = new Outbox(directory, new OutboxConfig());
+        QueueingSenderConfig config = new QueueingSenderConfig();
+        config.setOutbox(reopened);
+        config.setCapacity(1);
+        config.setBatchSize(2);
+        config.setLingerTime(1);
+        try {
+            QueueingSender sender = new QueueingSender(client, config);
+            assertEquals(PostmarkStatus.SUCCESS, sender.enqueue(message(5)).get(5, TimeUnit.SECONDS).getStatus());
+            assertTrue(sender.shutdown(5, TimeUnit.SECONDS));
+
+            assertEquals(6, server.getMessageCount());
+            assertEquals(0, reopened.getPendingCount());
+        } finally {
+            reopened.close();
+            client.close();
+            server.close();
+        }
+    }
+
+    private static void assertRejected(PostmarkFuture future, PostmarkStatus status) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Expected the send to fail");
+        } catch (ExecutionException e) {
+            assertEquals(status, ((PostmarkException) e.getCause()).getResponse().getStatus());
+        }
+    }
+
+    private int countFiles() throws Exception {
+        return listFiles().size();
+    }
+
+    private Path onlyFile() throws Exception {
+        List<Path> files = listFiles();
+        assertEquals(1, files.size());
+        return files.get(0);
+    }
+
+    private List<Path> listFiles() throws Exception {
+        List<Path> files = new ArrayList<Path>();
+        DirectoryStream<Path> stream = Files.newDirectoryStream(folder.getRoot().toPath(), "*.outbox");
+        try {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        } finally {
+            stream.close();
+        }
+        return files;
+    }
+
+    private static PostmarkMessage message(int i) {
+        return new PostmarkMessage("from@example.com", "to" + i + "@example.com", null, null,
+                "Subject " + i, "<p>Body " + i + "</p>", true, null);
+    }
+}
@@ -0,0 +1,110 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PayloadFormatterTest {
+
+    @Test
+    public void truncatesLongValues() {
+        PayloadFormatter formatter = new PayloadFormatter();
+        formatter.setMaxLength(5);
+        assertEquals("abcde... (10 chars)", formatter.format("abcdefghij"));
+        assertEquals("abc", formatter.format("abc"));
+        assertEquals("null", formatter.format((String) null));
+    }
+
+    @Test
+    public void omitsAttachmentContent() {
+        PostmarkMessage message = new PostmarkMessage("from@example.com", "to@example.com", null, null, "Subject", "Body", false, null);
+        Attachment attachment = new Attachment();
+        attachment.setName("report.pdf");
+        attachment.setContentType("application/pdf");
+        attachment.setContent("U0VDUkVU");
+        message.setAttachments(Collections.singletonList(attachment));
+
+        String formatted = new PayloadFormatter().format(message);
+        assertTrue(formatted.contains("report.pdf (application/pdf)"));
+        assertFalse(formatted.contains("U0VDUkVU"));
+    }
+
+    @Test
+    public void redactsAddresses() {
+        PostmarkMessage message = new PostmarkMessage("from@example.com", "jane@example.com, Bob <bob@example.org>", null, null, "Subject", "Body", false, null);
+        PayloadFormatter formatter = new PayloadFormatter();
+
+        String formatted = formatter.format(message);
+        assertTrue(formatted, formatted.contains("To=j***@example.com, B <b***@example.org>"));
+        assertFalse(formatted.contains("jane"));
+    }
+
+    @Test
+    public void redactsAddressesInResponses() {
+        String response = "{\"ErrorCode\":0,\"Message\":\"OK\",\"To\":\"jane.doe+news@example.com\"}";
+        PayloadFormatter formatter = new PayloadFormatter();
+        String formatted = formatter.format(response);
+        assertEquals("{\"ErrorCode\":0,\"Message\":\"OK\",\"To\":\"j***@example.com\"}", formatted);
+        assertEquals("Invalid 'To' address: 'b***@example.org'.", formatter.format("Invalid 'To' address: 'bob@example.org'."));
+
+        formatter.setRedactAddresses(false);
+        assertEquals(response, formatter.format(response));
+    }
+
+    @Test
+    public void asyncHandlerPublishesOnAnotherThread() throws Exception {
+        final CountDownLatch published = new CountDownLatch(1);
+        final Thread[] publisher = new Thread[1];
+        AsyncLogHandler handler = new AsyncLogHandler(new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                publisher[0] = Thread.currentThread();
+                published.countDown();
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        }, 10);
+
+        handler.publish(new LogRecord(Level.INFO, "hello"));
+        assertTrue(published.await(5, TimeUnit.SECONDS));
+        assertFalse(publisher[0] == Thread.currentThread());
+        handler.close();
+    }
+}
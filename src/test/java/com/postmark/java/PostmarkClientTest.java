@@ -0,0 +1,422 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PostmarkClientTest {
+
+    private PostmarkStubServer server;
+    private PostmarkClient client;
+
+    @Before
+    public void start() throws Exception {
+        server = PostmarkStubServer.start("token");
+        client = new PostmarkClient("token", config());
+    }
+
+    @After
+    public void stop() {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void sendsMessage() throws Exception {
+        PostmarkResponse response = client.sendMessage(message(0));
+
+        assertEquals(PostmarkStatus.SUCCESS, response.getStatus());
+        assertEquals("to0@example.com", response.getTo());
+        assertNotNull(response.getMessageId());
+        assertEquals(1, server.getMessageCount());
+    }
+
+    @Test
+    public void sendsBatch() throws Exception {
+        List<PostmarkMessage> messages = new ArrayList<PostmarkMessage>();
+        for (int i = 0; i < 3; i++) {
+            messages.add(message(i));
+        }
+
+        List<PostmarkResponse> responses = client.sendMessages(messages);
+
+        assertEquals(3, responses.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(PostmarkStatus.SUCCESS, responses.get(i).getStatus());
+            assertEquals("to" + i + "@example.com", responses.get(i).getTo());
+        }
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void recyclesResponses() throws Exception {
+        List<PostmarkMessage> messages = Arrays.asList(message(0), message(1));
+        List<PostmarkResponse> first = client.sendMessages(messages);
+
+        List<PostmarkResponse> second = client.sendMessages(Arrays.asList(message(2), message(3)), first);
+
+        assertSame(first.get(0), second.get(0));
+        assertSame(first.get(1), second.get(1));
+        assertEquals("to2@example.com", second.get(0).getTo());
+        assertEquals("to3@example.com", second.get(1).getTo());
+        assertEquals(PostmarkStatus.SUCCESS, second.get(1).getStatus());
+    }
+
+    @Test
+    public void sendsTemplatedMessage() throws Exception {
+        PostmarkResponse response = client.sendMessage(templated(0));
+
+        assertEquals(PostmarkStatus.SUCCESS, response.getStatus());
+        assertEquals("to0@example.com", response.getTo());
+        assertEquals(1, server.getTemplatedRequestCount());
+    }
+
+    @Test
+    public void splitsMixedBatchByEndpoint() throws Exception {
+        List<PostmarkMessage> messages = new ArrayList<PostmarkMessage>();
+        messages.add(message(0));
+        messages.add(templated(1));
+        messages.add(message(2));
+        messages.add(new TemplatedPostmarkMessage("from@example.com", "to3@example.com", (String) null, null));
+
+        List<PostmarkResponse> responses = client.sendMessages(messages);
+
+        assertEquals(PostmarkStatus.SUCCESS, responses.get(0).getStatus());
+        assertEquals("to1@example.com", responses.get(1).getTo());
+        assertEquals("to2@example.com", responses.get(2).getTo());
+        assertEquals(PostmarkStatus.USERERROR, responses.get(3).getStatus());
+        assertEquals(2, server.getRequestCount());
+        assertEquals(1, server.getTemplatedRequestCount());
+    }
+
+    @Test
+    public void splitsMessagesWithTooManyRecipients() throws Exception {
+        PostmarkMessage message = message(0);
+        message.setToAddress(AddressListTest.recipients(0, 60));
+        message.setBccAddress(AddressListTest.recipients(60, 60));
+
+        PostmarkResponse response = client.sendMessage(message);
+
+        assertEquals(PostmarkStatus.SUCCESS, response.getStatus());
+        assertEquals(3, server.getMessageCount());
+        assertEquals(120, server.getRecipientCount());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void splitMessagesKeepThePermitModeAndMetrics() throws Exception {
+        final List<SendPhase> phases = Collections.synchronizedList(new ArrayList<SendPhase>());
+        final List<PostmarkStatus> completed = Collections.synchronizedList(new ArrayList<PostmarkStatus>());
+        PostmarkClientConfig config = config();
+        config.setRateLimiter(new RateLimiter(0.001, 1));
+        config.setMetricsListener(new MetricsListener() {
+            public void sendStarted() {
+            }
+
+            public void phaseCompleted(SendPhase phase, long nanos) {
+                phases.add(phase);
+            }
+
+            public void sendCompleted(PostmarkStatus status, long nanos) {
+                completed.add(status);
+            }
+        });
+        PostmarkClient limited = new PostmarkClient("token", config);
+        PostmarkMessage message = message(0);
+        message.setToAddress(AddressListTest.recipients(0, 60));
+
+        try {
+            assertEquals(PostmarkStatus.SUCCESS, limited.trySendMessage(message).getStatus());
+            assertTrue(phases.toString(), phases.contains(SendPhase.CONNECT));
+
+            // The only permit is spent, so the next split send must not wait for one
+            long started = System.nanoTime();
+            try {
+                limited.trySendMessage(message);
+                fail("Expected a PostmarkException");
+            } catch (PostmarkException e) {
+                assertEquals(PostmarkStatus.THROTTLED, e.getResponse().getStatus());
+            }
+            assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(5));
+            assertEquals(Arrays.asList(PostmarkStatus.SUCCESS, PostmarkStatus.THROTTLED), completed);
+            assertEquals(1, server.getRequestCount());
+        } finally {
+            limited.close();
+        }
+    }
+
+    @Test
+    public void splitsBatchEntriesWithTooManyRecipients() throws Exception {
+        PostmarkMessage large = message(1);
+        large.setToAddresses(AddressList.parse(AddressListTest.recipients(0, 75)));
+
+        List<PostmarkResponse> responses = client.sendMessages(Arrays.asList(message(0), large, message(2)));
+
+        assertEquals(3, responses.size());
+        for (PostmarkResponse response : responses) {
+            assertEquals(PostmarkStatus.SUCCESS, response.getStatus());
+        }
+        assertEquals("to2@example.com", responses.get(2).getTo());
+        assertEquals(4, server.getMessageCount());
+        assertEquals(77, server.getRecipientCount());
+    }
+
+    @Test
+    public void rejectsWrongToken() throws Exception {
+        PostmarkClient other = new PostmarkClient("wrong", config());
+        try {
+            other.sendMessage(message(0));
+            fail("Expected a PostmarkException");
+        } catch (PostmarkException e) {
+            assertEquals(PostmarkStatus.USERERROR, e.getResponse().getStatus());
+        } finally {
+            other.close();
+        }
+    }
+
+    @Test
+    public void reportsInjectedErrors() throws Exception {
+        server.setErrorRate(500, 1.0);
+        assertStatus(PostmarkStatus.SERVERERROR);
+
+        server.reset();
+        server.setErrorRate(429, 1.0);
+        assertStatus(PostmarkStatus.THROTTLED);
+
+        server.reset();
+        server.setErrorRate(422, 1.0);
+        assertStatus(PostmarkStatus.USERERROR);
+
+        assertEquals(0, server.getMessageCount());
+    }
+
+    @Test
+    public void retriesServerErrors() throws Exception {
+        RetryPolicy retryPolicy = new RetryPolicy();
+        retryPolicy.setBaseDelay(1);
+        PostmarkClientConfig config = config();
+        config.setRetryPolicy(retryPolicy);
+        PostmarkClient retrying = new PostmarkClient("token", config);
+
+        server.setErrorRate(500, 1.0);
+        try {
+            retrying.sendMessage(message(0));
+            fail("Expected a PostmarkException");
+        } catch (PostmarkException e) {
+            assertEquals(PostmarkStatus.SERVERERROR, e.getResponse().getStatus());
+        } finally {
+            retrying.close();
+        }
+        assertEquals(retryPolicy.getMaxAttempts(), server.getRequestCount());
+    }
+
+    @Test
+    public void failsOnDroppedConnection() throws Exception {
+        server.setDropRate(1.0);
+        try {
+            client.sendMessage(message(0));
+            fail("Expected a PostmarkException");
+        } catch (PostmarkException e) {
+            assertTrue(e.getCause() instanceof java.io.IOException);
+        }
+    }
+
+    @Test
+    public void timesOutSlowResponses() throws Exception {
+        PostmarkClientConfig config = config();
+        config.setSocketTimeout(100);
+        PostmarkClient impatient = new PostmarkClient("token", config);
+
+        server.setLatency(PostmarkStubServer.Latency.fixed(1000));
+        try {
+            impatient.sendMessage(message(0));
+            fail("Expected a PostmarkException");
+        } catch (PostmarkException e) {
+            assertTrue(e.getCause() instanceof java.net.SocketTimeoutException);
+        } finally {
+            impatient.close();
+        }
+    }
+
+    private void assertStatus(PostmarkStatus status) {
+        try {
+            client.sendMessage(message(0));
+            fail("Expected a PostmarkException");
+        } catch (PostmarkException e) {
+            assertEquals(status, e.getResponse().getStatus());
+        }
+    }
+
+    @Test
+    public void asyncSendsFailWhenTheQueueIsFull() throws Exception {
+        server.setLatency(PostmarkStubServer.Latency.fixed(200));
+        PostmarkClient bounded = new PostmarkClient("token", asyncConfig(OverflowPolicy.FAIL));
+        try {
+            PostmarkFuture running = bounded.sendMessageAsync(message(0));
+            awaitRequests(1);
+            PostmarkFuture queued = bounded.sendMessageAsync(message(1));
+            PostmarkFuture rejected = bounded.sendMessageAsync(message(2));
+
+            assertTrue(rejected.isDone());
+            try {
+                rejected.get();
+                fail();
+            } catch (ExecutionException expected) {
+                assertTrue(expected.getCause() instanceof PostmarkException);
+            }
+            assertEquals(PostmarkStatus.SUCCESS, running.get(5, TimeUnit.SECONDS).getStatus());
+            assertEquals(PostmarkStatus.SUCCESS, queued.get(5, TimeUnit.SECONDS).getStatus());
+            assertEquals(2, server.getMessageCount());
+        } finally {
+            bounded.close();
+        }
+    }
+
+    @Test
+    public void asyncSendsWaitForRoomInTheQueue() throws Exception {
+        server.setLatency(PostmarkStubServer.Latency.fixed(200));
+        PostmarkClient bounded = new PostmarkClient("token", asyncConfig(OverflowPolicy.BLOCK));
+        try {
+            bounded.sendMessageAsync(message(0));
+            awaitRequests(1);
+            bounded.sendMessageAsync(message(1));
+
+            long started = System.nanoTime();
+            PostmarkFuture waited = bounded.sendMessageAsync(message(2));
+            assertTrue(System.nanoTime() - started >= TimeUnit.MILLISECONDS.toNanos(100));
+            assertEquals(PostmarkStatus.SUCCESS, waited.get(5, TimeUnit.SECONDS).getStatus());
+            assertEquals(3, server.getMessageCount());
+        } finally {
+            bounded.close();
+        }
+    }
+
+    @Test
+    public void unreadableSuccessIsNotSentAgain() throws Exception {
+        server.setTruncateRate(1);
+        CircuitBreakerConfig breakerConfig = new CircuitBreakerConfig();
+        breakerConfig.setConsecutiveFailures(1);
+        CircuitBreaker breaker = new CircuitBreaker(breakerConfig);
+        PostmarkClientConfig config = config();
+        config.setCircuitBreaker(breaker);
+        PostmarkClient guarded = new PostmarkClient("token", config);
+        try {
+            try {
+                guarded.sendMessage(message(0));
+                fail();
+            } catch (PostmarkException expected) {
+                assertEquals(PostmarkStatus.UNKNOWN, expected.getResponse().getStatus());
+            }
+            assertEquals(1, server.getRequestCount());
+
+            List<PostmarkResponse> responses = guarded.sendMessages(Arrays.asList(message(1), message(2)));
+            assertEquals(PostmarkStatus.UNKNOWN, responses.get(0).getStatus());
+            assertEquals(PostmarkStatus.UNKNOWN, responses.get(1).getStatus());
+            assertEquals(2, server.getRequestCount());
+
+            // Postmark answered every time, so it is not treated as down
+            assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        } finally {
+            guarded.close();
+        }
+    }
+
+    @Test
+    public void unsendableProbeDoesNotHoldTheCircuitOpen() throws Exception {
+        CircuitBreakerConfig breakerConfig = new CircuitBreakerConfig();
+        breakerConfig.setConsecutiveFailures(1);
+        breakerConfig.setOpenDuration(1);
+        breakerConfig.setHalfOpenProbes(1);
+        CircuitBreaker breaker = new CircuitBreaker(breakerConfig);
+        PostmarkClientConfig config = config();
+        config.setCircuitBreaker(breaker);
+        PostmarkClient guarded = new PostmarkClient("token", config);
+        try {
+            breaker.recordFailure(breaker.acquirePermit());
+            Thread.sleep(5);
+
+            // The model can not be written, so the probe never reaches Postmark
+            Map<String, Object> model = Collections.<String, Object>singletonMap("ratio", Double.NaN);
+            try {
+                guarded.sendMessage(new TemplatedPostmarkMessage("from@example.com", "to@example.com", "welcome", model));
+                fail();
+            } catch (RuntimeException expected) {
+            } catch (PostmarkException expected) {
+            }
+
+            assertEquals(PostmarkStatus.SUCCESS, guarded.sendMessage(message(1)).getStatus());
+            assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        } finally {
+            guarded.close();
+        }
+    }
+
+    // One async thread and room for one waiting send
+    private PostmarkClientConfig asyncConfig(OverflowPolicy policy) {
+        PostmarkClientConfig config = config();
+        config.setAsyncThreads(1);
+        config.setAsyncQueueCapacity(1);
+        config.setAsyncOverflowPolicy(policy);
+        return config;
+    }
+
+    private void awaitRequests(long count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (server.getRequestCount() < count) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private PostmarkClientConfig config() {
+        PostmarkClientConfig config = new PostmarkClientConfig();
+        config.setApiUrl(server.getUrl());
+        return config;
+    }
+
+    private static TemplatedPostmarkMessage templated(int i) {
+        Map<String, Object> model = Collections.<String, Object>singletonMap("name", "Customer " + i);
+        return new TemplatedPostmarkMessage("from@example.com", "to" + i + "@example.com", "welcome", model);
+    }
+
+    private static PostmarkMessage message(int i) {
+        return new PostmarkMessage("from@example.com", "to" + i + "@example.com", null, null,
+                "Subject " + i, "Body " + i, false, null);
+    }
+}
@@ -0,0 +1,114 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PostmarkFutureTest {
+
+    @Test
+    public void notifiesCallbacksAddedBeforeAndAfterCompletion() throws Exception {
+        PostmarkFuture future = new PostmarkFuture();
+        RecordingCallback before = new RecordingCallback();
+        RecordingCallback after = new RecordingCallback();
+        PostmarkResponse response = new PostmarkResponse();
+
+        future.addCallback(before);
+        assertTrue(future.complete(response));
+        future.addCallback(after);
+
+        assertSame(response, before.responses.get(0));
+        assertSame(response, after.responses.get(0));
+        assertSame(response, future.get());
+    }
+
+    @Test
+    public void failureIsTheExecutionExceptionCause() throws Exception {
+        PostmarkFuture future = new PostmarkFuture();
+        RecordingCallback callback = new RecordingCallback();
+        PostmarkException exception = new PostmarkException("rejected");
+
+        future.addCallback(callback);
+        future.fail(exception);
+
+        assertSame(exception, callback.failures.get(0));
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(exception, e.getCause());
+        }
+    }
+
+    @Test
+    public void completesOnlyOnce() throws Exception {
+        PostmarkFuture future = new PostmarkFuture();
+        RecordingCallback callback = new RecordingCallback();
+        future.addCallback(callback);
+
+        assertTrue(future.cancel(false));
+        assertFalse(future.complete(new PostmarkResponse()));
+
+        assertTrue(future.isCancelled());
+        assertEquals(1, callback.failures.size());
+        assertEquals(0, callback.responses.size());
+        try {
+            future.get();
+            fail();
+        } catch (CancellationException e) {
+            // Expected
+        }
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void getTimesOutWhilePending() throws Exception {
+        new PostmarkFuture().get(10, TimeUnit.MILLISECONDS);
+    }
+
+    private static class RecordingCallback implements PostmarkCallback {
+
+        final List<PostmarkResponse> responses = new ArrayList<PostmarkResponse>();
+        final List<PostmarkException> failures = new ArrayList<PostmarkException>();
+
+        public void onSuccess(PostmarkResponse response) {
+            responses.add(response);
+        }
+
+        public void onFailure(PostmarkException exception) {
+            failures.add(exception);
+        }
+    }
+}
@@ -0,0 +1,488 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * An in-process stand-in for the Postmark API's {@code /email},
+ * {@code /email/batch}, {@code /email/withTemplate} and
+ * {@code /email/batchWithTemplates} endpoints, for tests and benchmarks.
+ * <p>
+ * Requests must carry one of the configured server tokens. Each message is parsed and
+ * answered with a response shaped like Postmark's; messages without a From or
+ * with a missing or malformed To address are rejected the way Postmark rejects them.
+ * </p>
+ * <p>
+ * To test behaviour under failure, responses can be delayed by a
+ * {@link Latency} distribution, a share of requests can be answered with
+ * 401, 422, 429 or 500, and a share of connections can be dropped without a
+ * response. Settings can be changed while the stub is running.
+ * </p>
+ * Sample code:
+ * <pre>
+ * {@code
+ * PostmarkStubServer server = PostmarkStubServer.start("token");
+ * PostmarkClientConfig config = new PostmarkClientConfig();
+ * config.setApiUrl(server.getUrl());
+ * PostmarkClient client = new PostmarkClient("token", config);
+ * }
+ * </pre>
+ */
+public class PostmarkStubServer implements Closeable {
+
+    private static final String SUBMITTED_AT = "2010-11-26T12:01:05.1794748-05:00";
+
+    static {
+        // Headers and body are separate writes; with Nagle on, every response waits for a delayed ACK
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final Map<String, AtomicLong> messagesByToken = new ConcurrentHashMap<String, AtomicLong>();
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong recipientCount = new AtomicLong();
+    private final AtomicLong templatedRequests = new AtomicLong();
+
+    private volatile Latency latency = Latency.none();
+    private final Map<Integer, Double> errorRates = new ConcurrentHashMap<Integer, Double>();
+    private volatile double dropRate;
+    private volatile double truncateRate;
+    private final Set<String> throttledTokens = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private PostmarkStubServer(Collection<String> serverTokens, int threads) throws IOException {
+        for (String serverToken : serverTokens) {
+            messagesByToken.put(serverToken, new AtomicLong());
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext("/email", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+    }
+
+    /**
+     * Starts a stub on a free loopback port.
+     *
+     * @param serverToken the token requests must carry
+     */
+    public static PostmarkStubServer start(String serverToken) throws IOException {
+        return start(serverToken, 16);
+    }
+
+    /**
+     * @param serverToken the token requests must carry
+     * @param threads     the number of requests handled at once
+     */
+    public static PostmarkStubServer start(String serverToken, int threads) throws IOException {
+        return start(Arrays.asList(serverToken), threads);
+    }
+
+    /**
+     * @param serverTokens the tokens requests may carry
+     * @param threads      the number of requests handled at once
+     */
+    public static PostmarkStubServer start(Collection<String> serverTokens, int threads) throws IOException {
+        PostmarkStubServer stub = new PostmarkStubServer(serverTokens, threads);
+        stub.server.start();
+        return stub;
+    }
+
+    /**
+     * @return the API root to pass to {@link PostmarkClientConfig#setApiUrl(String)}
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * @return the number of requests received
+     */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * @return the number of requests received by the template endpoints
+     */
+    public long getTemplatedRequestCount() {
+        return templatedRequests.get();
+    }
+
+    /**
+     * @return the number of messages accepted
+     */
+    public long getMessageCount() {
+        return messages.get();
+    }
+
+    /**
+     * @param serverToken one of the configured tokens
+     * @return the number of messages accepted with that token
+     */
+    public long getMessageCount(String serverToken) {
+        return messagesByToken.get(serverToken).get();
+    }
+
+    /**
+     * @return the To, Cc and Bcc recipients of the accepted messages
+     */
+    public long getRecipientCount() {
+        return recipientCount.get();
+    }
+
+    /**
+     * @param latency how long each response is delayed
+     */
+    public void setLatency(Latency latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * @param status one of 401, 422, 429 or 500
+     * @param rate   the share of requests answered with that status, from 0 to 1
+     */
+    public void setErrorRate(int status, double rate) {
+        if (status != 401 && status != 422 && status != 429 && status != 500) {
+            throw new IllegalArgumentException("Unsupported status: " + status);
+        }
+        errorRates.put(status, rate);
+    }
+
+    /**
+     * @param dropRate the share of requests whose connection is closed without a response, from 0 to 1
+     */
+    public void setDropRate(double dropRate) {
+        this.dropRate = dropRate;
+    }
+
+    /**
+     * @param truncateRate the share of accepted requests answered with a 200 whose body is cut short, from 0 to 1
+     */
+    public void setTruncateRate(double truncateRate) {
+        this.truncateRate = truncateRate;
+    }
+
+    /**
+     * @param serverToken one of the configured tokens
+     * @param throttled   whether its requests are answered with 429
+     */
+    public void setThrottled(String serverToken, boolean throttled) {
+        if (throttled) {
+            throttledTokens.add(serverToken);
+        } else {
+            throttledTokens.remove(serverToken);
+        }
+    }
+
+    /**
+     * Turns off all latency, errors, drops, truncation and throttling.
+     */
+    public void reset() {
+        latency = Latency.none();
+        errorRates.clear();
+        throttledTokens.clear();
+        dropRate = 0;
+        truncateRate = 0;
+    }
+
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        try {
+            requests.incrementAndGet();
+            String path = exchange.getRequestURI().getPath();
+
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                drain(exchange);
+                respond(exchange, 405, error(405, "Method not allowed."));
+                return;
+            }
+            String serverToken = exchange.getRequestHeaders().getFirst("X-Postmark-Server-Token");
+            AtomicLong accepted = (serverToken == null) ? null : messagesByToken.get(serverToken);
+            if (accepted == null) {
+                drain(exchange);
+                respond(exchange, 401, error(10, "Bad or missing Server API token."));
+                return;
+            }
+
+            if (throttledTokens.contains(serverToken)) {
+                drain(exchange);
+                respond(exchange, 429, injectedError(429));
+                return;
+            }
+
+            JsonElement body;
+            try {
+                body = new JsonParser().parse(new InputStreamReader(requestBody(exchange), "UTF-8"));
+            } catch (RuntimeException e) {
+                respond(exchange, 422, error(402, "Received invalid JSON input."));
+                return;
+            }
+
+            delay();
+
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (dropRate > 0 && random.nextDouble() < dropRate) {
+                // Closing an exchange before its headers are sent closes the connection
+                return;
+            }
+            for (Map.Entry<Integer, Double> entry : errorRates.entrySet()) {
+                if (random.nextDouble() < entry.getValue()) {
+                    respond(exchange, entry.getKey(), injectedError(entry.getKey()));
+                    return;
+                }
+            }
+
+            boolean templated = path.equals("/email/withTemplate") || path.equals("/email/batchWithTemplates");
+            if (templated) {
+                templatedRequests.incrementAndGet();
+            }
+
+            if ((path.equals("/email") || path.equals("/email/withTemplate")) && body.isJsonObject()) {
+                JsonObject response = accept(body.getAsJsonObject(), templated, accepted);
+                respondAccepted(exchange, (response.get("ErrorCode").getAsInt() == 0) ? 200 : 422, response);
+            } else if (path.equals("/email/batch") && body.isJsonArray()) {
+                respondAccepted(exchange, 200, acceptAll(body.getAsJsonArray(), false, accepted));
+            } else if (path.equals("/email/batchWithTemplates") && body.isJsonObject()
+                    && body.getAsJsonObject().has("Messages")) {
+                respondAccepted(exchange, 200, acceptAll(body.getAsJsonObject().getAsJsonArray("Messages"), true, accepted));
+            } else {
+                respond(exchange, 404, error(404, "Not found."));
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void delay() {
+        long millis = latency.next(ThreadLocalRandom.current());
+        if (millis > 0) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private JsonArray acceptAll(JsonArray messages, boolean templated, AtomicLong accepted) {
+        JsonArray responses = new JsonArray();
+        for (JsonElement message : messages) {
+            responses.add(accept(message.getAsJsonObject(), templated, accepted));
+        }
+        return responses;
+    }
+
+    private JsonObject accept(JsonObject message, boolean templated, AtomicLong accepted) {
+        if (templated && isBlank(message, "TemplateId") && isBlank(message, "TemplateAlias")) {
+            return error(1101, "The Template's 'TemplateId' or 'TemplateAlias' must be specified.");
+        }
+        if (isBlank(message, "From")) {
+            return error(300, "Invalid 'From' address: ''.");
+        }
+        if (isBlank(message, "To")) {
+            return error(300, "Zero recipients specified");
+        }
+        String to = message.get("To").getAsString();
+        if (!AddressValidator.isValidAddressList(to)) {
+            return error(300, "Invalid 'To' address: '" + to + "'.");
+        }
+        int recipients = AddressValidator.count(to) + count(message, "Cc") + count(message, "Bcc");
+        if (recipients > PostmarkClientConfig.MAX_RECIPIENTS) {
+            return error(300, "Maximum of " + PostmarkClientConfig.MAX_RECIPIENTS + " recipients per message exceeded.");
+        }
+        recipientCount.addAndGet(recipients);
+
+        messages.incrementAndGet();
+        accepted.incrementAndGet();
+        JsonObject response = new JsonObject();
+        response.addProperty("ErrorCode", 0);
+        response.addProperty("Message", "OK");
+        response.addProperty("MessageID", UUID.randomUUID().toString());
+        response.addProperty("SubmittedAt", SUBMITTED_AT);
+        response.add("To", message.get("To"));
+        return response;
+    }
+
+    private static int count(JsonObject message, String name) {
+        return isBlank(message, name) ? 0 : Math.max(0, AddressValidator.count(message.get(name).getAsString()));
+    }
+
+    private static boolean isBlank(JsonObject message, String name) {
+        JsonElement value = message.get(name);
+        return value == null || value.isJsonNull() || value.getAsString().trim().isEmpty();
+    }
+
+    private static JsonObject injectedError(int status) {
+        switch (status) {
+            case 401:
+                return error(10, "Bad or missing Server API token.");
+            case 422:
+                return error(300, "Invalid email request.");
+            case 429:
+                return error(429, "Rate limit exceeded.");
+            default:
+                return error(0, "Internal server error.");
+        }
+    }
+
+    private static JsonObject error(int code, String message) {
+        JsonObject response = new JsonObject();
+        response.addProperty("ErrorCode", code);
+        response.addProperty("Message", message);
+        return response;
+    }
+
+    private static InputStream requestBody(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            in = new GZIPInputStream(in);
+        }
+        return in;
+    }
+
+    // Reads an unwanted body so the connection can be reused
+    private static void drain(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        byte[] buffer = new byte[8192];
+        while (in.read(buffer) != -1) {
+            // discard
+        }
+    }
+
+    private void respondAccepted(HttpExchange exchange, int status, JsonElement body) throws IOException {
+        if (status == 200 && truncateRate > 0 && ThreadLocalRandom.current().nextDouble() < truncateRate) {
+            String json = body.toString();
+            respond(exchange, status, json.substring(0, json.length() / 2));
+        } else {
+            respond(exchange, status, body);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, JsonElement body) throws IOException {
+        respond(exchange, status, body.toString());
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    /**
+     * A distribution of response delays, in milliseconds.
+     */
+    public abstract static class Latency {
+
+        abstract long next(ThreadLocalRandom random);
+
+        /**
+         * @return no delay
+         */
+        public static Latency none() {
+            return fixed(0);
+        }
+
+        /**
+         * @param millis the delay of every response
+         */
+        public static Latency fixed(final long millis) {
+            return new Latency() {
+                long next(ThreadLocalRandom random) {
+                    return millis;
+                }
+            };
+        }
+
+        /**
+         * @param min the shortest delay
+         * @param max the longest delay
+         */
+        public static Latency uniform(final long min, final long max) {
+            return new Latency() {
+                long next(ThreadLocalRandom random) {
+                    return min + (long) (random.nextDouble() * (max - min));
+                }
+            };
+        }
+
+        /**
+         * A long-tailed distribution, typical of a loaded server: most responses
+         * are close to the median and a few take many times as long.
+         *
+         * @param median the typical delay
+         * @param p99    the delay 1% of responses exceed
+         */
+        public static Latency logNormal(long median, long p99) {
+            final double mu = Math.log(Math.max(median, 1));
+            // 2.326 is the standard normal's 99th percentile
+            final double sigma = Math.max(0, Math.log(Math.max(p99, 1)) - mu) / 2.326;
+            return new Latency() {
+                long next(ThreadLocalRandom random) {
+                    return Math.round(Math.exp(mu + sigma * random.nextGaussian()));
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,212 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+package com.postmark.java;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class QueueingSenderTest {
+
+    private PostmarkStubServer server;
+    private PostmarkClient client;
+    private QueueingSenderConfig config;
+    private QueueingSender sender;
+
+    @Before
+    public void start() throws Exception {
+        server = PostmarkStubServer.start("token");
+        PostmarkClientConfig clientConfig = new PostmarkClientConfig();
+        clientConfig.setApiUrl(server.getUrl());
+        clientConfig.setRetryPolicy(null);
+        client = new PostmarkClient("token", clientConfig);
+        config = new QueueingSenderConfig();
+    }
+
+    @After
+    public void stop() throws Exception {
+        if (sender != null) {
+            sender.shutdown(5, TimeUnit.SECONDS);
+        }
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void sendsFullBatchWithoutWaiting() throws Exception {
+        config.setBatchSize(3);
+        config.setLingerTime(60000);
+        sender = new QueueingSender(client, config);
+
+        List<PostmarkFuture> futures = new ArrayList<PostmarkFuture>();
+        for (int i = 0; i < 3; i++) {
+            futures.add(sender.enqueue(message(i)));
+        }
+        for (PostmarkFuture future : futures) {
+            assertEquals(PostmarkStatus.SUCCESS, future.get(5, TimeUnit.SECONDS).getStatus());
+        }
+        assertEquals(1, server.getRequestCount());
+        assertEquals(3, server.getMessageCount());
+    }
+
+    @Test
+    public void sendsPartialBatchAfterLingerTime() throws Exception {
+        config.setBatchSize(100);
+        config.setLingerTime(50);
+        sender = new QueueingSender(client, config);
+
+        long started = System.nanoTime();
+        PostmarkFuture first = sender.enqueue(message(0));
+        PostmarkFuture second = sender.enqueue(message(1));
+        assertEquals(PostmarkStatus.SUCCESS, first.get(5, TimeUnit.SECONDS).getStatus());
+        assertEquals(PostmarkStatus.SUCCESS, second.get(5, TimeUnit.SECONDS).getStatus());
+
+        assertTrue(System.nanoTime() - started >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(1, server.getRequestCount());
+        assertEquals(2, server.getMessageCount());
+    }
+
+    @Test
+    public void blocksWhenFull() throws Exception {
+        sender = fullSender(OverflowPolicy.BLOCK);
+
+        long started = System.nanoTime();
+        PostmarkFuture blocked = sender.enqueue(message(2));
+        assertTrue(System.nanoTime() - started >= TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(PostmarkStatus.SUCCESS, blocked.get(5, TimeUnit.SECONDS).getStatus());
+        assertEquals(3, server.getMessageCount());
+    }
+
+    @Test
+    public void dropsWhenFull() throws Exception {
+        sender = fullSender(OverflowPolicy.DROP);
+
+        PostmarkFuture dropped = sender.enqueue(message(2));
+        assertTrue(dropped.isDone());
+        assertFailed(dropped);
+        assertTrue(sender.shutdown(5, TimeUnit.SECONDS));
+        assertEquals(2, server.getMessageCount());
+    }
+
+    @Test
+    public void failsWhenFull() throws Exception {
+        sender = fullSender(OverflowPolicy.FAIL);
+
+        try {
+            sender.enqueue(message(2));
+            fail();
+        } catch (PostmarkException expected) {
+        }
+        assertTrue(sender.shutdown(5, TimeUnit.SECONDS));
+        assertEquals(2, server.getMessageCount());
+    }
+
+    @Test
+    public void shutdownSendsQueuedMessages() throws Exception {
+        config.setBatchSize(100);
+        config.setLingerTime(60000);
+        sender = new QueueingSender(client, config);
+
+        List<PostmarkFuture> futures = new ArrayList<PostmarkFuture>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(sender.enqueue(message(i)));
+        }
+        assertTrue(sender.shutdown(5, TimeUnit.SECONDS));
+        for (PostmarkFuture future : futures) {
+            assertTrue(future.isDone());
+            assertEquals(PostmarkStatus.SUCCESS, future.get().getStatus());
+        }
+        assertEquals(5, server.getMessageCount());
+
+        try {
+            sender.enqueue(message(5));
+            fail();
+        } catch (PostmarkException expected) {
+        }
+    }
+
+    @Test
+    public void shutdownFailsMessagesLeftAtDeadline() throws Exception {
+        server.setLatency(PostmarkStubServer.Latency.fixed(500));
+        config.setBatchSize(1);
+        config.setLingerTime(0);
+        sender = new QueueingSender(client, config);
+
+        PostmarkFuture inFlight = sender.enqueue(message(0));
+        awaitEmptyQueue();
+        PostmarkFuture queued = sender.enqueue(message(1));
+
+        assertFalse(sender.shutdown(50, TimeUnit.MILLISECONDS));
+        assertTrue(queued.isDone());
+        assertFailed(queued);
+        assertEquals(PostmarkStatus.SUCCESS, inFlight.get(5, TimeUnit.SECONDS).getStatus());
+        assertEquals(1, server.getMessageCount());
+    }
+
+    // A sender whose worker is busy with one message and whose queue holds another
+    private QueueingSender fullSender(OverflowPolicy policy) throws Exception {
+        server.setLatency(PostmarkStubServer.Latency.fixed(200));
+        config.setCapacity(1);
+        config.setBatchSize(1);
+        config.setLingerTime(0);
+        config.setOverflowPolicy(policy);
+        sender = new QueueingSender(client, config);
+
+        sender.enqueue(message(0));
+        awaitEmptyQueue();
+        sender.enqueue(message(1));
+        assertEquals(1, sender.getQueueSize());
+        return sender;
+    }
+
+    private void awaitEmptyQueue() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (sender.getQueueSize() > 0) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private static void assertFailed(PostmarkFuture future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof PostmarkException);
+        }
+    }
+
+    private static PostmarkMessage message(int i) {
+        return new PostmarkMessage("from@example.com", "to" + i + "@example.com", null, null,
+                "Subject " + i, "Body " + i, false, null);
+    }
+}
@@ -0,0 +1,100 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import org.apache.http.client.HttpResponseException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void retriesTransientFailures() {
+        RetryPolicy policy = new RetryPolicy();
+
+        assertTrue(policy.isRetryable(new HttpResponseException(500, "Internal Server Error")));
+        assertTrue(policy.isRetryable(new HttpResponseException(429, "Too Many Requests")));
+        assertTrue(policy.isRetryable(new SocketTimeoutException()));
+        assertFalse(policy.isRetryable(new HttpResponseException(400, "Bad Request")));
+        assertFalse(policy.isRetryable(new IllegalStateException()));
+    }
+
+    @Test
+    public void neverRetriesUserErrors() {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setRetryableStatusCodes(new HashSet<Integer>(Arrays.asList(401, 422, 500)));
+
+        assertFalse(policy.isRetryable(new HttpResponseException(401, "Unauthorized")));
+        assertFalse(policy.isRetryable(new HttpResponseException(422, "Unprocessable Entity")));
+    }
+
+    @Test
+    public void backoffIsBoundedByExponentialCeiling() {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setBaseDelay(100);
+        policy.setMaxDelay(1000);
+
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(policy.backoff(1) <= 100);
+            assertTrue(policy.backoff(3) <= 400);
+            assertTrue(policy.backoff(60) <= 1000);
+            assertTrue(policy.backoff(60) >= 0);
+        }
+    }
+
+    @Test
+    public void budgetLimitsRetriesToDepositedShare() {
+        RetryBudget budget = new RetryBudget(0.5, 2);
+
+        assertTrue(budget.tryWithdraw());
+        assertTrue(budget.tryWithdraw());
+        assertFalse(budget.tryWithdraw());
+
+        budget.deposit();
+        assertFalse(budget.tryWithdraw());
+        budget.deposit();
+        assertTrue(budget.tryWithdraw());
+
+        for (int i = 0; i < 100; i++) {
+            budget.deposit();
+        }
+        assertEquals(2, budget.available());
+    }
+
+    @Test
+    public void retriesConfiguredExceptionTypes() {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setRetryableExceptions(Arrays.<Class<? extends Exception>>asList(SocketTimeoutException.class));
+
+        assertTrue(policy.isRetryable(new SocketTimeoutException()));
+        assertFalse(policy.isRetryable(new IOException()));
+    }
+}
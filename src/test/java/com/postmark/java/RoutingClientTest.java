@@ -0,0 +1,243 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+package com.postmark.java;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RoutingClientTest {
+
+    private PostmarkStubServer server;
+    private PostmarkClientConfig config;
+
+    @Before
+    public void start() throws Exception {
+        server = PostmarkStubServer.start(Arrays.asList("alpha", "beta", "gamma"), 4);
+        config = new PostmarkClientConfig();
+        config.setApiUrl(server.getUrl());
+    }
+
+    @After
+    public void stop() {
+        server.close();
+    }
+
+    @Test
+    public void routesByFromDomain() throws Exception {
+        Map<String, String> tokens = new HashMap<String, String>();
+        tokens.put("alpha.example", "alpha");
+        tokens.put("beta.example", "beta");
+        RoutingClient client = new RoutingClient(RoutingStrategy.byFromDomain(tokens, null), config);
+        try {
+            assertEquals(PostmarkStatus.SUCCESS, client.sendMessage(message("Sender <news@Alpha.Example>", null)).getStatus());
+            assertEquals(PostmarkStatus.SUCCESS, client.sendMessage(message("news@beta.example", null)).getStatus());
+            assertEquals(PostmarkStatus.SUCCESS, client.sendMessageAsync(message("news@beta.example", null)).get().getStatus());
+            try {
+                client.sendMessage(message("news@unknown.example", null));
+                fail();
+            } catch (PostmarkException expected) {
+            }
+
+            assertEquals(1, server.getMessageCount("alpha"));
+            assertEquals(2, server.getMessageCount("beta"));
+            assertEquals(new HashSet<String>(Arrays.asList("alpha", "beta")), client.getServerTokens());
+            assertEquals(2, client.getMetrics("beta").getSuccessCount());
+            assertNull(client.getMetrics("gamma"));
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void batchesPerTokenInInputOrder() {
+        Map<String, String> tokens = new HashMap<String, String>();
+        tokens.put("a", "alpha");
+        tokens.put("b", "beta");
+        RoutingClient client = new RoutingClient(RoutingStrategy.byTag(tokens, "gamma"), config);
+        try {
+            List<PostmarkMessage> messages = new ArrayList<PostmarkMessage>();
+            messages.add(message("from@example.com", "a"));
+            messages.add(message("from@example.com", "b"));
+            messages.add(message("from@example.com", null));
+            messages.add(message("from@example.com", "a"));
+            PostmarkMessage invalid = message("from@example.com", "b");
+            invalid.setToAddress(null);
+            messages.add(invalid);
+
+            List<PostmarkResponse> responses = client.sendMessages(messages);
+            assertEquals(5, responses.size());
+            for (int i = 0; i < 4; i++) {
+                assertEquals(PostmarkStatus.SUCCESS, responses.get(i).getStatus());
+            }
+            assertEquals(PostmarkStatus.USERERROR, responses.get(4).getStatus());
+            assertEquals(2, server.getMessageCount("alpha"));
+            assertEquals(1, server.getMessageCount("beta"));
+            assertEquals(1, server.getMessageCount("gamma"));
+            assertEquals(3, server.getRequestCount());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void hashesTenantsStably() {
+        List<String> tokens = Arrays.asList("alpha", "beta", "gamma");
+        RoutingStrategy strategy = RoutingStrategy.hashed(RoutingStrategy.Key.FROM_DOMAIN, tokens);
+        RoutingStrategy grown = RoutingStrategy.hashed(RoutingStrategy.Key.FROM_DOMAIN,
+                Arrays.asList("alpha", "beta", "gamma", "delta"));
+
+        Set<String> used = new HashSet<String>();
+        int moved = 0;
+        for (int i = 0; i < 1000; i++) {
+            PostmarkMessage message = message("news@tenant" + i + ".example", null);
+            String token = strategy.route(message);
+            assertEquals(token, strategy.route(message("other@TENANT" + i + ".example", null)));
+            used.add(token);
+            String next = grown.route(message);
+            if (!next.equals(token)) {
+                assertEquals("delta", next);
+                moved++;
+            }
+        }
+        assertEquals(new HashSet<String>(tokens), used);
+        assertTrue(moved > 150 && moved < 350);
+    }
+
+    @Test
+    public void limitsEachTokenSeparately() throws Exception {
+        config.setRateLimiter(new RateLimiter(0.001, 1));
+        Map<String, String> tokens = new HashMap<String, String>();
+        tokens.put("a", "alpha");
+        tokens.put("b", "beta");
+        RoutingClient client = new RoutingClient(RoutingStrategy.byTag(tokens, null), config);
+        try {
+            assertEquals(PostmarkStatus.SUCCESS, client.trySendMessage(message("from@example.com", "a")).getStatus());
+            assertEquals(PostmarkStatus.SUCCESS, client.trySendMessage(message("from@example.com", "b")).getStatus());
+            try {
+                client.trySendMessage(message("from@example.com", "a"));
+                fail();
+            } catch (PostmarkException expected) {
+                assertEquals(PostmarkStatus.THROTTLED, expected.getResponse().getStatus());
+            }
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void throttledTokenDoesNotSuspendTheOthers() throws Exception {
+        CircuitBreakerConfig breakerConfig = new CircuitBreakerConfig();
+        breakerConfig.setConsecutiveFailures(2);
+        config.setCircuitBreaker(new CircuitBreaker(breakerConfig));
+        config.setRetryPolicy(null);
+        server.setThrottled("alpha", true);
+        Map<String, String> tokens = new HashMap<String, String>();
+        tokens.put("a", "alpha");
+        tokens.put("b", "beta");
+        RoutingClient client = new RoutingClient(RoutingStrategy.byTag(tokens, null), config);
+        try {
+            for (int i = 0; i < 3; i++) {
+                try {
+                    client.sendMessage(message("from@example.com", "a"));
+                    fail();
+                } catch (PostmarkException expected) {
+                }
+            }
+            // Two 429s opened alpha's breaker, so the third send was refused locally
+            assertEquals(2, client.getMetrics("alpha").getThrottledCount());
+            assertEquals(1, client.getMetrics("alpha").getCircuitOpenCount());
+
+            for (int i = 0; i < 3; i++) {
+                assertEquals(PostmarkStatus.SUCCESS, client.sendMessage(message("from@example.com", "b")).getStatus());
+            }
+            assertEquals(3, server.getMessageCount("beta"));
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void closeFailsQueuedSendsOfEveryToken() throws Exception {
+        server.setLatency(PostmarkStubServer.Latency.fixed(300));
+        config.setAsyncThreads(1);
+        Map<String, String> tokens = new HashMap<String, String>();
+        tokens.put("a", "alpha");
+        tokens.put("b", "beta");
+        RoutingClient client = new RoutingClient(RoutingStrategy.byTag(tokens, null), config);
+
+        client.sendMessageAsync(message("from@example.com", "a"));
+        PostmarkFuture queuedAlpha = client.sendMessageAsync(message("from@example.com", "a"));
+        PostmarkFuture queuedBeta = client.sendMessageAsync(message("from@example.com", "b"));
+        client.close();
+
+        assertTrue(queuedAlpha.isDone());
+        assertTrue(queuedBeta.isDone());
+        try {
+            queuedBeta.get();
+            fail();
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof PostmarkException);
+        }
+    }
+
+    @Test
+    public void closingOneTokenFailsOnlyItsQueuedSends() throws Exception {
+        server.setLatency(PostmarkStubServer.Latency.fixed(300));
+        config.setAsyncThreads(1);
+        PostmarkClient shared = new PostmarkClient(null, config, null, null, null, null);
+        PostmarkClient alpha = new PostmarkClient("alpha", config, shared, null, null, null);
+        PostmarkClient beta = new PostmarkClient("beta", config, shared, null, null, null);
+        try {
+            PostmarkFuture running = beta.sendMessageAsync(message("from@example.com", null));
+            PostmarkFuture queuedAlpha = alpha.sendMessageAsync(message("from@example.com", null));
+            PostmarkFuture queuedBeta = beta.sendMessageAsync(message("from@example.com", null));
+            alpha.close();
+
+            assertTrue(queuedAlpha.isDone());
+            assertEquals(PostmarkStatus.SUCCESS, running.get(5, TimeUnit.SECONDS).getStatus());
+            assertEquals(PostmarkStatus.SUCCESS, queuedBeta.get(5, TimeUnit.SECONDS).getStatus());
+            assertEquals(0, server.getMessageCount("alpha"));
+        } finally {
+            shared.close();
+        }
+    }
+
+    private static PostmarkMessage message(String from, String tag) {
+        return new PostmarkMessage(from, "to@example.com", null, null, "Subject", "Body", false, tag);
+    }
+}
@@ -0,0 +1,97 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import org.junit.Test;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SendMetricsTest {
+
+    @Test
+    public void histogramBucketsAreContiguous() {
+        for (int i = 1; i < LatencyHistogram.BUCKETS; i++) {
+            assertEquals(i, LatencyHistogram.index(LatencyHistogram.upperBound(i - 1) + 1));
+            assertEquals(i, LatencyHistogram.index(LatencyHistogram.upperBound(i)));
+        }
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.index(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentilesAreWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000000);
+        }
+
+        assertEquals(1000, histogram.count());
+        assertWithin(500000000, histogram.percentile(0.5));
+        assertWithin(990000000, histogram.percentile(0.99));
+        assertWithin(999000000, histogram.percentile(0.999));
+    }
+
+    @Test
+    public void countsOutcomesAndInFlight() {
+        SendMetrics metrics = new SendMetrics();
+        metrics.sendStarted();
+        metrics.sendStarted();
+        assertEquals(2, metrics.getInFlight());
+
+        metrics.phaseCompleted(SendPhase.SERIALIZE, 2000000);
+        metrics.sendCompleted(PostmarkStatus.SUCCESS, 5000000);
+        metrics.sendCompleted(PostmarkStatus.USERERROR, 1000000);
+
+        assertEquals(0, metrics.getInFlight());
+        assertEquals(1, metrics.getSuccessCount());
+        assertEquals(1, metrics.getUserErrorCount());
+        assertEquals(0, metrics.getServerErrorCount());
+        assertEquals(2.0, metrics.getPhaseLatency("SERIALIZE", 0.5), 0.2);
+
+        metrics.reset();
+        assertEquals(0, metrics.getSuccessCount());
+        assertEquals(0, metrics.getLatency(0.5));
+    }
+
+    @Test
+    public void registersWithJmx() throws Exception {
+        SendMetrics metrics = new SendMetrics();
+        ObjectName name = metrics.register("test");
+        try {
+            metrics.sendStarted();
+            metrics.sendCompleted(PostmarkStatus.THROTTLED, 1000);
+            assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "ThrottledCount"));
+        } finally {
+            metrics.unregister();
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(expected + " vs " + actual, actual >= expected && actual <= expected + expected / 16);
+    }
+}
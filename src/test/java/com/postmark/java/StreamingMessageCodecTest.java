@@ -0,0 +1,252 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParser;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import org.apache.commons.codec.binary.Base64;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class StreamingMessageCodecTest {
+
+    private final MessageCodec gson = new GsonMessageCodec();
+    private final MessageCodec streaming = new StreamingMessageCodec();
+
+    @Test
+    public void writesSameBytesAsGson() throws IOException {
+        assertParity(fullMessage());
+    }
+
+    @Test
+    public void omitsNullFieldsLikeGson() throws IOException {
+        PostmarkMessage message = new PostmarkMessage("from@test.com", "to@test.com", null, null, "Subject", "Body", false, null);
+        message.setHeaders(null);
+        assertParity(message);
+    }
+
+    @Test
+    public void escapesLikeGson() throws IOException {
+        StringBuilder all = new StringBuilder();
+        for (char c = 0; c < 0x100; c++) {
+            all.append(c);
+        }
+        all.append("<a href='x'>&amp;</a> \u2028 \u2029 \u20ac \ud83d\ude00 \ud83d lone \ude00");
+
+        PostmarkMessage message = new PostmarkMessage("\"Quoted\" <from@test.com>", "to@test.com", null, null, all.toString(), all.toString(), true, "tag\\");
+        assertParity(message);
+    }
+
+    @Test
+    public void writesSameSemanticsAsPrettyPrintedGson() throws IOException {
+        PostmarkMessage message = fullMessage();
+        MessageCodec pretty = new GsonMessageCodec(new GsonBuilder().setPrettyPrinting());
+
+        JsonParser parser = new JsonParser();
+        assertEquals(parser.parse(toJson(pretty, message)), parser.parse(toJson(streaming, message)));
+    }
+
+    @Test
+    public void readsResponseLikeGson() throws IOException {
+        String json = "{\"ErrorCode\":0,\"Message\":\"OK\",\"MessageID\":\"b7bc2f4a-e38e-4336-af7d-e6c392c2f817\","
+                + "\"SubmittedAt\":\"2010-11-26T12:01:05.1794748-05:00\",\"To\":\"receiver@example.com\",\"Unknown\":[1,{\"a\":null}]}";
+
+        PostmarkResponse expected = gson.readResponse(new StringReader(json));
+        PostmarkResponse actual = streaming.readResponse(new StringReader(json));
+
+        assertEquals(expected.toString(), actual.toString());
+        assertEquals(new DateTime("2010-11-26T12:01:05.179-05:00"), actual.getSubmittedAt());
+    }
+
+    @Test
+    public void readsUserErrorResponse() throws IOException {
+        String json = "{\"ErrorCode\":300,\"Message\":\"Invalid 'To' address: 'x'.\",\"Status\":\"NOT_A_STATUS\",\"To\":null}";
+
+        PostmarkResponse actual = streaming.readResponse(new StringReader(json));
+
+        assertEquals(gson.readResponse(new StringReader(json)).toString(), actual.toString());
+        assertEquals(300, actual.getErrorCode());
+        assertNull(actual.getStatus());
+    }
+
+    @Test
+    public void streamsAttachmentSourcesAsBase64() throws IOException {
+        byte[] content = new byte[100000];
+        new Random(42).nextBytes(content);
+        Path file = Files.createTempFile("attachment", ".bin");
+        try {
+            Files.write(file, content);
+
+            Attachment inline = new Attachment();
+            inline.setName("a.bin");
+            inline.setContentType("application/octet-stream");
+            inline.setContent(Base64.encodeBase64String(content));
+
+            PostmarkMessage expected = fullMessage();
+            expected.setAttachments(Arrays.asList(inline, inline, inline));
+
+            PostmarkMessage streamed = fullMessage();
+            streamed.setAttachments(Arrays.asList(
+                    Attachment.fromPath("a.bin", "application/octet-stream", file),
+                    Attachment.fromByteBuffer("a.bin", "application/octet-stream", ByteBuffer.wrap(content)),
+                    Attachment.fromInputStream("a.bin", "application/octet-stream", new ByteArrayInputStream(content))));
+
+            assertArrayEquals(toBytes(gson, expected), toBytes(streaming, streamed));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void gsonFallbackEncodesAttachmentSources() throws IOException {
+        byte[] content = "Hello".getBytes("UTF-8");
+        ByteBuffer direct = ByteBuffer.allocateDirect(content.length);
+        direct.put(content).flip();
+
+        PostmarkMessage message = fullMessage();
+        message.setAttachments(Arrays.asList(Attachment.fromByteBuffer("readme.txt", "text/plain", direct)));
+
+        assertArrayEquals(toBytes(gson, fullMessage()), toBytes(gson, message));
+    }
+
+    @Test
+    public void measuresWithoutReadingSources() throws IOException {
+        StreamingMessageCodec codec = new StreamingMessageCodec();
+        for (int length = 0; length < 10; length++) {
+            PostmarkMessage message = fullMessage();
+            message.setAttachments(Arrays.asList(Attachment.fromByteBuffer("a.bin", "application/octet-stream",
+                    ByteBuffer.allocate(length * 1000 + length))));
+
+            assertEquals(toBytes(codec, message).length, codec.measure(message));
+        }
+        assertEquals(toBytes(codec, fullMessage()).length, codec.measure(fullMessage()));
+    }
+
+    @Test
+    public void batchEntityWritesJsonArray() throws IOException {
+        List<BatchEntity.Part> parts = new ArrayList<BatchEntity.Part>();
+        parts.add(new BatchEntity.Part(streaming, fullMessage()));
+        parts.add(new BatchEntity.Part(streaming, fullMessage()));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new BatchEntity(streaming, parts).writeTo(out);
+
+        String json = toJson(streaming, fullMessage());
+        assertEquals("[" + json + "," + json + "]", out.toString("UTF-8"));
+        assertEquals(json.getBytes("UTF-8").length, parts.get(0).size);
+    }
+
+    @Test
+    public void templatedMessageMatchesGson() throws IOException {
+        Map<String, Object> item = new LinkedHashMap<String, Object>();
+        item.put("sku", "A-1");
+        item.put("price", 9.99);
+        item.put("quantity", 2);
+        item.put("gift", Boolean.TRUE);
+        item.put("note", null);
+
+        Map<String, Object> model = new LinkedHashMap<String, Object>();
+        model.put("name", "J\u00f6rg \"<b>\"");
+        model.put("items", Arrays.asList(item, null));
+        model.put("codes", new String[]{"x", "y"});
+        model.put("total", 19980000000L);
+        model.put("initial", 'J');
+        model.put("header", new NameValuePair("X-Key", "value"));
+
+        TemplatedPostmarkMessage message = new TemplatedPostmarkMessage("from@test.com", "to@test.com", 1234L, model);
+        message.setInlineCss(false);
+        message.setTag("receipt");
+        message.clean();
+        assertParity(message);
+
+        TemplatedPostmarkMessage byAlias = new TemplatedPostmarkMessage("from@test.com", "to@test.com", "welcome", null);
+        assertParity(byAlias);
+        assertEquals(toBytes(streaming, message).length, ((StreamingMessageCodec) streaming).measure(message));
+    }
+
+    @Test
+    public void templatesBatchIsWrapped() throws IOException {
+        TemplatedPostmarkMessage message = new TemplatedPostmarkMessage("from@test.com", "to@test.com", "welcome", null);
+        List<BatchEntity.Part> parts = new ArrayList<BatchEntity.Part>();
+        parts.add(new BatchEntity.Part(streaming, message));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new BatchEntity(streaming, parts, true).writeTo(out);
+
+        String json = toJson(streaming, message);
+        assertEquals("{\"Messages\":[" + json + "]}", out.toString("UTF-8"));
+        assertEquals(json.length() + BatchEntity.TEMPLATES_OVERHEAD, out.size());
+    }
+
+    private PostmarkMessage fullMessage() {
+        List<NameValuePair> headers = new ArrayList<NameValuePair>();
+        headers.add(new NameValuePair("X-Header", "test"));
+        headers.add(new NameValuePair("X-Empty", null));
+
+        PostmarkMessage message = new PostmarkMessage("from@test.com", "to@test.com", "replyTo@test.com",
+                "cc@test.com", "bcc@test.com", "Test Subject", "<p>Hello</p>", true, "welcome", headers);
+
+        Attachment attachment = new Attachment();
+        attachment.setName("readme.txt");
+        attachment.setContentType("text/plain");
+        attachment.setContent("SGVsbG8=");
+
+        List<Attachment> attachments = new ArrayList<Attachment>();
+        attachments.add(attachment);
+        message.setAttachments(attachments);
+        return message;
+    }
+
+    private void assertParity(PostmarkMessage message) throws IOException {
+        assertArrayEquals(toBytes(gson, message), toBytes(streaming, message));
+    }
+
+    private static byte[] toBytes(MessageCodec codec, PostmarkMessage message) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.writeMessage(message, out);
+        return out.toByteArray();
+    }
+
+    private static String toJson(MessageCodec codec, PostmarkMessage message) throws IOException {
+        return new String(toBytes(codec, message), "UTF-8");
+    }
+}